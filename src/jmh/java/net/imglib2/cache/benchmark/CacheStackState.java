@@ -0,0 +1,116 @@
+package net.imglib2.cache.benchmark;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DirtyDiskCellCache;
+import net.imglib2.cache.img.DiskCachedCellImgFactory;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.cache.lowlevel.example03.Example03.CheckerboardLoader;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import static net.imglib2.cache.img.DiskCachedCellImgOptions.options;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * Builds the cache stack under test. {@code "lowlevel"} is the
+ * {@code DirtyDiskCellCache} + {@code IoSync} +
+ * {@code GuardedStrongRefLoaderRemoverCache} + {@code LazyCellImg} stack from
+ * {@code lowlevel.example03}, {@code "factory"} is the
+ * {@code DiskCachedCellImgFactory} path from {@code example03}.
+ * <p>
+ * The image is always {@value #CELLS_PER_DIMENSION}<sup>3</sup> cells, so
+ * {@code cacheSize=100} forces eviction while {@code cacheSize=1000} holds
+ * every cell.
+ * <p>
+ * The stack is rebuilt for every iteration, so that iterations start with an
+ * empty cache. States that take accessors of {@link #img} must therefore be
+ * set up at {@code Level.Iteration} as well.
+ */
+@State( Scope.Benchmark )
+public class CacheStackState
+{
+	public static final int CELLS_PER_DIMENSION = 10;
+
+	@Param( { "lowlevel", "factory" } )
+	public String stack;
+
+	@Param( { "100", "1000" } )
+	public int cacheSize;
+
+	@Param( { "32", "64" } )
+	public int cellSize;
+
+	public CellGrid grid;
+
+	public AbstractCellImg< UnsignedShortType, ?, ? extends Cell< ? >, ? > img;
+
+	public long numCells;
+
+	public final AtomicLong nextCell = new AtomicLong();
+
+	@Setup( Level.Iteration )
+	public void setup() throws IOException
+	{
+		final int[] cellDimensions = new int[] { cellSize, cellSize, cellSize };
+		final long[] dimensions = new long[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+			dimensions[ d ] = CELLS_PER_DIMENSION * cellSize;
+
+		grid = new CellGrid( dimensions, cellDimensions );
+		numCells = Intervals.numElements( grid.getGridDimensions() );
+		nextCell.set( 0 );
+
+		switch ( stack )
+		{
+		case "lowlevel":
+			img = createLowLevel( grid, cacheSize );
+			break;
+		case "factory":
+			img = new DiskCachedCellImgFactory<>( new UnsignedShortType(), options()
+					.cellDimensions( cellDimensions )
+					.cacheType( CacheType.BOUNDED )
+					.maxCacheSize( cacheSize ) )
+							.create( dimensions, new net.imglib2.cache.example03.Example03.CheckerboardLoader( grid ) );
+			break;
+		default:
+			throw new IllegalArgumentException( "unknown stack: " + stack );
+		}
+	}
+
+	static LazyCellImg< UnsignedShortType, DirtyShortArray > createLowLevel( final CellGrid grid, final int maxNumCells ) throws IOException
+	{
+		final UnsignedShortType type = new UnsignedShortType();
+		final Path blockcache = DiskCellCache.createTempDirectory( "Benchmark-", true );
+		final DiskCellCache< DirtyShortArray > diskcache = new DirtyDiskCellCache<>(
+				blockcache,
+				grid,
+				new CheckerboardLoader( grid ),
+				AccessIo.get( SHORT, AccessFlags.setOf( DIRTY ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< DirtyShortArray >, DirtyShortArray > iosync = new IoSync<>( diskcache );
+		final UncheckedCache< Long, Cell< DirtyShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirtyShortArray >, DirtyShortArray >( maxNumCells )
+				.withRemover( iosync )
+				.withLoader( iosync )
+				.unchecked();
+		return new LazyCellImg<>( grid, type, cache::get );
+	}
+}
@@ -0,0 +1,68 @@
+package net.imglib2.cache.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import net.imglib2.RandomAccess;
+import net.imglib2.img.cell.Cell;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Cell-load throughput: every invocation fetches the next cell of the grid
+ * (cycling through all cells), so with {@code cacheSize=100} almost every
+ * access is a miss that goes through the disk cache or the loader.
+ */
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Warmup( iterations = 2, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( value = 1, jvmArgs = { "-Xmx4g" } )
+public class CellLoadBenchmark
+{
+	@State( Scope.Thread )
+	public static class Cells
+	{
+		RandomAccess< ? extends Cell< ? > > cells;
+
+		long[] gridPosition;
+
+		@Setup( Level.Iteration )
+		public void setup( final CacheStackState state )
+		{
+			cells = state.img.getCells().randomAccess();
+			gridPosition = new long[ state.grid.numDimensions() ];
+		}
+	}
+
+	@Benchmark
+	public void loadCell( final CacheStackState state, final Cells cells, final Blackhole bh )
+	{
+		final long index = state.nextCell.getAndIncrement() % state.numCells;
+		state.grid.getCellGridPositionFlat( index, cells.gridPosition );
+		cells.cells.setPosition( cells.gridPosition );
+		bh.consume( cells.cells.get().getData() );
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final int threads = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 1;
+		final Options opt = new OptionsBuilder()
+				.include( CellLoadBenchmark.class.getSimpleName() )
+				.threads( threads )
+				.build();
+		new Runner( opt ).run();
+	}
+}
@@ -0,0 +1,74 @@
+package net.imglib2.cache.benchmark;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import net.imglib2.RandomAccess;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Random-access latency: every invocation reads one voxel at a uniformly
+ * random position, i.e. a cell switch (and possibly a cache miss) on almost
+ * every access.
+ */
+@BenchmarkMode( { Mode.AverageTime, Mode.SampleTime } )
+@OutputTimeUnit( TimeUnit.NANOSECONDS )
+@Warmup( iterations = 2, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+@Fork( value = 1, jvmArgs = { "-Xmx4g" } )
+public class RandomAccessBenchmark
+{
+	@State( Scope.Thread )
+	public static class Accessor
+	{
+		RandomAccess< UnsignedShortType > access;
+
+		final Random random = new Random( 1 );
+
+		long[] dimensions;
+
+		long[] position;
+
+		@Setup( Level.Iteration )
+		public void setup( final CacheStackState state )
+		{
+			access = state.img.randomAccess();
+			dimensions = state.img.dimensionsAsLongArray();
+			position = new long[ dimensions.length ];
+		}
+	}
+
+	@Benchmark
+	public int randomVoxel( final Accessor accessor )
+	{
+		final long[] position = accessor.position;
+		for ( int d = 0; d < position.length; ++d )
+			position[ d ] = ( long ) ( accessor.random.nextDouble() * accessor.dimensions[ d ] );
+		accessor.access.setPosition( position );
+		return accessor.access.get().get();
+	}
+
+	public static void main( final String... args ) throws RunnerException
+	{
+		final int threads = args.length > 0 ? Integer.parseInt( args[ 0 ] ) : 1;
+		final Options opt = new OptionsBuilder()
+				.include( RandomAccessBenchmark.class.getSimpleName() )
+				.threads( threads )
+				.build();
+		new Runner( opt ).run();
+	}
+}
@@ -8,6 +8,7 @@ import bdv.util.volatiles.VolatileViews;
 import java.io.IOException;
 import net.imglib2.RandomAccessible;
 import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.cache.examplepool.AdaptiveFetchPool;
 import net.imglib2.cache.img.CellLoader;
 import net.imglib2.cache.img.DiskCachedCellImgFactory;
 import net.imglib2.cache.img.SingleCellArrayImg;
@@ -66,13 +67,15 @@ public class Example05
 		final RandomAccessible< UnsignedShortType > source = Views.extendBorder( img );
 		final double[] sigma1 = new double[] { 5, 5, 5 };
 		final double[] sigma2 = new double[] { 4, 4, 4 };
-		final Img< UnsignedShortType > gauss1 = factory.create( dimensions, cell -> Gauss3.gauss( sigma1, source, cell ), options().initializeCellsAsDirty( true ) );
-		final Img< UnsignedShortType > gauss2 = factory.create( dimensions, cell -> Gauss3.gauss( sigma2, source, cell ), options().initializeCellsAsDirty( true ) );
+		final AdaptiveFetchPool pool = new AdaptiveFetchPool();
+		pool.setReport( System.out );
+		final Img< UnsignedShortType > gauss1 = factory.create( dimensions, pool.cpuCells( cell -> Gauss3.gauss( sigma1, source, cell ) ), options().initializeCellsAsDirty( true ) );
+		final Img< UnsignedShortType > gauss2 = factory.create( dimensions, pool.cpuCells( cell -> Gauss3.gauss( sigma2, source, cell ) ), options().initializeCellsAsDirty( true ) );
 
 //		BdvFunctions.show( gauss1, "Gauss 1", BdvOptions.options().addTo( bdv ) );
 //		BdvFunctions.show( gauss2, "Gauss 2", BdvOptions.options().addTo( bdv ) );
 
-		final SharedQueue queue = new SharedQueue( 7 );
+		final SharedQueue queue = pool.getSharedQueue();
 		BdvFunctions.show( VolatileViews.wrapAsVolatile( gauss1, queue ), "Gauss 1", BdvOptions.options().addTo( bdv ) );
 		BdvFunctions.show( VolatileViews.wrapAsVolatile( gauss2, queue ), "Gauss 2", BdvOptions.options().addTo( bdv ) );
 	}
@@ -14,6 +14,7 @@ import net.imglib2.cache.img.DiskCachedCellImgFactory;
 import net.imglib2.cache.img.DiskCachedCellImgOptions;
 import net.imglib2.cache.img.SingleCellArrayImg;
 import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.cache.lowlevel.examplealigned.CellAlignedOps;
 import net.imglib2.img.Img;
 import net.imglib2.img.cell.CellGrid;
 import net.imglib2.type.numeric.integer.ShortType;
@@ -78,11 +79,23 @@ public class Example06
 		final DiskCachedCellImgFactory< ShortType > sfactory = new DiskCachedCellImgFactory<>( stype, factoryOptions );
 //		final Img< ShortType > diff = sfactory.create( dimensions, cell -> Views.interval( Views.pair( cell, Views.pair( gauss1, gauss2 ) ), cell ).forEach( a -> a.getA().set( ( short ) ( a.getB().getA().get() - a.getB().getB().get() + 65535 / 4 ) ) ) );
 		final Img< ShortType > diff = sfactory.create( dimensions, cell -> {
-			final Cursor< UnsignedShortType > in1 = Views.flatIterable( Views.interval( gauss1, cell ) ).cursor();
-			final Cursor< UnsignedShortType > in2 = Views.flatIterable( Views.interval( gauss2, cell ) ).cursor();
+			/*
+			 * gauss1, gauss2, and diff have the same cells, so we can work
+			 * directly on the primitive arrays.
+			 */
+			final short[] in1 = CellAlignedOps.shortCell( gauss1, cell );
+			final short[] in2 = CellAlignedOps.shortCell( gauss2, cell );
+			if ( in1 != null && in2 != null )
+			{
+				CellAlignedOps.map( in1, in2, ( short[] ) cell.getStorageArray(), ( a, b ) -> ( short ) ( ( a & 0xffff ) - ( b & 0xffff ) + 65535 / 4 ) );
+				return;
+			}
+
+			final Cursor< UnsignedShortType > c1 = Views.flatIterable( Views.interval( gauss1, cell ) ).cursor();
+			final Cursor< UnsignedShortType > c2 = Views.flatIterable( Views.interval( gauss2, cell ) ).cursor();
 			final Cursor< ShortType > out = Views.flatIterable( cell ).cursor();
 			while ( out.hasNext() )
-				out.next().set( ( short ) ( in1.next().get() - in2.next().get() + 65535 / 4 ) );
+				out.next().set( ( short ) ( c1.next().get() - c2.next().get() + 65535 / 4 ) );
 		}, options().initializeCellsAsDirty( true ) );
 
 		final SharedQueue queue = new SharedQueue( 7 );
@@ -0,0 +1,273 @@
+package net.imglib2.cache.examplebatch;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.exampleclassifier.ExampleClassifyingCell;
+import net.imglib2.cache.exampleclassifier.ExampleClassifyingCell.ClassifyingCellLoader;
+import net.imglib2.cache.exampleclassifier.ThresholdingClassifier;
+import net.imglib2.cache.examplehttp.ExampleHTTP;
+import net.imglib2.cache.examplehttp.GradientMagnitudeLoader;
+import net.imglib2.cache.examplematerialize.Materialize;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DirtyDiskCellCache;
+import net.imglib2.cache.img.DiskCachedCellImg;
+import net.imglib2.cache.img.DiskCachedCellImgFactory;
+import net.imglib2.cache.img.DiskCachedCellImgOptions;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.cache.lowlevel.example06.Example06.CheckerboardLoader;
+import net.imglib2.cache.lowlevel.exampledog.FusedDoG;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGather;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+
+import static net.imglib2.cache.img.DiskCachedCellImgOptions.options;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.type.PrimitiveType.BYTE;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * Runs one of the example pipelines headless: the output stage is
+ * {@link Materialize materialized} over the whole volume or a region of
+ * interest and written to a raw volume file by a {@link RawVolumeSink}. At the
+ * end, throughput, peak heap usage and disk I/O are printed.
+ * <p>
+ * Usage: {@code BatchRunner [config.properties] [key=value ...]}, where
+ * {@code key=value} arguments override the config file. Keys:
+ * <ul>
+ * <li>{@code pipeline}: {@code dog} (checkerboard &rarr; Gauss &rarr; DoG),
+ * {@code gradient} (HTTP &rarr; gradient magnitude) or {@code classifier}
+ * (checkerboard features &rarr; classifier). Default {@code dog}.</li>
+ * <li>{@code dimensions}, {@code cellDimensions}: comma-separated. Default
+ * {@code 640,640,640} and {@code 64,64,64}.</li>
+ * <li>{@code roi}: {@code min0,min1,...,max0,max1,...} in pixels (inclusive).
+ * Default: the whole volume.</li>
+ * <li>{@code threads}: number of worker threads. Default: number of
+ * processors.</li>
+ * <li>{@code output}: raw output file. Default {@code <pipeline>.raw}.</li>
+ * <li>{@code sigmas} ({@code dog} only): comma-separated scales. Default
+ * {@code 4,5}.</li>
+ * <li>{@code offset} ({@code gradient} only): origin in the DVID data set.
+ * Default {@code 3456,3072,2688}.</li>
+ * </ul>
+ */
+public class BatchRunner
+{
+	public static void main( final String[] args ) throws IOException, InterruptedException, ExecutionException
+	{
+		final Properties config = new Properties();
+		for ( final String arg : args )
+		{
+			final int eq = arg.indexOf( '=' );
+			if ( eq < 0 )
+			{
+				try ( InputStream in = Files.newInputStream( Paths.get( arg ) ) )
+				{
+					config.load( in );
+				}
+			}
+			else
+				config.setProperty( arg.substring( 0, eq ).trim(), arg.substring( eq + 1 ).trim() );
+		}
+
+		final String pipeline = config.getProperty( "pipeline", "dog" );
+		final long[] dimensions = parseLongs( config.getProperty( "dimensions", "640,640,640" ) );
+		final int[] cellDimensions = Arrays.stream( parseLongs( config.getProperty( "cellDimensions", "64,64,64" ) ) ).mapToInt( l -> ( int ) l ).toArray();
+		final int numThreads = Integer.parseInt( config.getProperty( "threads", "" + Runtime.getRuntime().availableProcessors() ) );
+		final Path output = Paths.get( config.getProperty( "output", pipeline + ".raw" ) );
+		final long[] roi = config.containsKey( "roi" ) ? parseLongs( config.getProperty( "roi" ) ) : null;
+
+		System.out.println( "pipeline " + pipeline + ", " + Arrays.toString( dimensions ) + " in cells of " + Arrays.toString( cellDimensions ) + ", " + numThreads + " threads" );
+		final long[] ioBefore = readProcessIo();
+
+		switch ( pipeline )
+		{
+		case "dog":
+		{
+			final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+			final Path blockcache = DiskCellCache.createTempDirectory( "CellImg-", true );
+			final DiskCellCache< DirtyShortArray > diskcache = new DirtyDiskCellCache<>(
+					blockcache,
+					grid,
+					new CheckerboardLoader( grid ),
+					AccessIo.get( SHORT, AccessFlags.setOf( DIRTY ) ),
+					new UnsignedShortType().getEntitiesPerPixel() );
+			final IoSync< Long, Cell< DirtyShortArray >, DirtyShortArray > iosync = new IoSync<>( diskcache );
+			final UncheckedCache< Long, Cell< DirtyShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirtyShortArray >, DirtyShortArray >( 1000 )
+					.withRemover( iosync )
+					.withLoader( iosync )
+					.unchecked();
+			final LazyCellImg< UnsignedShortType, DirtyShortArray > img = new LazyCellImg<>( grid, new UnsignedShortType(), cache::get );
+
+			// the volatile DoG image is never shown, so its queue needs no fetcher threads
+			final BlockingFetchQueues< Callable< ? > > queue = new BlockingFetchQueues<>( 1, 1 );
+			final FusedDoG dog = new FusedDoG( new HaloGather( img ), parseDoubles( config.getProperty( "sigmas", "4,5" ) ), true, queue );
+			run( dog.getDoG().getA(), roi, numThreads, output );
+			break;
+		}
+		case "gradient":
+		{
+			final long[] offset = parseLongs( config.getProperty( "offset", "3456,3072,2688" ) );
+			final DiskCachedCellImgOptions factoryOptions = options()
+					.cacheType( CacheType.BOUNDED )
+					.maxCacheSize( 1000 )
+					.cellDimensions( cellDimensions );
+			final DiskCachedCellImg< UnsignedByteType, ? > httpImg = ExampleHTTP.createHttpImg( offset, dimensions, cellDimensions, factoryOptions );
+			final GradientMagnitudeLoader gradientLoader = new GradientMagnitudeLoader( new HaloGather( httpImg ), BYTE );
+			run( new DiskCachedCellImgFactory<>( new FloatType(), factoryOptions ).create( dimensions, gradientLoader ), roi, numThreads, output );
+			break;
+		}
+		case "classifier":
+		{
+			final DiskCachedCellImgFactory< UnsignedShortType > factory = new DiskCachedCellImgFactory<>( new UnsignedShortType(), options()
+					.cellDimensions( cellDimensions )
+					.cacheType( CacheType.BOUNDED )
+					.maxCacheSize( 100 ) );
+			final Img< UnsignedShortType > img = factory.create( dimensions, new ExampleClassifyingCell.CheckerboardLoader( new CellGrid( dimensions, cellDimensions ) ) );
+			final List< RandomAccessibleInterval< UnsignedShortType > > features = Arrays.asList( img );
+			run( factory.create( dimensions, new ClassifyingCellLoader<>( features, new ThresholdingClassifier( 0.5 ), 2 ) ), roi, numThreads, output );
+			break;
+		}
+		default:
+			throw new IllegalArgumentException( "unknown pipeline " + pipeline );
+		}
+
+		final long[] ioAfter = readProcessIo();
+		System.out.println( String.format( "peak heap: %.1f MB", peakHeapBytes() / 1e6 ) );
+		if ( ioBefore != null && ioAfter != null )
+			System.out.println( String.format( "disk I/O: %.1f MB read, %.1f MB written", ( ioAfter[ 0 ] - ioBefore[ 0 ] ) / 1e6, ( ioAfter[ 1 ] - ioBefore[ 1 ] ) / 1e6 ) );
+		else
+			System.out.println( "disk I/O: not available on this platform" );
+		System.exit( 0 );
+	}
+
+	/**
+	 * Materialize the cells of {@code img} that overlap {@code roi} into a raw
+	 * volume file, printing progress every 5 seconds.
+	 *
+	 * @param roi
+	 *            {@code min0,min1,...,max0,max1,...}, may have fewer
+	 *            dimensions than {@code img} (missing dimensions are
+	 *            complete), or {@code null} for all of {@code img}.
+	 */
+	private static < T extends NativeType< T >, A > void run( final LazyCellImg< T, A > img, final long[] roi, final int numThreads, final Path output ) throws IOException, InterruptedException, ExecutionException
+	{
+		final CellGrid grid = img.getCellGrid();
+		final Materialize.Progress progress = roi == null
+				? Materialize.start( grid )
+				: Materialize.start( grid, roiInterval( roi, grid ) );
+
+		final Timer timer = new Timer( true );
+		timer.schedule( new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				System.out.println( progress );
+			}
+		}, 5000, 5000 );
+
+		final RawVolumeSink< A > sink = new RawVolumeSink<>( output, grid, img.createLinkedType() );
+		try
+		{
+			Materialize.materialize( img, numThreads, 2 * numThreads, sink, progress );
+		}
+		finally
+		{
+			timer.cancel();
+			sink.close();
+		}
+
+		System.out.println( "done: " + progress );
+		System.out.println( String.format( "wrote %s (%.1f MB, %s)", output, sink.size() / 1e6, Arrays.toString( grid.getImgDimensions() ) ) );
+	}
+
+	private static Interval roiInterval( final long[] roi, final CellGrid grid )
+	{
+		final int n = grid.numDimensions();
+		final int m = roi.length / 2;
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			min[ d ] = d < m ? roi[ d ] : 0;
+			max[ d ] = d < m ? roi[ m + d ] : grid.imgDimension( d ) - 1;
+		}
+		return new FinalInterval( min, max );
+	}
+
+	/**
+	 * Sum of the peak usage of all heap memory pools.
+	 */
+	private static long peakHeapBytes()
+	{
+		long peak = 0;
+		for ( final MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans() )
+			if ( pool.getType() == MemoryType.HEAP )
+				peak += pool.getPeakUsage().getUsed();
+		return peak;
+	}
+
+	/**
+	 * Bytes read from and written to storage by this process so far,
+	 * according to {@code /proc/self/io}, or {@code null} if that is not
+	 * available.
+	 */
+	private static long[] readProcessIo()
+	{
+		try
+		{
+			final long[] io = new long[ 2 ];
+			for ( final String line : Files.readAllLines( Paths.get( "/proc/self/io" ) ) )
+			{
+				if ( line.startsWith( "read_bytes:" ) )
+					io[ 0 ] = Long.parseLong( line.substring( 11 ).trim() );
+				else if ( line.startsWith( "write_bytes:" ) )
+					io[ 1 ] = Long.parseLong( line.substring( 12 ).trim() );
+			}
+			return io;
+		}
+		catch ( final IOException | RuntimeException e )
+		{
+			return null;
+		}
+	}
+
+	private static long[] parseLongs( final String s )
+	{
+		return Arrays.stream( s.split( "," ) ).map( String::trim ).mapToLong( Long::parseLong ).toArray();
+	}
+
+	private static double[] parseDoubles( final String s )
+	{
+		return Arrays.stream( s.split( "," ) ).map( String::trim ).mapToDouble( Double::parseDouble ).toArray();
+	}
+}
@@ -0,0 +1,145 @@
+package net.imglib2.cache.examplebatch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Path;
+import net.imglib2.cache.examplematerialize.Materialize.CellSink;
+import net.imglib2.cache.lowlevel.examplebudget.MemoryBudget;
+import net.imglib2.img.basictypeaccess.ByteAccess;
+import net.imglib2.img.basictypeaccess.DoubleAccess;
+import net.imglib2.img.basictypeaccess.FloatAccess;
+import net.imglib2.img.basictypeaccess.IntAccess;
+import net.imglib2.img.basictypeaccess.LongAccess;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
+import net.imglib2.util.Intervals;
+
+/**
+ * A {@link CellSink} that writes cells into a raw volume file: big-endian,
+ * no header, X fastest, i.e., what ImageJ's "Import &gt; Raw..." expects.
+ * <p>
+ * The file is preallocated and memory-mapped in segments of
+ * {@link #SEGMENT_SIZE} bytes, and cells are copied into it element by
+ * element from their {@code ByteAccess}, {@code ShortAccess}, etc. Cells do
+ * not overlap, so concurrent writers need no synchronization. Only types with
+ * one entity per pixel are supported.
+ *
+ * @param <A>
+ *            access type
+ */
+public class RawVolumeSink< A > implements CellSink< A >, Closeable
+{
+	public static final long SEGMENT_SIZE = 1L << 30;
+
+	private final Path file;
+
+	private final CellGrid grid;
+
+	private final int bytesPerPixel;
+
+	private final RandomAccessFile raf;
+
+	private final MappedByteBuffer[] segments;
+
+	public RawVolumeSink( final Path file, final CellGrid grid, final NativeType< ? > type ) throws IOException
+	{
+		if ( type.getEntitiesPerPixel().getRatio() != 1 )
+			throw new IllegalArgumentException( "only types with one entity per pixel are supported" );
+		this.file = file;
+		this.grid = grid;
+		this.bytesPerPixel = MemoryBudget.bytesPerEntity( type.getNativeTypeFactory().getPrimitiveType() );
+
+		final long size = Intervals.numElements( grid.getImgDimensions() ) * bytesPerPixel;
+		raf = new RandomAccessFile( file.toFile(), "rw" );
+		raf.setLength( size );
+		final FileChannel channel = raf.getChannel();
+		segments = new MappedByteBuffer[ ( int ) ( ( size + SEGMENT_SIZE - 1 ) / SEGMENT_SIZE ) ];
+		for ( int i = 0; i < segments.length; ++i )
+		{
+			final long start = i * SEGMENT_SIZE;
+			segments[ i ] = channel.map( MapMode.READ_WRITE, start, Math.min( SEGMENT_SIZE, size - start ) );
+		}
+	}
+
+	public Path getFile()
+	{
+		return file;
+	}
+
+	/**
+	 * Size of the output in bytes.
+	 */
+	public long size()
+	{
+		return Intervals.numElements( grid.getImgDimensions() ) * bytesPerPixel;
+	}
+
+	@Override
+	public void accept( final long index, final Cell< A > cell )
+	{
+		final int n = grid.numDimensions();
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		grid.getCellDimensions( index, cellMin, cellDims );
+		final long[] imgDims = grid.getImgDimensions();
+		final Object data = cell.getData();
+
+		final int lineLength = cellDims[ 0 ];
+		final long numLines = Intervals.numElements( cellDims ) / lineLength;
+		final long[] pos = new long[ n ];
+		int i = 0;
+		for ( long line = 0; line < numLines; ++line )
+		{
+			// offset of the first pixel of the line in the volume
+			long offset = 0;
+			for ( int d = n - 1; d >= 0; --d )
+				offset = offset * imgDims[ d ] + cellMin[ d ] + pos[ d ];
+			offset *= bytesPerPixel;
+
+			for ( int x = 0; x < lineLength; ++x, ++i, offset += bytesPerPixel )
+			{
+				final ByteBuffer segment = segments[ ( int ) ( offset / SEGMENT_SIZE ) ];
+				final int o = ( int ) ( offset % SEGMENT_SIZE );
+				if ( data instanceof ByteAccess )
+					segment.put( o, ( ( ByteAccess ) data ).getValue( i ) );
+				else if ( data instanceof ShortAccess )
+					segment.putShort( o, ( ( ShortAccess ) data ).getValue( i ) );
+				else if ( data instanceof IntAccess )
+					segment.putInt( o, ( ( IntAccess ) data ).getValue( i ) );
+				else if ( data instanceof FloatAccess )
+					segment.putFloat( o, ( ( FloatAccess ) data ).getValue( i ) );
+				else if ( data instanceof LongAccess )
+					segment.putLong( o, ( ( LongAccess ) data ).getValue( i ) );
+				else if ( data instanceof DoubleAccess )
+					segment.putDouble( o, ( ( DoubleAccess ) data ).getValue( i ) );
+				else
+					throw new IllegalArgumentException( "unsupported access " + data.getClass() );
+			}
+
+			for ( int d = 1; d < n; ++d )
+			{
+				if ( ++pos[ d ] < cellDims[ d ] )
+					break;
+				pos[ d ] = 0;
+			}
+		}
+	}
+
+	/**
+	 * Flush the mapped segments to disk and close the file.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		for ( final MappedByteBuffer segment : segments )
+			segment.force();
+		raf.close();
+	}
+}
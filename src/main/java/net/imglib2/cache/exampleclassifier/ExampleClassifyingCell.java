@@ -7,6 +7,7 @@ import bdv.util.BdvOptions;
 import bdv.util.BdvSource;
 import bdv.util.volatiles.VolatileViews;
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 import net.imglib2.Cursor;
@@ -15,12 +16,15 @@ import net.imglib2.cache.img.CellLoader;
 import net.imglib2.cache.img.DiskCachedCellImgFactory;
 import net.imglib2.cache.img.SingleCellArrayImg;
 import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.cache.lowlevel.examplealigned.CellViews;
 import net.imglib2.img.Img;
 import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.NativeType;
 import net.imglib2.type.numeric.RealType;
 import net.imglib2.type.numeric.integer.UnsignedShortType;
 import net.imglib2.view.Views;
 import weka.classifiers.Classifier;
+import weka.core.Attribute;
 import weka.core.Instance;
 
 import static bdv.viewer.DisplayMode.SINGLE;
@@ -50,26 +54,37 @@ public class ExampleClassifyingCell
 		}
 	}
 
-	public static class ClassifyingCellLoader< T extends RealType< T > > implements CellLoader< UnsignedShortType >
+	public static class ClassifyingCellLoader< T extends RealType< T > & NativeType< T > > implements CellLoader< UnsignedShortType >
 	{
 		private final Classifier classifier;
 
-		private final InstanceView< T > instances;
+		private final List< RandomAccessibleInterval< T > > features;
+
+		private final Attribute[] attributes;
 
 		public ClassifyingCellLoader(
 				final List< RandomAccessibleInterval< T > > features,
 				final Classifier classifier,
 				final int numClasses )
 		{
-			this.instances = new InstanceView<>(
-					Views.collapseReal( Views.stack( features ) ),
-					InstanceView.makeDefaultAttributes( features.size(), numClasses ) );
+			this.features = features;
+			this.attributes = InstanceView.makeDefaultAttributes( features.size(), numClasses );
 			this.classifier = classifier;
 		}
 
 		@Override
 		public void load( final SingleCellArrayImg< UnsignedShortType, ? > cell ) throws Exception
 		{
+			/*
+			 * If a feature image has the same cells as the output, use the
+			 * matching feature cell directly instead of going through the
+			 * feature cache for every voxel.
+			 */
+			final List< RandomAccessibleInterval< T > > featureCells = new ArrayList<>();
+			for ( final RandomAccessibleInterval< T > feature : features )
+				featureCells.add( CellViews.interval( feature, cell ) );
+			final InstanceView< T > instances = new InstanceView<>( Views.collapseReal( Views.stack( featureCells ) ), attributes );
+
 			final Cursor< Instance > instancesCursor = Views.flatIterable( Views.interval( instances, cell ) ).cursor();
 			final Cursor< UnsignedShortType > imgCursor = Views.flatIterable( cell ).cursor();
 			while ( imgCursor.hasNext() )
@@ -1,53 +1,94 @@
 package net.imglib2.cache.examplehttp;
 
-import bdv.cache.SharedQueue;
 import bdv.util.Bdv;
 import bdv.util.BdvFunctions;
 import bdv.util.BdvOptions;
 import bdv.util.BdvSource;
 import bdv.util.volatiles.VolatileViews;
+import bdv.viewer.ViewerPanel;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
-import net.imglib2.Cursor;
+import java.util.function.UnaryOperator;
 import net.imglib2.Interval;
-import net.imglib2.RandomAccessible;
-import net.imglib2.algorithm.gradient.PartialDerivative;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.examplenavigation.NavigationPrefetcher;
+import net.imglib2.cache.examplepool.AdaptiveFetchPool;
 import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.DiskCachedCellImg;
 import net.imglib2.cache.img.DiskCachedCellImgFactory;
 import net.imglib2.cache.img.DiskCachedCellImgOptions;
-import net.imglib2.cache.img.SingleCellArrayImg;
 import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGather;
 import net.imglib2.cache.util.IntervalKeyLoaderAsLongKeyLoader;
-import net.imglib2.converter.Converters;
-import net.imglib2.converter.RealFloatConverter;
 import net.imglib2.img.Img;
-import net.imglib2.img.array.ArrayImgs;
 import net.imglib2.img.basictypeaccess.volatiles.array.DirtyVolatileByteArray;
+import net.imglib2.img.cell.Cell;
 import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.PrimitiveType;
 import net.imglib2.type.numeric.integer.UnsignedByteType;
 import net.imglib2.type.numeric.real.FloatType;
-import net.imglib2.util.Intervals;
-import net.imglib2.view.Views;
 
 import static bdv.viewer.DisplayMode.SINGLE;
 import static net.imglib2.cache.img.DiskCachedCellImgOptions.options;
 
 public class ExampleHTTP
 {
-	public static void main( final String[] args ) throws IOException
+	/**
+	 * Create a cached image that loads its cells from the DVID server.
+	 *
+	 * @param offset
+	 *            position of the image origin in the (isotropic) data set
+	 */
+	public static DiskCachedCellImg< UnsignedByteType, ? > createHttpImg(
+			final long[] offset,
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final DiskCachedCellImgOptions factoryOptions )
+	{
+		return createHttpImg( offset, dimensions, cellDimensions, factoryOptions, UnaryOperator.identity() );
+	}
+
+	/**
+	 * Create a cached image that loads its cells from the DVID server, through
+	 * a cell loader decorated by {@code decorator} (e.g.,
+	 * {@link AdaptiveFetchPool#io(CacheLoader)}).
+	 *
+	 * @param offset
+	 *            position of the image origin in the (isotropic) data set
+	 */
+	public static DiskCachedCellImg< UnsignedByteType, ? > createHttpImg(
+			final long[] offset,
+			final long[] dimensions,
+			final int[] cellDimensions,
+			final DiskCachedCellImgOptions factoryOptions,
+			final UnaryOperator< CacheLoader< Long, Cell< DirtyVolatileByteArray > > > decorator )
 	{
-		// http://emdata.janelia.org/api/node/822524777d3048b8bd520043f90c1d28/grayscale/metadata
-		final long[] minPoint = { 1728, 1536, 1344 };
-//		final long offset = minPoint;
-		final long[] offset = Arrays.stream( minPoint ).map( p -> p * 2 ).toArray();
-		final int[] cellDimensions = new int[] { 64, 64, 64 };
-//		final long[] dimensions = new long[] { 3584, 2944, 6912 }; // complete data set
-		final long[] dimensions = new long[] { 300, 300, 300 };
 		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		return new DiskCachedCellImgFactory<>( new UnsignedByteType(), factoryOptions )
+				.createWithCacheLoader( dimensions, decorator.apply( createHttpLoader( offset, grid ) ) );
+	}
 
+	/**
+	 * Create a loader for the cells of {@code grid} from the DVID server.
+	 *
+	 * @param offset
+	 *            position of the image origin in the (isotropic) data set
+	 */
+	public static CacheLoader< Long, Cell< DirtyVolatileByteArray > > createHttpLoader( final long[] offset, final CellGrid grid )
+	{
+		return new IntervalKeyLoaderAsLongKeyLoader<>( grid, createHttpFunctor( offset ) );
+	}
 
+	/**
+	 * Create a loader for intervals from the DVID server.
+	 *
+	 * @param offset
+	 *            position of the image origin in the (isotropic) data set
+	 */
+	public static HTTPLoader< DirtyVolatileByteArray > createHttpFunctor( final long[] offset )
+	{
 		// GET <api URL>/node/<UUID>/<data
 		// name>/isotropic/<dims>/<size>/<offset>[/<format>][?queryopts]
 		// http://emdata.janelia.org/api/node/822524777d3048b8bd520043f90c1d28/grayscale/isotropic/0_1_2/512_256/200_200_000/jpg:80
@@ -72,57 +113,54 @@ public class ExampleHTTP
 			System.arraycopy( bytes, 0, access.getCurrentStorageArray(), 0, bytes.length );
 			access.setDirty();
 		};
-		final HTTPLoader< DirtyVolatileByteArray > functor = new HTTPLoader<>( addressComposer, ( n ) -> new DirtyVolatileByteArray( ( int ) n, true ), copier );
-		final IntervalKeyLoaderAsLongKeyLoader< DirtyVolatileByteArray > loader = new IntervalKeyLoaderAsLongKeyLoader<>( grid, functor );
+		return new HTTPLoader<>( addressComposer, ( n ) -> new DirtyVolatileByteArray( ( int ) n, true ), copier );
+	}
 
+	public static void main( final String[] args ) throws IOException
+	{
+		// http://emdata.janelia.org/api/node/822524777d3048b8bd520043f90c1d28/grayscale/metadata
+		final long[] minPoint = { 1728, 1536, 1344 };
+//		final long offset = minPoint;
+		final long[] offset = Arrays.stream( minPoint ).map( p -> p * 2 ).toArray();
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+//		final long[] dimensions = new long[] { 3584, 2944, 6912 }; // complete data set
+		final long[] dimensions = new long[] { 300, 300, 300 };
+
+		final int maxCacheSize = 1000;
 		final DiskCachedCellImgOptions factoryOptions = options()
 				.cacheType( CacheType.BOUNDED )
-				.maxCacheSize( 1000 )
+				.maxCacheSize( maxCacheSize )
 				.cellDimensions( cellDimensions );
 
-		final Img< UnsignedByteType > httpImg = new DiskCachedCellImgFactory<>( new UnsignedByteType(), factoryOptions )
-				.createWithCacheLoader( dimensions, loader );
+		// one pool for the I/O-bound HTTP loads and the CPU-bound gradients,
+		// with a second priority level for prefetching
+		final AdaptiveFetchPool pool = new AdaptiveFetchPool( 2, 64 );
+		pool.setReport( System.out );
 
-		final RandomAccessible< FloatType > source = Converters.convert( Views.extendBorder( httpImg ), new RealFloatConverter<>(), new FloatType() );
-		final CellLoader< FloatType > gradientLoader = new CellLoader< FloatType >()
-		{
-			@Override
-			public void load( final SingleCellArrayImg< FloatType, ? > cell ) throws Exception
-			{
-				final int n = cell.numDimensions();
-				for ( int d = 0; d < n; ++d )
-				{
-					final Img< FloatType > imgDim = ArrayImgs.floats( Intervals.dimensionsAsLongArray( cell ) );
-					PartialDerivative.gradientCentralDifference2( Views.offsetInterval( source, cell ), imgDim, d );
-					final Cursor< FloatType > c = imgDim.cursor();
-					for ( final FloatType t : cell )
-					{
-						final float val = c.next().get();
-						t.set( t.get() + val * val );
-					}
-				}
-				for ( final FloatType t : cell )
-					t.set( ( float ) Math.sqrt( t.get() ) );
-			}
-		};
+		final DiskCachedCellImg< UnsignedByteType, ? > httpImg = createHttpImg( offset, dimensions, cellDimensions, factoryOptions, pool::io );
+
+		final CellLoader< FloatType > gradientLoader = pool.cpuCells( new GradientMagnitudeLoader( new HaloGather( httpImg ), PrimitiveType.BYTE ) );
 
 		final Img< FloatType > gradientImg = new DiskCachedCellImgFactory<>( new FloatType(), factoryOptions )
 				.create( dimensions, gradientLoader,
 						options().initializeCellsAsDirty( true ) );
 
 		final BdvSource httpSource = BdvFunctions.show(
-				VolatileViews.wrapAsVolatile( httpImg, new SharedQueue( 20 ) ),
+				VolatileViews.wrapAsVolatile( httpImg, pool.getSharedQueue() ),
 				"dvid" );
 
-		final int numProc = Runtime.getRuntime().availableProcessors();
 		final BdvSource gradientSource = BdvFunctions.show(
-				VolatileViews.wrapAsVolatile( gradientImg, new SharedQueue( numProc - 1 ) ),
+				VolatileViews.wrapAsVolatile( gradientImg, pool.getSharedQueue() ),
 				"gradient",
 				BdvOptions.options().addTo( httpSource ) );
 
 		final Bdv bdv = httpSource;
-		bdv.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+		final ViewerPanel viewer = bdv.getBdvHandle().getViewerPanel();
+		viewer.setDisplayMode( SINGLE );
 		httpSource.setDisplayRange( 0.0, 255.0 );
 		gradientSource.setDisplayRange( 0.0, 30.0 );
+
+		// fetch the cells ahead of scrolling and panning, to hide the HTTP round trips
+		new NavigationPrefetcher( viewer, httpImg.getCellGrid(), httpImg.getCache(), pool.getSharedQueue(), maxCacheSize, 1000 );
 	}
 }
@@ -0,0 +1,129 @@
+package net.imglib2.cache.examplehttp;
+
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.img.SingleCellArrayImg;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGather;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.type.PrimitiveType;
+import net.imglib2.type.numeric.real.FloatType;
+
+/**
+ * Computes the gradient magnitude (of central differences, like
+ * {@code PartialDerivative.gradientCentralDifference2}) of an unsigned byte
+ * or unsigned short cached image.
+ * <p>
+ * The cell expanded by one pixel is copied once with {@link HaloGather} into
+ * a scratch array that is reused by each thread, and then all partial
+ * derivatives and the magnitude are computed in one pass, writing directly
+ * into the {@code float[]} of the cell. No images, cursors or temporary
+ * per-dimension buffers are created.
+ */
+public class GradientMagnitudeLoader implements CellLoader< FloatType >
+{
+	private final HaloGather source;
+
+	private final PrimitiveType primitiveType;
+
+	private final ThreadLocal< Object > scratch = new ThreadLocal<>();
+
+	/**
+	 * @param source
+	 *            the input image
+	 * @param primitiveType
+	 *            {@code BYTE} or {@code SHORT}, for unsigned byte or unsigned
+	 *            short input
+	 */
+	public GradientMagnitudeLoader( final HaloGather source, final PrimitiveType primitiveType )
+	{
+		if ( primitiveType != PrimitiveType.BYTE && primitiveType != PrimitiveType.SHORT )
+			throw new IllegalArgumentException( "unsupported input type " + primitiveType );
+		this.source = source;
+		this.primitiveType = primitiveType;
+	}
+
+	@Override
+	public void load( final SingleCellArrayImg< FloatType, ? > cell ) throws Exception
+	{
+		final int n = cell.numDimensions();
+		final long[] inMin = new long[ n ];
+		final int[] inDims = new int[ n ];
+		final int[] steps = new int[ n ];
+		int step = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			inMin[ d ] = cell.min( d ) - 1;
+			inDims[ d ] = ( int ) cell.dimension( d ) + 2;
+			steps[ d ] = step;
+			step *= inDims[ d ];
+		}
+		final Object input = scratch( step );
+		source.gather( inMin, inDims, input );
+
+		final float[] output = ( float[] ) ( ( ArrayDataAccess< ? > ) cell.update( null ) ).getCurrentStorageArray();
+		final int lineLength = ( int ) cell.dimension( 0 );
+		final int numLines = ( int ) ( cell.size() / lineLength );
+
+		// position of the current line in dimensions > 0
+		final int[] pos = new int[ n ];
+		int o = 0;
+		for ( int line = 0; line < numLines; ++line )
+		{
+			int i = 1;
+			for ( int d = 1; d < n; ++d )
+				i += ( pos[ d ] + 1 ) * steps[ d ];
+
+			if ( primitiveType == PrimitiveType.BYTE )
+			{
+				final byte[] in = ( byte[] ) input;
+				for ( int x = 0; x < lineLength; ++x, ++i )
+				{
+					float sum = 0;
+					for ( int d = 0; d < n; ++d )
+					{
+						final float g = ( ( in[ i + steps[ d ] ] & 0xff ) - ( in[ i - steps[ d ] ] & 0xff ) ) * 0.5f;
+						sum += g * g;
+					}
+					output[ o++ ] = ( float ) Math.sqrt( sum );
+				}
+			}
+			else
+			{
+				final short[] in = ( short[] ) input;
+				for ( int x = 0; x < lineLength; ++x, ++i )
+				{
+					float sum = 0;
+					for ( int d = 0; d < n; ++d )
+					{
+						final float g = ( ( in[ i + steps[ d ] ] & 0xffff ) - ( in[ i - steps[ d ] ] & 0xffff ) ) * 0.5f;
+						sum += g * g;
+					}
+					output[ o++ ] = ( float ) Math.sqrt( sum );
+				}
+			}
+
+			for ( int d = 1; d < n; ++d )
+			{
+				if ( ++pos[ d ] < cell.dimension( d ) )
+					break;
+				pos[ d ] = 0;
+			}
+		}
+	}
+
+	/**
+	 * This thread's scratch array, with at least {@code size} elements.
+	 */
+	private Object scratch( final int size )
+	{
+		Object array = scratch.get();
+		final int length = array == null
+				? 0
+				: primitiveType == PrimitiveType.BYTE ? ( ( byte[] ) array ).length : ( ( short[] ) array ).length;
+		if ( length < size )
+		{
+			array = primitiveType == PrimitiveType.BYTE ? new byte[ size ] : new short[ size ];
+			scratch.set( array );
+		}
+		return array;
+	}
+}
@@ -1,5 +1,6 @@
 package net.imglib2.cache.examplehttp;
 
+import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.util.function.BiConsumer;
@@ -34,16 +35,7 @@ public class HTTPLoader< A > implements Function< Interval, A >
 	{
 		try
 		{
-			final String address = addressComposer.apply( interval );
-			final URL url = new URL( address );
-			final InputStream stream = url.openStream();
-			final long numElements = Intervals.numElements( interval );
-			final byte[] response = IOUtils.toByteArray( stream );
-
-			final A access = accessFactory.apply(numElements );
-			copyToAccess.accept(response, access );
-
-			return access;
+			return toAccess( interval, fetch( interval ) );
 		}
 		catch ( final Exception e )
 		{
@@ -52,4 +44,28 @@ public class HTTPLoader< A > implements Function< Interval, A >
 
 	}
 
+	/**
+	 * Download the data of {@code interval}.
+	 */
+	public byte[] fetch( final Interval interval ) throws IOException
+	{
+		final String address = addressComposer.apply( interval );
+		final URL url = new URL( address );
+		try ( final InputStream stream = url.openStream() )
+		{
+			return IOUtils.toByteArray( stream );
+		}
+	}
+
+	/**
+	 * Create the access for {@code interval} from its downloaded data.
+	 */
+	public A toAccess( final Interval interval, final byte[] response )
+	{
+		final long numElements = Intervals.numElements( interval );
+		final A access = accessFactory.apply(numElements );
+		copyToAccess.accept(response, access );
+		return access;
+	}
+
 }
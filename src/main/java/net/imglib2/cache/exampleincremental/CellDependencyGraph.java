@@ -0,0 +1,168 @@
+package net.imglib2.cache.exampleincremental;
+
+import java.util.ArrayDeque;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import net.imglib2.Interval;
+import net.imglib2.cache.AbstractCache;
+import net.imglib2.cache.grid.CellRanges;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * Cell-level dependencies between cached images, used to invalidate exactly
+ * the derived cells that are affected when a region of an upstream image is
+ * modified (e.g., painted into).
+ * <p>
+ * Each {@link Stage} is a cell grid with the cache holding its cells. A
+ * dependency says that a downstream pixel is computed from the upstream pixels
+ * within a {@code halo} around it. {@link #invalidate(Stage, Interval)} expands
+ * the modified region by the halo of each outgoing dependency, invalidates the
+ * downstream cells overlapping the expanded region (which removes them from
+ * memory and from the disk cache), and continues from there with the expanded
+ * region. The next access recomputes only those cells.
+ * <p>
+ * Dependencies must not form cycles.
+ */
+public class CellDependencyGraph
+{
+	public static class Stage
+	{
+		private final String name;
+
+		private final CellGrid grid;
+
+		private final AbstractCache< Long, ? > cache;
+
+		private final List< Dependency > downstream = new CopyOnWriteArrayList<>();
+
+		Stage( final String name, final CellGrid grid, final AbstractCache< Long, ? > cache )
+		{
+			this.name = name;
+			this.grid = grid;
+			this.cache = cache;
+		}
+
+		public CellGrid getCellGrid()
+		{
+			return grid;
+		}
+
+		@Override
+		public String toString()
+		{
+			return name;
+		}
+	}
+
+	private static class Dependency
+	{
+		final Stage target;
+
+		final int[] halo;
+
+		Dependency( final Stage target, final int[] halo )
+		{
+			this.target = target;
+			this.halo = halo;
+		}
+	}
+
+	/**
+	 * A modified box of a stage, in pixel coordinates (inclusive).
+	 */
+	private static class Region
+	{
+		final Stage stage;
+
+		final long[] min;
+
+		final long[] max;
+
+		Region( final Stage stage, final long[] min, final long[] max )
+		{
+			this.stage = stage;
+			this.min = min;
+			this.max = max;
+		}
+	}
+
+	public Stage addStage( final String name, final CellGrid grid, final AbstractCache< Long, ? > cache )
+	{
+		return new Stage( name, grid, cache );
+	}
+
+	public Stage addStage( final String name, final CachedCellImg< ?, ? > img )
+	{
+		return addStage( name, img.getCellGrid(), img.getCache() );
+	}
+
+	/**
+	 * Declare that {@code downstream} is computed from {@code upstream}, each
+	 * pixel from the upstream pixels within {@code halo}.
+	 * <p>
+	 * {@code downstream} may have more dimensions than {@code upstream} (e.g.,
+	 * a channel dimension). Modifying any upstream pixel affects the complete
+	 * range of the additional dimensions.
+	 */
+	public void addDependency( final Stage upstream, final Stage downstream, final int[] halo )
+	{
+		upstream.downstream.add( new Dependency( downstream, halo.clone() ) );
+	}
+
+	/**
+	 * Invalidate all cells (transitively) derived from the {@code modified}
+	 * region of {@code stage}. The cells of {@code stage} itself are not
+	 * touched.
+	 *
+	 * @return the number of invalidated cells
+	 */
+	public long invalidate( final Stage stage, final Interval modified )
+	{
+		final int n = modified.numDimensions();
+		final long[] min = new long[ n ];
+		final long[] max = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			min[ d ] = modified.min( d );
+			max[ d ] = modified.max( d );
+		}
+
+		long numInvalidated = 0;
+		final ArrayDeque< Region > work = new ArrayDeque<>();
+		work.add( new Region( stage, min, max ) );
+		while ( !work.isEmpty() )
+		{
+			final Region region = work.poll();
+			final long[] umin = region.min;
+			final long[] umax = region.max;
+			for ( final Dependency dependency : region.stage.downstream )
+			{
+				final Stage target = dependency.target;
+				final CellGrid grid = target.grid;
+				final int m = grid.numDimensions();
+				final long[] tmin = new long[ m ];
+				final long[] tmax = new long[ m ];
+				boolean empty = false;
+				for ( int d = 0; d < m; ++d )
+				{
+					final int h = d < dependency.halo.length ? dependency.halo[ d ] : 0;
+					tmin[ d ] = d < umin.length ? Math.max( 0, umin[ d ] - h ) : 0;
+					tmax[ d ] = d < umax.length ? Math.min( grid.imgDimension( d ) - 1, umax[ d ] + h ) : grid.imgDimension( d ) - 1;
+					empty |= tmin[ d ] > tmax[ d ];
+				}
+				if ( empty )
+					continue;
+
+				final long[] count = new long[ 1 ];
+				CellRanges.forEachCell( grid, tmin, tmax, index -> {
+					target.cache.invalidate( index );
+					++count[ 0 ];
+				} );
+				numInvalidated += count[ 0 ];
+				work.add( new Region( target, tmin, tmax ) );
+			}
+		}
+		return numInvalidated;
+	}
+}
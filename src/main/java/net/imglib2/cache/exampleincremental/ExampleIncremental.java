@@ -0,0 +1,128 @@
+package net.imglib2.cache.exampleincremental;
+
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import bdv.viewer.ViewerPanel;
+import java.io.IOException;
+import net.imglib2.FinalInterval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RealPositionable;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.algorithm.neighborhood.HyperSphereShape;
+import net.imglib2.algorithm.neighborhood.Neighborhood;
+import net.imglib2.cache.example04.Example04.CheckerboardLoader;
+import net.imglib2.cache.example04.Example04.GaussLoader;
+import net.imglib2.cache.exampleincremental.CellDependencyGraph.Stage;
+import net.imglib2.cache.img.DiskCachedCellImg;
+import net.imglib2.cache.img.DiskCachedCellImgFactory;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.position.transform.Round;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+import org.scijava.ui.behaviour.DragBehaviour;
+import org.scijava.ui.behaviour.io.InputTriggerConfig;
+import org.scijava.ui.behaviour.util.Behaviours;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+import static net.imglib2.cache.img.DiskCachedCellImgOptions.options;
+
+/**
+ * The {@code example04} pipeline with a second Gauss stage on top of the
+ * first, and painting into the checkerboard with shortcut "D" (as in
+ * {@code example01}). After each stroke, the {@link CellDependencyGraph}
+ * invalidates the cells of both Gauss stages within reach of the painted
+ * sphere, so they are recomputed on the next repaint while all other cells
+ * stay cached.
+ */
+public class ExampleIncremental
+{
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+		final int[] halo = Gauss3.halfkernelsizes( new double[] { 5, 5, 5 } );
+
+		final CheckerboardLoader loader = new CheckerboardLoader( new CellGrid( dimensions, cellDimensions ) );
+		final DiskCachedCellImg< UnsignedShortType, ? > img = new DiskCachedCellImgFactory<>( new UnsignedShortType(), options()
+				.cellDimensions( cellDimensions )
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 100 ) )
+						.create( dimensions, loader );
+
+		final DiskCachedCellImg< UnsignedShortType, ? > gauss1 = new DiskCachedCellImgFactory<>( new UnsignedShortType(), options()
+				.cellDimensions( cellDimensions )
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 100 )
+				.initializeCellsAsDirty( true ) )
+						.create( dimensions, new GaussLoader( Views.extendBorder( img ) ) );
+
+		final DiskCachedCellImg< UnsignedShortType, ? > gauss2 = new DiskCachedCellImgFactory<>( new UnsignedShortType(), options()
+				.cellDimensions( cellDimensions )
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 100 )
+				.initializeCellsAsDirty( true ) )
+						.create( dimensions, new GaussLoader( Views.extendBorder( gauss1 ) ) );
+
+		final CellDependencyGraph graph = new CellDependencyGraph();
+		final Stage checkerboard = graph.addStage( "checkerboard", img );
+		final Stage gaussStage1 = graph.addStage( "gauss1", gauss1 );
+		final Stage gaussStage2 = graph.addStage( "gauss2", gauss2 );
+		graph.addDependency( checkerboard, gaussStage1, halo );
+		graph.addDependency( gaussStage1, gaussStage2, halo );
+
+		final Bdv bdv = BdvFunctions.show( img, "Cached" );
+		bdv.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+		BdvFunctions.show( gauss1, "Gauss", BdvOptions.options().addTo( bdv ) );
+		BdvFunctions.show( gauss2, "Gauss of Gauss", BdvOptions.options().addTo( bdv ) );
+
+		/*
+		 * Install behaviour for painting into img with shortcut "D"
+		 */
+
+		final long radius = 10;
+		final Behaviours behaviours = new Behaviours( new InputTriggerConfig() );
+		behaviours.install( bdv.getBdvHandle().getTriggerbindings(), "paint" );
+		behaviours.behaviour( new DragBehaviour()
+		{
+			final ViewerPanel viewer = bdv.getBdvHandle().getViewerPanel();
+			final RandomAccess< Neighborhood< UnsignedShortType > > sphere = new HyperSphereShape( radius ).neighborhoodsRandomAccessible( Views.extendZero( img ) ).randomAccess();
+			final RealPositionable roundpos = new Round<>( sphere );
+
+			void draw( final int x, final int y )
+			{
+				viewer.displayToGlobalCoordinates( x, y, roundpos );
+				sphere.get().forEach( t -> t.set( 0x8000 ) );
+
+				final long[] min = new long[ 3 ];
+				final long[] max = new long[ 3 ];
+				for ( int d = 0; d < 3; ++d )
+				{
+					min[ d ] = sphere.getLongPosition( d ) - radius;
+					max[ d ] = sphere.getLongPosition( d ) + radius;
+				}
+				graph.invalidate( checkerboard, new FinalInterval( min, max ) );
+				viewer.requestRepaint();
+			}
+
+			@Override
+			public void init( final int x, final int y )
+			{
+				draw( x, y );
+			}
+
+			@Override
+			public void end( final int x, final int y )
+			{}
+
+			@Override
+			public void drag( final int x, final int y )
+			{
+				draw( x, y );
+			}
+		}, "paint", "D" );
+	}
+}
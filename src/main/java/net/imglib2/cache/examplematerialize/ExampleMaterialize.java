@@ -0,0 +1,66 @@
+package net.imglib2.cache.examplematerialize;
+
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.ExecutionException;
+import net.imglib2.cache.example04.Example04.CheckerboardLoader;
+import net.imglib2.cache.example04.Example04.GaussLoader;
+import net.imglib2.cache.img.DiskCachedCellImg;
+import net.imglib2.cache.img.DiskCachedCellImgFactory;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.view.Views;
+
+import static net.imglib2.cache.img.DiskCachedCellImgOptions.options;
+
+/**
+ * The {@code example04} pipeline, but instead of showing it, the Gauss image
+ * is computed completely with {@link Materialize}, printing progress every
+ * second.
+ */
+public class ExampleMaterialize
+{
+	public static void main( final String[] args ) throws InterruptedException, ExecutionException
+	{
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+		final int numThreads = Runtime.getRuntime().availableProcessors();
+
+		final CheckerboardLoader loader = new CheckerboardLoader( new CellGrid( dimensions, cellDimensions ) );
+		final DiskCachedCellImg< UnsignedShortType, ? > img = new DiskCachedCellImgFactory<>( new UnsignedShortType(), options()
+				.cellDimensions( cellDimensions )
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 100 ) )
+						.create( dimensions, loader );
+
+		final GaussLoader loader2 = new GaussLoader( Views.extendBorder( img ) );
+		final DiskCachedCellImg< UnsignedShortType, ? > img2 = new DiskCachedCellImgFactory<>( new UnsignedShortType(), options()
+				.cellDimensions( cellDimensions )
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( 100 )
+				.initializeCellsAsDirty( true ) )
+						.create( dimensions, loader2 );
+
+		final Materialize.Progress progress = Materialize.start( img2.getCellGrid() );
+		final Timer timer = new Timer( true );
+		timer.schedule( new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				System.out.println( progress );
+			}
+		}, 1000, 1000 );
+
+		materialize( img2, numThreads, progress );
+		timer.cancel();
+		System.out.println( "done: " + progress );
+	}
+
+	private static < A > void materialize( final DiskCachedCellImg< ?, A > img, final int numThreads, final Materialize.Progress progress ) throws InterruptedException, ExecutionException
+	{
+		// hold at most 2 cells per thread, well below the 100 cells in the cache
+		Materialize.materialize( img.getCache(), numThreads, 2 * numThreads, null, progress );
+	}
+}
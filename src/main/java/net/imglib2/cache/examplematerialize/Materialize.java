@@ -0,0 +1,393 @@
+package net.imglib2.cache.examplematerialize;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongConsumer;
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.grid.CellRanges;
+import net.imglib2.cache.img.CachedCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.util.Intervals;
+
+/**
+ * Computes every cell of a cached image up front, instead of lazily as cells
+ * happen to be touched.
+ * <p>
+ * The cell grid is traversed in Z-order (Morton order): the power-of-two box
+ * enclosing the grid is split recursively into {@code 2^n} sub-boxes, which
+ * are forked as tasks of a work-stealing {@link ForkJoinPool}. Each worker
+ * therefore computes a compact block of neighbouring cells (sharing most of
+ * their upstream halo), and idle workers steal the largest remaining blocks.
+ * <p>
+ * Every computed cell is handed to an optional {@link CellSink} and then
+ * {@link Cache#persist(Object) persisted}, so that it is clean when the cache
+ * evicts it. At most {@code maxInFlight} cells are held by the workers at any
+ * time, so materializing never holds more cells than the cache can take.
+ * <p>
+ * A {@link Progress} selects the cells to materialize (all, or those
+ * overlapping a region of interest) and can be polled for throughput while a
+ * materialization runs.
+ */
+public class Materialize
+{
+	/**
+	 * Blocks of at most {@code LEAF_SIZE^n} cells are traversed sequentially
+	 * by one worker.
+	 */
+	private static final long LEAF_SIZE = 2;
+
+	/**
+	 * Receives every computed cell, e.g., to write it to an output store.
+	 */
+	@FunctionalInterface
+	public interface CellSink< A >
+	{
+		void accept( long index, Cell< A > cell ) throws Exception;
+	}
+
+	/**
+	 * Progress of a running materialization. Thread-safe, can be polled while
+	 * {@link #materialize} runs.
+	 */
+	public static class Progress
+	{
+		private final CellGrid grid;
+
+		private final long[] gridMin;
+
+		private final long[] gridMax;
+
+		private final long numCells;
+
+		private final LongAdder done = new LongAdder();
+
+		private final long startNanos = System.nanoTime();
+
+		private volatile long endNanos = -1;
+
+		Progress( final CellGrid grid, final long[] gridMin, final long[] gridMax )
+		{
+			this.grid = grid;
+			this.gridMin = gridMin;
+			this.gridMax = gridMax;
+			long numCells = 1;
+			for ( int d = 0; d < gridMin.length; ++d )
+				numCells *= gridMax[ d ] - gridMin[ d ] + 1;
+			this.numCells = numCells;
+		}
+
+		public long getNumCells()
+		{
+			return numCells;
+		}
+
+		public long getNumCellsDone()
+		{
+			return done.sum();
+		}
+
+		public boolean isDone()
+		{
+			return endNanos >= 0;
+		}
+
+		/**
+		 * Elapsed time in seconds, up to now or to the end of the
+		 * materialization.
+		 */
+		public double getSeconds()
+		{
+			final long end = endNanos;
+			return ( ( end >= 0 ? end : System.nanoTime() ) - startNanos ) * 1e-9;
+		}
+
+		public double getCellsPerSecond()
+		{
+			final double s = getSeconds();
+			return s > 0 ? getNumCellsDone() / s : 0;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( "%d / %d cells in %.1f s (%.1f cells/s)",
+					getNumCellsDone(), numCells, getSeconds(), getCellsPerSecond() );
+		}
+	}
+
+	/**
+	 * Compute and persist every cell of {@code img}, using {@code numThreads}
+	 * threads.
+	 */
+	public static < A > Progress materialize( final CachedCellImg< ?, A > img, final int numThreads ) throws InterruptedException, ExecutionException
+	{
+		final Progress progress = start( img.getCellGrid() );
+		materialize( img.getCache(), numThreads, numThreads, null, progress );
+		return progress;
+	}
+
+	/**
+	 * Compute and persist every cell of {@code grid}, loading cells from
+	 * {@code cache}.
+	 *
+	 * @param numThreads
+	 *            number of worker threads
+	 * @param maxInFlight
+	 *            maximum number of cells held by the workers at any time.
+	 *            Should be well below the capacity of {@code cache}.
+	 * @param sink
+	 *            receives every computed cell (may be {@code null})
+	 * @return final progress, with the number of cells and throughput
+	 */
+	public static < A > Progress materialize(
+			final CellGrid grid,
+			final Cache< Long, Cell< A > > cache,
+			final int numThreads,
+			final int maxInFlight,
+			final CellSink< A > sink ) throws InterruptedException, ExecutionException
+	{
+		final Progress progress = start( grid );
+		materialize( cache, numThreads, maxInFlight, sink, progress );
+		return progress;
+	}
+
+	/**
+	 * Create the {@link Progress} for materializing all of {@code grid}, to be
+	 * passed to {@code materialize} and polled from another thread.
+	 */
+	public static Progress start( final CellGrid grid )
+	{
+		final long[] gridMax = grid.getGridDimensions();
+		for ( int d = 0; d < gridMax.length; ++d )
+			--gridMax[ d ];
+		return new Progress( grid, new long[ gridMax.length ], gridMax );
+	}
+
+	/**
+	 * Create the {@link Progress} for materializing the cells of {@code grid}
+	 * that overlap {@code roi}.
+	 */
+	public static Progress start( final CellGrid grid, final Interval roi )
+	{
+		final int n = grid.numDimensions();
+		final long[] gridMin = new long[ n ];
+		final long[] gridMax = new long[ n ];
+		if ( !CellRanges.cellRange( grid, Intervals.minAsLongArray( roi ), Intervals.maxAsLongArray( roi ), gridMin, gridMax ) )
+			throw new IllegalArgumentException( "roi does not intersect the image" );
+		return new Progress( grid, gridMin, gridMax );
+	}
+
+	/**
+	 * Compute and persist the cells of {@code progress}, loading them from
+	 * {@code cache}.
+	 */
+	public static < A > void materialize(
+			final Cache< Long, Cell< A > > cache,
+			final int numThreads,
+			final int maxInFlight,
+			final CellSink< A > sink,
+			final Progress progress ) throws InterruptedException, ExecutionException
+	{
+		final UncheckedCache< Long, Cell< A > > unchecked = cache.unchecked();
+		run( ( index, gridPosition ) -> unchecked.get( index ), cache::persist, numThreads, maxInFlight, sink, progress );
+	}
+
+	/**
+	 * Compute the cells of {@code progress} by accessing the cells of
+	 * {@code img}. Without access to the cache, cells are not persisted, so
+	 * {@code sink} should write them somewhere.
+	 */
+	public static < A > void materialize(
+			final LazyCellImg< ?, A > img,
+			final int numThreads,
+			final int maxInFlight,
+			final CellSink< A > sink,
+			final Progress progress ) throws InterruptedException, ExecutionException
+	{
+		final LazyCellImg.LazyCells< Cell< A > > cells = img.getCells();
+		run( ( index, gridPosition ) -> {
+			final RandomAccess< Cell< A > > access = cells.randomAccess();
+			access.setPosition( gridPosition );
+			return access.get();
+		}, null, numThreads, maxInFlight, sink, progress );
+	}
+
+	private interface CellGetter< A >
+	{
+		Cell< A > get( long index, long[] gridPosition );
+	}
+
+	private static < A > void run(
+			final CellGetter< A > getter,
+			final LongConsumer persist,
+			final int numThreads,
+			final int maxInFlight,
+			final CellSink< A > sink,
+			final Progress progress ) throws InterruptedException, ExecutionException
+	{
+		final int n = progress.gridMin.length;
+		long size = 1;
+		for ( int d = 0; d < n; ++d )
+			while ( size < progress.gridMax[ d ] - progress.gridMin[ d ] + 1 )
+				size <<= 1;
+
+		final Materializer< A > materializer = new Materializer<>( getter, persist, sink, new Semaphore( maxInFlight ), progress );
+		final ForkJoinPool pool = new ForkJoinPool( numThreads );
+		try
+		{
+			pool.submit( materializer.new Block( progress.gridMin.clone(), size ) ).get();
+		}
+		finally
+		{
+			pool.shutdownNow();
+			progress.endNanos = System.nanoTime();
+		}
+	}
+
+	private static class Materializer< A >
+	{
+		private final long[] gridDims;
+
+		private final long[] gridMax;
+
+		private final CellGetter< A > getter;
+
+		private final LongConsumer persist;
+
+		private final CellSink< A > sink;
+
+		private final Semaphore inFlight;
+
+		private final Progress progress;
+
+		Materializer(
+				final CellGetter< A > getter,
+				final LongConsumer persist,
+				final CellSink< A > sink,
+				final Semaphore inFlight,
+				final Progress progress )
+		{
+			this.gridDims = progress.grid.getGridDimensions();
+			this.gridMax = progress.gridMax;
+			this.getter = getter;
+			this.persist = persist;
+			this.sink = sink;
+			this.inFlight = inFlight;
+			this.progress = progress;
+		}
+
+		/**
+		 * Whether the box starting at {@code min} overlaps the cells to
+		 * materialize.
+		 */
+		boolean overlaps( final long[] min )
+		{
+			for ( int d = 0; d < gridMax.length; ++d )
+				if ( min[ d ] > gridMax[ d ] )
+					return false;
+			return true;
+		}
+
+		/**
+		 * Min corner of the {@code i}-th (in Z-order) sub-box of half size.
+		 */
+		long[] childMin( final long[] min, final long halfSize, final int i )
+		{
+			final long[] childMin = new long[ min.length ];
+			for ( int d = 0; d < min.length; ++d )
+				childMin[ d ] = min[ d ] + ( ( i >> d ) & 1 ) * halfSize;
+			return childMin;
+		}
+
+		void visit( final long[] min, final long size ) throws Exception
+		{
+			if ( !overlaps( min ) )
+				return;
+			if ( size == 1 )
+				load( min );
+			else
+			{
+				final long halfSize = size >> 1;
+				for ( int i = 0; i < 1 << min.length; ++i )
+					visit( childMin( min, halfSize, i ), halfSize );
+			}
+		}
+
+		void load( final long[] gridPosition ) throws Exception
+		{
+			long index = 0;
+			for ( int d = gridDims.length - 1; d >= 0; --d )
+				index = index * gridDims[ d ] + gridPosition[ d ];
+
+			inFlight.acquire();
+			try
+			{
+				final Cell< A > cell = getter.get( index, gridPosition );
+				if ( sink != null )
+					sink.accept( index, cell );
+				if ( persist != null )
+					persist.accept( index );
+			}
+			finally
+			{
+				inFlight.release();
+			}
+			progress.done.increment();
+		}
+
+		class Block extends RecursiveAction
+		{
+			private static final long serialVersionUID = 1L;
+
+			private final long[] min;
+
+			private final long size;
+
+			Block( final long[] min, final long size )
+			{
+				this.min = min;
+				this.size = size;
+			}
+
+			@Override
+			protected void compute()
+			{
+				if ( !overlaps( min ) )
+					return;
+				if ( size <= LEAF_SIZE )
+				{
+					try
+					{
+						visit( min, size );
+					}
+					catch ( final RuntimeException e )
+					{
+						throw e;
+					}
+					catch ( final Exception e )
+					{
+						throw new RuntimeException( e );
+					}
+				}
+				else
+				{
+					final long halfSize = size >> 1;
+					final List< Block > children = new ArrayList<>();
+					for ( int i = 0; i < 1 << min.length; ++i )
+						children.add( new Block( childMin( min, halfSize, i ), halfSize ) );
+					invokeAll( children );
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,304 @@
+package net.imglib2.cache.examplenavigation;
+
+import bdv.viewer.TransformListener;
+import bdv.viewer.ViewerPanel;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.LongStream;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.grid.CellRanges;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Loads the cells that will probably be visible next while the user navigates
+ * in a {@link ViewerPanel}.
+ * <p>
+ * The motion between the last two rendered frames (slice scrolling, panning,
+ * zooming, rotating) is the affine transform {@code D} from the previous to
+ * the current viewer transform. Assuming that frames keep coming at the same
+ * rate, {@code D}, {@code D^2}, ... is applied to the current transform until
+ * {@code lookaheadMillis} are covered, and the cells of the slices shown by
+ * these transforms are loaded at the lowest priority of the queue, after
+ * everything the renderer requested. Requests of earlier frames that have not
+ * started yet are skipped.
+ * <p>
+ * The number of prefetched cells is bounded by {@code maxCacheSize}: between
+ * two frames, at most {@code maxCacheSize} minus the number of visible cells
+ * are loaded. The visible cells have been accessed by the last frame, so a
+ * least-recently-used cache of that size never evicts them for prefetched
+ * cells.
+ * <p>
+ * The painter thread only records the new transform. Prediction and
+ * enqueueing run on a background thread, which skips to the latest frame if
+ * it falls behind.
+ * <p>
+ * The sources are assumed to be 3D with identity source transform, like in
+ * these examples.
+ */
+public class NavigationPrefetcher implements TransformListener< AffineTransform3D >
+{
+	/**
+	 * If the previous frame is older than this, navigation has paused and
+	 * there is no motion to extrapolate.
+	 */
+	private static final long MAX_FRAME_INTERVAL_NANOS = 500_000_000L;
+
+	private static final int MAX_STEPS = 64;
+
+	private final ViewerPanel viewer;
+
+	private final CellGrid grid;
+
+	private final Cache< Long, ? > cache;
+
+	private final BlockingFetchQueues< Callable< ? > > queue;
+
+	private final int maxCacheSize;
+
+	private final long lookaheadNanos;
+
+	private final int priority;
+
+	private final AtomicInteger generation = new AtomicInteger();
+
+	private final AtomicInteger numLoading = new AtomicInteger();
+
+	private final AtomicBoolean predictionScheduled = new AtomicBoolean();
+
+	private final ExecutorService predictor = Executors.newSingleThreadExecutor( r -> {
+		final Thread t = new Thread( r, "NavigationPrefetcher" );
+		t.setDaemon( true );
+		return t;
+	} );
+
+	private AffineTransform3D previous;
+
+	private long previousNanos;
+
+	private AffineTransform3D current;
+
+	private long currentNanos;
+
+	/**
+	 * @param cache
+	 *            the (non-volatile) cache of the cells of {@code grid}
+	 * @param queue
+	 *            the queue of the fetcher threads that load the visible cells
+	 * @param maxCacheSize
+	 *            the number of cells held by {@code cache}
+	 * @param lookaheadMillis
+	 *            how far to extrapolate the motion, e.g., the time to load a
+	 *            cell
+	 */
+	public NavigationPrefetcher(
+			final ViewerPanel viewer,
+			final CellGrid grid,
+			final Cache< Long, ? > cache,
+			final BlockingFetchQueues< Callable< ? > > queue,
+			final int maxCacheSize,
+			final long lookaheadMillis )
+	{
+		this.viewer = viewer;
+		this.grid = grid;
+		this.cache = cache;
+		this.queue = queue;
+		this.maxCacheSize = maxCacheSize;
+		this.lookaheadNanos = lookaheadMillis * 1_000_000L;
+		this.priority = queue.getNumPriorities() - 1;
+		viewer.renderTransformListeners().add( this );
+	}
+
+	@Override
+	public void transformChanged( final AffineTransform3D transform )
+	{
+		synchronized ( this )
+		{
+			// frames repainted after cells arrived do not move
+			if ( current != null && sameTransform( transform, current ) )
+				return;
+
+			previous = current;
+			previousNanos = currentNanos;
+			current = transform.copy();
+			currentNanos = System.nanoTime();
+			generation.incrementAndGet();
+		}
+
+		// predict on the background thread, from the latest frames only
+		if ( !predictionScheduled.getAndSet( true ) )
+			predictor.execute( this::predict );
+	}
+
+	private void predict()
+	{
+		predictionScheduled.set( false );
+
+		final AffineTransform3D previous;
+		final AffineTransform3D current;
+		final long frameNanos;
+		final int gen;
+		synchronized ( this )
+		{
+			if ( this.previous == null )
+				return;
+			previous = this.previous.copy();
+			current = this.current.copy();
+			frameNanos = currentNanos - previousNanos;
+			gen = generation.get();
+		}
+		if ( frameNanos > MAX_FRAME_INTERVAL_NANOS )
+			return;
+
+		final int width = viewer.getDisplay().getWidth();
+		final int height = viewer.getDisplay().getHeight();
+		final long[] visible = visibleCells( current, width, height );
+		final int budget = maxCacheSize - visible.length - numLoading.get();
+		if ( budget <= 0 )
+			return;
+
+		final AffineTransform3D step = previous.inverse().preConcatenate( current );
+		final AffineTransform3D next = current.copy();
+		final int numSteps = ( int ) Math.min( MAX_STEPS, lookaheadNanos / Math.max( 1, frameNanos ) );
+
+		// sorted indices of the cells that are visible or predicted already
+		long[] seen = visible;
+		final long[] predicted = new long[ budget ];
+		int numPredicted = 0;
+		for ( int i = 0; i < numSteps && numPredicted < budget; ++i )
+		{
+			next.preConcatenate( step );
+			final long[] cells = visibleCells( next, width, height );
+			final long[] unseen = new long[ cells.length ];
+			int numUnseen = 0;
+			for ( final long index : cells )
+				if ( Arrays.binarySearch( seen, index ) < 0 )
+					unseen[ numUnseen++ ] = index;
+			seen = merge( seen, unseen, numUnseen );
+			for ( int j = 0; j < numUnseen && numPredicted < budget; ++j )
+				if ( cache.getIfPresent( unseen[ j ] ) == null )
+					predicted[ numPredicted++ ] = unseen[ j ];
+		}
+
+		for ( int i = 0; i < numPredicted; ++i )
+		{
+			final long index = predicted[ i ];
+			queue.put( () -> prefetch( index, gen ), priority, false );
+		}
+	}
+
+	private Object prefetch( final long index, final int gen ) throws Exception
+	{
+		numLoading.incrementAndGet();
+		try
+		{
+			return gen == generation.get()
+					? cache.get( index )
+					: null;
+		}
+		finally
+		{
+			numLoading.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Get the sorted indices of the cells that intersect the slice shown by
+	 * {@code transform}, i.e., the screen at depth 0.
+	 */
+	private long[] visibleCells( final AffineTransform3D transform, final int width, final int height )
+	{
+		final double[] screenMin = { 0, 0, -0.5 };
+		final double[] screenMax = { width, height, 0.5 };
+
+		// bounding box of the slice in source coordinates
+		final AffineTransform3D inverse = transform.inverse();
+		final double[] min = new double[ 3 ];
+		final double[] max = new double[ 3 ];
+		Arrays.fill( min, Double.POSITIVE_INFINITY );
+		Arrays.fill( max, Double.NEGATIVE_INFINITY );
+		final double[] corner = new double[ 3 ];
+		final double[] p = new double[ 3 ];
+		for ( int i = 0; i < 8; ++i )
+		{
+			for ( int d = 0; d < 3; ++d )
+				corner[ d ] = ( i & ( 1 << d ) ) == 0 ? screenMin[ d ] : screenMax[ d ];
+			inverse.apply( corner, p );
+			for ( int d = 0; d < 3; ++d )
+			{
+				min[ d ] = Math.min( min[ d ], p[ d ] );
+				max[ d ] = Math.max( max[ d ], p[ d ] );
+			}
+		}
+
+		final long[] cellMin = new long[ 3 ];
+		final long[] cellMax = new long[ 3 ];
+		for ( int d = 0; d < 3; ++d )
+		{
+			cellMin[ d ] = ( long ) Math.floor( min[ d ] );
+			cellMax[ d ] = ( long ) Math.floor( max[ d ] );
+		}
+
+		// keep the cells whose transformed bounding box intersects the slice
+		final LongStream.Builder cells = LongStream.builder();
+		final long[] gridPosition = new long[ 3 ];
+		final long[] cellPos = new long[ 3 ];
+		final int[] cellDims = new int[ 3 ];
+		CellRanges.forEachCell( grid, cellMin, cellMax, index -> {
+			grid.getCellGridPositionFlat( index, gridPosition );
+			grid.getCellDimensions( gridPosition, cellPos, cellDims );
+			boolean intersects = true;
+			for ( int r = 0; r < 3 && intersects; ++r )
+			{
+				double center = transform.get( r, 3 );
+				double extent = 0;
+				for ( int c = 0; c < 3; ++c )
+				{
+					final double a = transform.get( r, c );
+					final double half = 0.5 * cellDims[ c ];
+					center += a * ( cellPos[ c ] + half );
+					extent += Math.abs( a ) * half;
+				}
+				intersects = center + extent >= screenMin[ r ] && center - extent <= screenMax[ r ];
+			}
+			if ( intersects )
+				cells.add( index );
+		} );
+		final long[] indices = cells.build().toArray();
+		Arrays.sort( indices );
+		return indices;
+	}
+
+	/**
+	 * Merge the sorted arrays {@code a} and the first {@code nb} elements of
+	 * {@code b}.
+	 */
+	private static long[] merge( final long[] a, final long[] b, final int nb )
+	{
+		if ( nb == 0 )
+			return a;
+		final long[] merged = new long[ a.length + nb ];
+		int i = 0, j = 0, k = 0;
+		while ( i < a.length && j < nb )
+			merged[ k++ ] = a[ i ] < b[ j ] ? a[ i++ ] : b[ j++ ];
+		while ( i < a.length )
+			merged[ k++ ] = a[ i++ ];
+		while ( j < nb )
+			merged[ k++ ] = b[ j++ ];
+		return merged;
+	}
+
+	private static boolean sameTransform( final AffineTransform3D a, final AffineTransform3D b )
+	{
+		for ( int r = 0; r < 3; ++r )
+			for ( int c = 0; c < 4; ++c )
+				if ( a.get( r, c ) != b.get( r, c ) )
+					return false;
+		return true;
+	}
+}
@@ -0,0 +1,433 @@
+package net.imglib2.cache.examplepool;
+
+import bdv.cache.SharedQueue;
+import java.io.PrintStream;
+import java.util.Locale;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.img.CellLoader;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
+import net.imglib2.type.NativeType;
+
+/**
+ * One fetch executor to be shared by all pipelines in a JVM, instead of a
+ * {@link SharedQueue} or {@link FetcherThreads} of a fixed size per pipeline.
+ * <p>
+ * Loaders are classified by wrapping them with {@link #io(CacheLoader)},
+ * {@link #cpu(CacheLoader)}, {@link #ioCells(CellLoader)}, or
+ * {@link #cpuCells(CellLoader)}. The fetcher threads only take requests from
+ * the queue; every load runs on the executor of its class and the fetcher
+ * thread waits for it:
+ * <ul>
+ * <li>CPU-bound loads run on a {@link ForkJoinPool} with one thread per
+ * core.</li>
+ * <li>I/O-bound loads run on a thread pool that starts with one thread per
+ * core and is resized by hill climbing: while I/O loads have to queue, the
+ * pool grows by one thread per second as long as this raises the I/O
+ * throughput by at least 5%. Otherwise the last step is undone, and the size
+ * is held for a while.</li>
+ * </ul>
+ * A load triggered by another load of this pool (e.g., a gradient that reads
+ * cells from HTTP, or a Gauss that reads the cells of another Gauss) is
+ * nested. Nested I/O loads of a CPU load are handed to the I/O pool, and the
+ * {@link ForkJoinPool} runs another CPU load while the core waits. All other
+ * nested loads run on the thread of the outer load, so pool threads never
+ * wait for a pool of their own class, which could deadlock. These nested
+ * loads are the only ones that run beyond the limit of their class.
+ */
+public class AdaptiveFetchPool
+{
+	private static final long TICK_MILLIS = 1000;
+
+	private static final double MIN_GAIN = 1.05;
+
+	private static final int HOLD_TICKS = 10;
+
+	private final int numPriorities;
+
+	private final int numThreads;
+
+	private final int maxIoConcurrency;
+
+	private final ThreadPoolExecutor ioExecutor;
+
+	private final LoadClass cpu;
+
+	private final LoadClass io;
+
+	/**
+	 * The class of the load running on the current thread, {@code null} if
+	 * it is not a thread of this pool.
+	 */
+	private final ThreadLocal< LoadClass > current = new ThreadLocal<>();
+
+	private BlockingFetchQueues< Callable< ? > > fetchQueues;
+
+	private SharedQueue sharedQueue;
+
+	private volatile PrintStream report;
+
+	private long lastTick;
+
+	private double lastIoThroughput;
+
+	private int lastIoStep;
+
+	private int hold;
+
+	private String statistics = "";
+
+	/**
+	 * @param numPriorities
+	 *            number of priority levels of the fetch queues
+	 * @param maxIoConcurrency
+	 *            upper bound for the number of concurrent I/O-bound loads
+	 */
+	public AdaptiveFetchPool( final int numPriorities, final int maxIoConcurrency )
+	{
+		final int numCores = Runtime.getRuntime().availableProcessors();
+		this.numPriorities = numPriorities;
+		this.maxIoConcurrency = Math.max( numCores, maxIoConcurrency );
+		this.numThreads = numCores + this.maxIoConcurrency;
+
+		final AtomicInteger cpuThreadIndex = new AtomicInteger();
+		cpu = new LoadClass( new ForkJoinPool( numCores, pool -> {
+			final ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread( pool );
+			t.setName( "AdaptiveFetchPool-cpu-" + cpuThreadIndex.getAndIncrement() );
+			t.setDaemon( true );
+			return t;
+		}, null, false ), numCores );
+
+		final AtomicInteger ioThreadIndex = new AtomicInteger();
+		ioExecutor = new ThreadPoolExecutor( numCores, numCores, 10, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), r -> {
+			final Thread t = new Thread( r, "AdaptiveFetchPool-io-" + ioThreadIndex.getAndIncrement() );
+			t.setDaemon( true );
+			return t;
+		} );
+		io = new LoadClass( ioExecutor, numCores );
+
+		lastTick = System.nanoTime();
+		final Timer timer = new Timer( "AdaptiveFetchPool", true );
+		timer.schedule( new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				tick();
+			}
+		}, TICK_MILLIS, TICK_MILLIS );
+	}
+
+	public AdaptiveFetchPool()
+	{
+		this( 1, 64 );
+	}
+
+	/**
+	 * Get the queue of the fetcher threads, for low-level pipelines.
+	 */
+	public synchronized BlockingFetchQueues< Callable< ? > > getFetchQueues()
+	{
+		if ( fetchQueues == null )
+		{
+			fetchQueues = new BlockingFetchQueues<>( numPriorities, numThreads );
+			new FetcherThreads( fetchQueues, numThreads );
+		}
+		return fetchQueues;
+	}
+
+	/**
+	 * Get a {@link SharedQueue} for {@code VolatileViews.wrapAsVolatile}.
+	 */
+	public synchronized SharedQueue getSharedQueue()
+	{
+		if ( sharedQueue == null )
+			sharedQueue = new SharedQueue( numThreads, numPriorities );
+		return sharedQueue;
+	}
+
+	public < K, V > CacheLoader< K, V > io( final CacheLoader< K, V > loader )
+	{
+		return key -> run( io, () -> loader.get( key ) );
+	}
+
+	public < K, V > CacheLoader< K, V > cpu( final CacheLoader< K, V > loader )
+	{
+		return key -> run( cpu, () -> loader.get( key ) );
+	}
+
+	public < T extends NativeType< T > > CellLoader< T > ioCells( final CellLoader< T > loader )
+	{
+		return cell -> run( io, () -> {
+			loader.load( cell );
+			return null;
+		} );
+	}
+
+	public < T extends NativeType< T > > CellLoader< T > cpuCells( final CellLoader< T > loader )
+	{
+		return cell -> run( cpu, () -> {
+			loader.load( cell );
+			return null;
+		} );
+	}
+
+	/**
+	 * Print utilisation statistics to {@code out} every second in which
+	 * something was loaded, or stop printing if {@code out == null}.
+	 */
+	public void setReport( final PrintStream out )
+	{
+		this.report = out;
+	}
+
+	/**
+	 * Statistics of the last second.
+	 */
+	@Override
+	public synchronized String toString()
+	{
+		return statistics;
+	}
+
+	private < V > V run( final LoadClass loadClass, final Callable< V > load ) throws Exception
+	{
+		final LoadClass outer = current.get();
+		if ( outer == null )
+			return loadClass.submit( load );
+
+		if ( outer == cpu && loadClass == io )
+		{
+			// the core is free for another CPU load while this one waits
+			final long t0 = System.nanoTime();
+			cpu.running.decrementAndGet();
+			try
+			{
+				return io.submit( load );
+			}
+			finally
+			{
+				cpu.running.incrementAndGet();
+				cpu.busyNanos.addAndGet( t0 - System.nanoTime() );
+			}
+		}
+
+		loadClass.numNested.incrementAndGet();
+		return load.call();
+	}
+
+	/**
+	 * Wait for {@code future}. On a {@link ForkJoinPool} thread, the pool may
+	 * start another thread meanwhile to keep its parallelism.
+	 */
+	private static < V > V await( final Future< V > future ) throws Exception
+	{
+		try
+		{
+			ForkJoinPool.managedBlock( new ForkJoinPool.ManagedBlocker()
+			{
+				@Override
+				public boolean block() throws InterruptedException
+				{
+					try
+					{
+						future.get();
+					}
+					catch ( final ExecutionException e )
+					{
+						// rethrown below
+					}
+					return true;
+				}
+
+				@Override
+				public boolean isReleasable()
+				{
+					return future.isDone();
+				}
+			} );
+			return future.get();
+		}
+		catch ( final InterruptedException e )
+		{
+			future.cancel( true );
+			throw e;
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof Exception )
+				throw ( Exception ) cause;
+			if ( cause instanceof Error )
+				throw ( Error ) cause;
+			throw e;
+		}
+	}
+
+	private void resizeIo( final int newLimit )
+	{
+		if ( newLimit > io.limit )
+		{
+			ioExecutor.setMaximumPoolSize( newLimit );
+			ioExecutor.setCorePoolSize( newLimit );
+		}
+		else
+		{
+			ioExecutor.setCorePoolSize( newLimit );
+			ioExecutor.setMaximumPoolSize( newLimit );
+		}
+		io.limit = newLimit;
+	}
+
+	private synchronized void tick()
+	{
+		final long now = System.nanoTime();
+		final long elapsed = now - lastTick;
+		lastTick = now;
+
+		final Interval cpuInterval = cpu.interval( elapsed );
+		final Interval ioInterval = io.interval( elapsed );
+
+		final double ioThroughput = ioInterval.numLoads * 1e9 / elapsed;
+		if ( hold > 0 )
+		{
+			--hold;
+			lastIoStep = 0;
+		}
+		else if ( lastIoStep > 0 && ioThroughput < lastIoThroughput * MIN_GAIN )
+		{
+			resizeIo( io.limit - 1 );
+			lastIoStep = -1;
+			hold = HOLD_TICKS;
+		}
+		else if ( ioInterval.numWaited > 0 && io.limit < maxIoConcurrency )
+		{
+			resizeIo( io.limit + 1 );
+			lastIoStep = 1;
+		}
+		else
+			lastIoStep = 0;
+		lastIoThroughput = ioThroughput;
+
+		statistics = String.format( Locale.ROOT, "cpu: %s; io: %s (max %d)", cpuInterval, ioInterval, maxIoConcurrency );
+		final PrintStream out = report;
+		if ( out != null && ( cpuInterval.numLoads > 0 || ioInterval.numLoads > 0 ) )
+			out.println( statistics );
+	}
+
+	private class LoadClass
+	{
+		final ExecutorService executor;
+
+		volatile int limit;
+
+		final AtomicInteger running = new AtomicInteger();
+
+		final AtomicLong busyNanos = new AtomicLong();
+
+		final AtomicLong numLoads = new AtomicLong();
+
+		final AtomicLong numWaited = new AtomicLong();
+
+		final AtomicLong numNested = new AtomicLong();
+
+		private long lastBusyNanos;
+
+		private long lastNumLoads;
+
+		private long lastNumWaited;
+
+		private long lastNumNested;
+
+		LoadClass( final ExecutorService executor, final int limit )
+		{
+			this.executor = executor;
+			this.limit = limit;
+		}
+
+		/**
+		 * Run {@code load} on the executor of this class and wait for it.
+		 */
+		< V > V submit( final Callable< V > load ) throws Exception
+		{
+			if ( running.get() >= limit )
+				numWaited.incrementAndGet();
+			return await( executor.submit( () -> {
+				current.set( this );
+				running.incrementAndGet();
+				final long t0 = System.nanoTime();
+				try
+				{
+					return load.call();
+				}
+				finally
+				{
+					busyNanos.addAndGet( System.nanoTime() - t0 );
+					numLoads.incrementAndGet();
+					running.decrementAndGet();
+					current.remove();
+				}
+			} ) );
+		}
+
+		Interval interval( final long elapsedNanos )
+		{
+			final long busy = busyNanos.get();
+			final long loads = numLoads.get();
+			final long waited = numWaited.get();
+			final long nested = numNested.get();
+			final Interval interval = new Interval(
+					limit,
+					( double ) ( busy - lastBusyNanos ) / ( limit * elapsedNanos ),
+					loads - lastNumLoads,
+					waited - lastNumWaited,
+					nested - lastNumNested );
+			lastBusyNanos = busy;
+			lastNumLoads = loads;
+			lastNumWaited = waited;
+			lastNumNested = nested;
+			return interval;
+		}
+	}
+
+	private static class Interval
+	{
+		final int limit;
+
+		final double utilisation;
+
+		final long numLoads;
+
+		final long numWaited;
+
+		final long numNested;
+
+		Interval( final int limit, final double utilisation, final long numLoads, final long numWaited, final long numNested )
+		{
+			this.limit = limit;
+			this.utilisation = utilisation;
+			this.numLoads = numLoads;
+			this.numWaited = numWaited;
+			this.numNested = numNested;
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format( Locale.ROOT, "%d threads, %.0f%% utilised, %d loads, %d queued, %d nested", limit, 100 * utilisation, numLoads, numWaited, numNested );
+		}
+	}
+}
@@ -0,0 +1,65 @@
+package net.imglib2.cache.grid;
+
+import java.util.function.LongConsumer;
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * Find the cells of a {@link CellGrid} that overlap a box of pixels.
+ */
+public class CellRanges
+{
+	/**
+	 * Compute the range {@code gridMin, gridMax} (inclusive) of grid
+	 * positions of the cells of {@code grid} overlapping the box
+	 * {@code min, max} (inclusive).
+	 *
+	 * @return whether the box overlaps the image at all
+	 */
+	public static boolean cellRange( final CellGrid grid, final long[] min, final long[] max, final long[] gridMin, final long[] gridMax )
+	{
+		boolean overlaps = true;
+		for ( int d = 0; d < grid.numDimensions(); ++d )
+		{
+			final long lo = Math.max( 0, min[ d ] );
+			final long hi = Math.min( grid.imgDimension( d ) - 1, max[ d ] );
+			gridMin[ d ] = lo / grid.cellDimension( d );
+			gridMax[ d ] = hi / grid.cellDimension( d );
+			overlaps &= lo <= hi;
+		}
+		return overlaps;
+	}
+
+	/**
+	 * Call {@code action} with the index of every cell of {@code grid}
+	 * overlapping the box {@code min, max} (inclusive). Cells are visited in
+	 * flattened index order.
+	 */
+	public static void forEachCell( final CellGrid grid, final long[] min, final long[] max, final LongConsumer action )
+	{
+		final int n = grid.numDimensions();
+		final long[] gridMin = new long[ n ];
+		final long[] gridMax = new long[ n ];
+		if ( !cellRange( grid, min, max, gridMin, gridMax ) )
+			return;
+
+		final long[] gridDims = grid.getGridDimensions();
+		final long[] pos = gridMin.clone();
+		while ( true )
+		{
+			long index = 0;
+			for ( int d = n - 1; d >= 0; --d )
+				index = index * gridDims[ d ] + pos[ d ];
+			action.accept( index );
+
+			int d = 0;
+			for ( ; d < n; ++d )
+			{
+				if ( ++pos[ d ] <= gridMax[ d ] )
+					break;
+				pos[ d ] = gridMin[ d ];
+			}
+			if ( d >= n )
+				break;
+		}
+	}
+}
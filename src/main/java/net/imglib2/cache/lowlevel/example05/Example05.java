@@ -9,8 +9,6 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.atomic.AtomicInteger;
 import net.imglib2.RandomAccessible;
 import net.imglib2.algorithm.gauss3.Gauss3;
 import net.imglib2.cache.Cache;
@@ -55,10 +53,6 @@ public class Example05
 	{
 		private final CellGrid grid;
 
-		ConcurrentHashMap< Long, AtomicInteger > loadcounts = new ConcurrentHashMap<>();
-
-		AtomicInteger loadcount = new AtomicInteger( 0 );
-
 		public CheckerboardLoader( final CellGrid grid )
 		{
 			this.grid = grid;
@@ -96,10 +90,6 @@ public class Example05
 
 		private final double sigma;
 
-		ConcurrentHashMap< Long, AtomicInteger > loadcounts = new ConcurrentHashMap<>();
-
-		AtomicInteger loadcount = new AtomicInteger( 0 );
-
 		public GaussLoader( final CellGrid grid, final RandomAccessible< UnsignedShortType > source, final double sigma )
 		{
 			this.grid = grid;
@@ -18,6 +18,7 @@ import net.imglib2.cache.UncheckedCache;
 import net.imglib2.cache.img.AccessIo;
 import net.imglib2.cache.img.DirtyDiskCellCache;
 import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.lowlevel.examplealigned.CellAlignedOps;
 import net.imglib2.cache.queue.BlockingFetchQueues;
 import net.imglib2.cache.queue.FetcherThreads;
 import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
@@ -179,6 +180,18 @@ public class Example06
 			final int blocksize = ( int ) Intervals.numElements( cellDims );
 			final VolatileShortArray array = new VolatileShortArray( blocksize, true );
 
+			/*
+			 * If the sources are cell images on the same grid, work directly
+			 * on the storage arrays of the matching cells.
+			 */
+			final short[] a1 = CellAlignedOps.shortCell( source1, cellMin, cellDims );
+			final short[] a2 = CellAlignedOps.shortCell( source2, cellMin, cellDims );
+			if ( a1 != null && a2 != null )
+			{
+				CellAlignedOps.map( a1, a2, array.getCurrentStorageArray(), ( a, b ) -> ( short ) ( ( a & 0xffff ) - ( b & 0xffff ) + 65535 / 4 ) );
+				return new Cell<>( cellDims, cellMin, array );
+			}
+
 			final Img< ShortType > img = ArrayImgs.shorts( array.getCurrentStorageArray(), Util.int2long( cellDims ) );
 
 			Views.interval(
@@ -264,8 +277,8 @@ public class Example06
 		BdvFunctions.show( gauss2.getB(), "Gauss 2", BdvOptions.options().addTo( bdv ) );
 
 		final Pair< Img< ShortType >, Img< VolatileShortType > > diff = createDifference(
-				Views.extendBorder( gauss1.getA() ),
-				Views.extendBorder( gauss2.getA() ),
+				gauss1.getA(),
+				gauss2.getA(),
 				grid,
 				queue );
 		BdvFunctions.show( diff.getB(), "Diff", BdvOptions.options().addTo( bdv ) );
@@ -0,0 +1,176 @@
+package net.imglib2.cache.lowlevel.examplealigned;
+
+import net.imglib2.Interval;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessible;
+import net.imglib2.cache.grid.CellRanges;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * Per-voxel arithmetic directly on the primitive storage arrays of cells.
+ * <p>
+ * When a derived stage and its sources are cell images on the same
+ * {@link CellGrid}, each output cell corresponds to exactly one cell of every
+ * source, and the voxels of all of them are in the same order in their
+ * storage arrays. {@link #shortCell} and {@link #floatCell} get the storage
+ * array of such a matching source cell (or {@code null} if the source is not
+ * aligned), and the {@code map} methods combine arrays element-wise.
+ */
+public class CellAlignedOps
+{
+	public interface ShortBinaryOp
+	{
+		short apply( short a, short b );
+	}
+
+	public interface ShortNaryOp
+	{
+		/**
+		 * @param values
+		 *            the input values at one voxel. The array is reused for
+		 *            every voxel.
+		 */
+		short apply( short[] values );
+	}
+
+	public interface FloatBinaryOp
+	{
+		float apply( float a, float b );
+	}
+
+	public interface FloatNaryOp
+	{
+		/**
+		 * @param values
+		 *            the input values at one voxel. The array is reused for
+		 *            every voxel.
+		 */
+		float apply( float[] values );
+	}
+
+	/**
+	 * The {@code short[]} storage of the cell of {@code source} that covers
+	 * exactly the box {@code min, dims}, or {@code null} if there is none.
+	 */
+	public static short[] shortCell( final RandomAccessible< ? > source, final long[] min, final int[] dims )
+	{
+		final Object array = cellArray( source, min, dims );
+		return array instanceof short[] ? ( short[] ) array : null;
+	}
+
+	public static short[] shortCell( final RandomAccessible< ? > source, final Interval cell )
+	{
+		return shortCell( source, minOf( cell ), dimsOf( cell ) );
+	}
+
+	/**
+	 * The {@code float[]} storage of the cell of {@code source} that covers
+	 * exactly the box {@code min, dims}, or {@code null} if there is none.
+	 */
+	public static float[] floatCell( final RandomAccessible< ? > source, final long[] min, final int[] dims )
+	{
+		final Object array = cellArray( source, min, dims );
+		return array instanceof float[] ? ( float[] ) array : null;
+	}
+
+	public static float[] floatCell( final RandomAccessible< ? > source, final Interval cell )
+	{
+		return floatCell( source, minOf( cell ), dimsOf( cell ) );
+	}
+
+	public static void map( final short[] a, final short[] b, final short[] out, final ShortBinaryOp op )
+	{
+		for ( int i = 0; i < out.length; ++i )
+			out[ i ] = op.apply( a[ i ], b[ i ] );
+	}
+
+	public static void map( final short[][] in, final short[] out, final ShortNaryOp op )
+	{
+		final short[] values = new short[ in.length ];
+		for ( int i = 0; i < out.length; ++i )
+		{
+			for ( int j = 0; j < in.length; ++j )
+				values[ j ] = in[ j ][ i ];
+			out[ i ] = op.apply( values );
+		}
+	}
+
+	public static void map( final float[] a, final float[] b, final float[] out, final FloatBinaryOp op )
+	{
+		for ( int i = 0; i < out.length; ++i )
+			out[ i ] = op.apply( a[ i ], b[ i ] );
+	}
+
+	public static void map( final float[][] in, final float[] out, final FloatNaryOp op )
+	{
+		final float[] values = new float[ in.length ];
+		for ( int i = 0; i < out.length; ++i )
+		{
+			for ( int j = 0; j < in.length; ++j )
+				values[ j ] = in[ j ][ i ];
+			out[ i ] = op.apply( values );
+		}
+	}
+
+	private static Object cellArray( final RandomAccessible< ? > source, final long[] min, final int[] dims )
+	{
+		final Cell< ? > cell = alignedCell( source, min, dims );
+		if ( cell == null )
+			return null;
+		final Object data = cell.getData();
+		return data instanceof ArrayDataAccess ? ( ( ArrayDataAccess< ? > ) data ).getCurrentStorageArray() : null;
+	}
+
+	/**
+	 * The cell of {@code source} that covers exactly the box
+	 * {@code min, dims}, or {@code null} if {@code source} is not a cell
+	 * image or the box is not one of its cells.
+	 */
+	static Cell< ? > alignedCell( final RandomAccessible< ? > source, final long[] min, final int[] dims )
+	{
+		if ( !( source instanceof AbstractCellImg ) )
+			return null;
+		final AbstractCellImg< ?, ?, ?, ? > img = ( AbstractCellImg< ?, ?, ?, ? > ) source;
+		final CellGrid grid = img.getCellGrid();
+		final int n = grid.numDimensions();
+		if ( n != min.length )
+			return null;
+
+		final long[] max = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			if ( min[ d ] < 0 || min[ d ] % grid.cellDimension( d ) != 0 )
+				return null;
+			max[ d ] = min[ d ] + dims[ d ] - 1;
+		}
+		final long[] gridPos = new long[ n ];
+		if ( !CellRanges.cellRange( grid, min, max, gridPos, new long[ n ] ) )
+			return null;
+
+		final RandomAccess< ? > cells = img.getCells().randomAccess();
+		cells.setPosition( gridPos );
+		final Cell< ? > cell = ( Cell< ? > ) cells.get();
+		for ( int d = 0; d < n; ++d )
+			if ( cell.dimension( d ) != dims[ d ] )
+				return null;
+		return cell;
+	}
+
+	static long[] minOf( final Interval interval )
+	{
+		final long[] min = new long[ interval.numDimensions() ];
+		interval.min( min );
+		return min;
+	}
+
+	static int[] dimsOf( final Interval interval )
+	{
+		final int[] dims = new int[ interval.numDimensions() ];
+		for ( int d = 0; d < dims.length; ++d )
+			dims[ d ] = ( int ) interval.dimension( d );
+		return dims;
+	}
+}
@@ -0,0 +1,38 @@
+package net.imglib2.cache.lowlevel.examplealigned;
+
+import net.imglib2.Interval;
+import net.imglib2.RandomAccessible;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.img.basictypeaccess.DataAccess;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.type.NativeType;
+import net.imglib2.view.Views;
+
+/**
+ * Views on cached cell images that avoid going through the cell cache for
+ * every voxel.
+ */
+public class CellViews
+{
+	/**
+	 * Like {@code Views.interval( source, interval )}. If {@code source} is a
+	 * cell image and {@code interval} is exactly one of its cells, the result
+	 * is a {@link PinnedCellImg} on that cell (translated to
+	 * {@code interval}), so iterating it is plain array access and the cell is
+	 * looked up only once.
+	 */
+	public static < T extends NativeType< T > > RandomAccessibleInterval< T > interval( final RandomAccessible< T > source, final Interval interval )
+	{
+		final long[] min = CellAlignedOps.minOf( interval );
+		final Cell< ? > cell = CellAlignedOps.alignedCell( source, min, CellAlignedOps.dimsOf( interval ) );
+		if ( cell == null || !( cell.getData() instanceof DataAccess ) )
+			return Views.interval( source, interval );
+
+		@SuppressWarnings( "unchecked" )
+		final T type = ( ( AbstractCellImg< T, ?, ?, ? > ) source ).createLinkedType();
+		@SuppressWarnings( "unchecked" )
+		final Cell< ? extends DataAccess > c = ( Cell< ? extends DataAccess > ) cell;
+		return Views.translate( PinnedCellImg.wrap( c, type ), min );
+	}
+}
@@ -0,0 +1,45 @@
+package net.imglib2.cache.lowlevel.examplealigned;
+
+import net.imglib2.img.array.ArrayImg;
+import net.imglib2.img.basictypeaccess.DataAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.NativeTypeFactory;
+import net.imglib2.util.Intervals;
+
+/**
+ * An {@link ArrayImg} on the access of a cached {@link Cell}, without copying.
+ * <p>
+ * It keeps a reference to the cell, so that the cell cannot be garbage
+ * collected (and written back and reloaded as a different object by the
+ * cache) while this image is in use. Writing to the image writes to the cell.
+ */
+public class PinnedCellImg< T extends NativeType< T >, A extends DataAccess > extends ArrayImg< T, A >
+{
+	private final Cell< A > cell;
+
+	private PinnedCellImg( final Cell< A > cell, final long[] dimensions, final T type )
+	{
+		super( cell.getData(), dimensions, type.getEntitiesPerPixel() );
+		this.cell = cell;
+	}
+
+	public Cell< A > getCell()
+	{
+		return cell;
+	}
+
+	@SuppressWarnings( "unchecked" )
+	public static < T extends NativeType< T >, A extends DataAccess > PinnedCellImg< T, A > wrap( final Cell< A > cell, final T type )
+	{
+		final long[] dimensions = new long[ cell.numDimensions() ];
+		for ( int d = 0; d < dimensions.length; ++d )
+			dimensions[ d ] = cell.dimension( d );
+		if ( Intervals.numElements( dimensions ) > Integer.MAX_VALUE )
+			throw new IllegalArgumentException( "cell too large" );
+		final PinnedCellImg< T, A > img = new PinnedCellImg<>( cell, dimensions, type );
+		final NativeTypeFactory< T, ? super A > typeFactory = ( NativeTypeFactory< T, ? super A > ) type.getNativeTypeFactory();
+		img.setLinkedType( typeFactory.createLinkedType( img ) );
+		return img;
+	}
+}
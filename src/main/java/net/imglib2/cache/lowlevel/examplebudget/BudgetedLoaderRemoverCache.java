@@ -0,0 +1,298 @@
+package net.imglib2.cache.lowlevel.examplebudget;
+
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.ToLongFunction;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.CacheRemover;
+
+/**
+ * A loading cache that is bounded by bytes in a (possibly shared)
+ * {@link MemoryBudget} rather than by number of entries.
+ * <p>
+ * Like {@code GuardedStrongRefLoaderRemoverCache}, entries evicted from the
+ * budget are only weakly reachable from the cache. If they are requested again
+ * before being garbage-collected, they are re-admitted without loading. Once
+ * an evicted value is garbage-collected, its data is handed to the
+ * {@link CacheRemover}. Use {@link #get(Object)} as a method reference, e.g.,
+ * {@code new LazyCellImg<>( grid, type, cache::get )}.
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ * @param <D>
+ *            value data type
+ */
+public class BudgetedLoaderRemoverCache< K, V, D >
+{
+	private final MemoryBudget budget;
+
+	private final ToLongFunction< ? super V > weigher;
+
+	private final CacheLoader< K, ? extends V > loader;
+
+	private final CacheRemover< K, V, D > remover;
+
+	private final ConcurrentHashMap< K, Entry > map = new ConcurrentHashMap<>();
+
+	private final ReferenceQueue< V > queue = new ReferenceQueue<>();
+
+	private final class EvictedRef extends WeakReference< V >
+	{
+		final Entry entry;
+
+		EvictedRef( final V value, final Entry entry )
+		{
+			super( value, queue );
+			this.entry = entry;
+		}
+	}
+
+	private final class Entry implements MemoryBudget.Weighted
+	{
+		final K key;
+
+		/** value, while it is in the budget */
+		V value;
+
+		/** weak reference to value, after it was evicted from the budget */
+		EvictedRef ref;
+
+		/** data of value, after it was evicted from the budget */
+		D data;
+
+		CompletableFuture< V > loading;
+
+		long weight;
+
+		boolean removed;
+
+		Entry( final K key )
+		{
+			this.key = key;
+		}
+
+		@Override
+		public long weight()
+		{
+			return weight;
+		}
+
+		@Override
+		public synchronized void evict()
+		{
+			if ( value == null || removed )
+				return;
+			data = remover.extract( value );
+			ref = new EvictedRef( value, this );
+			value = null;
+		}
+
+		/**
+		 * Put {@code v} back into the budget. Must be called with the entry
+		 * lock held, then {@code budget.add(this)} without.
+		 */
+		void admit( final V v )
+		{
+			value = v;
+			weight = weigher.applyAsLong( v );
+			if ( ref != null )
+				ref.clear();
+			ref = null;
+			data = null;
+		}
+	}
+
+	public < T extends CacheLoader< K, ? extends V > & CacheRemover< K, V, D > > BudgetedLoaderRemoverCache(
+			final MemoryBudget budget,
+			final ToLongFunction< ? super V > weigher,
+			final T io )
+	{
+		this( budget, weigher, io, io );
+	}
+
+	public BudgetedLoaderRemoverCache(
+			final MemoryBudget budget,
+			final ToLongFunction< ? super V > weigher,
+			final CacheLoader< K, ? extends V > loader,
+			final CacheRemover< K, V, D > remover )
+	{
+		this.budget = budget;
+		this.weigher = weigher;
+		this.loader = loader;
+		this.remover = remover;
+	}
+
+	public V get( final K key )
+	{
+		cleanUp();
+		while ( true )
+		{
+			final Entry entry = map.computeIfAbsent( key, Entry::new );
+			final CompletableFuture< V > future;
+			boolean load = false;
+			synchronized ( entry )
+			{
+				if ( entry.removed )
+					continue;
+				if ( entry.value != null )
+				{
+					budget.touch( entry );
+					return entry.value;
+				}
+				if ( entry.ref != null )
+				{
+					V v = entry.ref.get();
+					if ( v == null )
+						v = remover.reconstruct( key, entry.data );
+					entry.admit( v );
+				}
+				else if ( entry.loading == null )
+				{
+					entry.loading = new CompletableFuture<>();
+					load = true;
+				}
+				future = entry.loading;
+			}
+
+			if ( future == null )
+			{
+				// re-admitted an evicted value
+				budget.add( entry );
+				synchronized ( entry )
+				{
+					if ( entry.value != null )
+						return entry.value;
+				}
+				continue;
+			}
+
+			if ( load )
+			{
+				final V v;
+				try
+				{
+					v = loader.get( key );
+				}
+				catch ( final Exception e )
+				{
+					synchronized ( entry )
+					{
+						entry.removed = true;
+						entry.loading = null;
+					}
+					map.remove( key, entry );
+					future.completeExceptionally( e );
+					throw new RuntimeException( e );
+				}
+				synchronized ( entry )
+				{
+					entry.admit( v );
+					entry.loading = null;
+				}
+				budget.add( entry );
+				future.complete( v );
+				return v;
+			}
+
+			try
+			{
+				return future.get();
+			}
+			catch ( final InterruptedException e )
+			{
+				Thread.currentThread().interrupt();
+				throw new RuntimeException( e );
+			}
+			catch ( final ExecutionException e )
+			{
+				throw new RuntimeException( e.getCause() );
+			}
+		}
+	}
+
+	/**
+	 * Write all entries (in the budget or evicted but not yet collected)
+	 * through the {@link CacheRemover}, and wait until that is done.
+	 */
+	public void persistAll()
+	{
+		cleanUp();
+		map.values().forEach( entry -> {
+			final D d;
+			synchronized ( entry )
+			{
+				if ( entry.removed )
+					return;
+				d = entry.value != null ? remover.extract( entry.value ) : entry.data;
+			}
+			if ( d != null )
+				remover.persist( entry.key, d ).join();
+		} );
+	}
+
+	public void invalidate( final K key )
+	{
+		final Entry entry = map.remove( key );
+		if ( entry != null )
+			discard( entry );
+		remover.invalidate( key );
+	}
+
+	public void invalidateAll()
+	{
+		map.values().removeIf( entry -> {
+			discard( entry );
+			return true;
+		} );
+		remover.invalidateAll( 1000 );
+	}
+
+	public MemoryBudget getBudget()
+	{
+		return budget;
+	}
+
+	private void discard( final Entry entry )
+	{
+		synchronized ( entry )
+		{
+			entry.removed = true;
+			entry.value = null;
+			entry.data = null;
+			if ( entry.ref != null )
+				entry.ref.clear();
+			entry.ref = null;
+		}
+		budget.remove( entry );
+	}
+
+	/**
+	 * Pass data of evicted and garbage-collected values to the remover.
+	 */
+	@SuppressWarnings( "unchecked" )
+	private void cleanUp()
+	{
+		EvictedRef ref;
+		while ( ( ref = ( EvictedRef ) queue.poll() ) != null )
+		{
+			final Entry entry = ref.entry;
+			final D d;
+			synchronized ( entry )
+			{
+				if ( entry.ref != ref || entry.removed )
+					continue;
+				d = entry.data;
+				entry.data = null;
+				entry.ref = null;
+				entry.removed = true;
+			}
+			map.remove( entry.key, entry );
+			remover.onRemoval( entry.key, d );
+		}
+	}
+}
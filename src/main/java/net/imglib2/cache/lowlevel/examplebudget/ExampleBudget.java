@@ -0,0 +1,114 @@
+package net.imglib2.cache.lowlevel.examplebudget;
+
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Timer;
+import java.util.TimerTask;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DirtyDiskCellCache;
+import net.imglib2.cache.img.DiskCachedCellImgFactory;
+import net.imglib2.cache.img.DiskCachedCellImgOptions;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.img.optional.CacheOptions.CacheType;
+import net.imglib2.cache.lowlevel.example04.Example04.CheckerboardLoader;
+import net.imglib2.cache.lowlevel.example04.Example04.GaussLoader;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.ARGBType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Fraction;
+import net.imglib2.view.Views;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+import static net.imglib2.cache.img.DiskCachedCellImgOptions.options;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * The {@code lowlevel.example04} pipeline, with both stages sharing one
+ * {@link MemoryBudget} of 64 MB instead of having 100 cells each. Next to it,
+ * an ARGB image from {@link DiskCachedCellImgFactory} whose (cell-counting)
+ * cache is sized from a byte budget with
+ * {@link MemoryBudget#maxCacheSize(long, int[], net.imglib2.type.NativeType)}.
+ */
+public class ExampleBudget
+{
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+
+		final MemoryBudget budget = new MemoryBudget( 64L << 20 );
+
+		final UnsignedShortType type = new UnsignedShortType();
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Path blockcache = DiskCellCache.createTempDirectory( "CellImg", true );
+		final Fraction entitiesPerPixel = type.getEntitiesPerPixel();
+		final DiskCellCache< DirtyShortArray > diskcache = new DirtyDiskCellCache<>(
+				blockcache,
+				grid,
+				new CheckerboardLoader( grid ),
+				AccessIo.get( SHORT, AccessFlags.setOf( DIRTY ) ),
+				entitiesPerPixel );
+		final IoSync< Long, Cell< DirtyShortArray >, DirtyShortArray > iosync = new IoSync<>( diskcache );
+		final BudgetedLoaderRemoverCache< Long, Cell< DirtyShortArray >, DirtyShortArray > cache = new BudgetedLoaderRemoverCache<>(
+				budget,
+				MemoryBudget.cellWeigher( type ),
+				iosync );
+		final Img< UnsignedShortType > img = new LazyCellImg<>( grid, new UnsignedShortType(), cache::get );
+
+		final Bdv bdv = BdvFunctions.show( img, "Cached" );
+		bdv.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+
+		final Path blockcache2 = DiskCellCache.createTempDirectory( "Gauss", true );
+		final DiskCellCache< ShortArray > diskcache2 = new DiskCellCache<>(
+				blockcache2,
+				grid,
+				new GaussLoader( grid, Views.extendBorder( img ) ),
+				AccessIo.get( SHORT, AccessFlags.setOf() ),
+				entitiesPerPixel );
+		final IoSync< Long, Cell< ShortArray >, ShortArray > iosync2 = new IoSync<>( diskcache2 );
+		final BudgetedLoaderRemoverCache< Long, Cell< ShortArray >, ShortArray > cache2 = new BudgetedLoaderRemoverCache<>(
+				budget,
+				MemoryBudget.cellWeigher( type ),
+				iosync2 );
+		final Img< UnsignedShortType > img2 = new LazyCellImg<>( grid, new UnsignedShortType(), cache2::get );
+
+		BdvFunctions.show( img2, "Gauss", BdvOptions.options().addTo( bdv ) );
+
+		/*
+		 * With 64^3 cells, 64 MB are 128 UnsignedShortType cells, but only 64
+		 * ARGBType cells.
+		 */
+		final ARGBType argb = new ARGBType();
+		final DiskCachedCellImgOptions factoryOptions = options()
+				.cellDimensions( cellDimensions )
+				.cacheType( CacheType.BOUNDED )
+				.maxCacheSize( MemoryBudget.maxCacheSize( 64L << 20, cellDimensions, argb ) );
+		final Img< ARGBType > img3 = new DiskCachedCellImgFactory<>( argb, factoryOptions ).create(
+				dimensions,
+				new net.imglib2.cache.example02.CheckerboardLoader( grid ) );
+
+		BdvFunctions.show( img3, "ARGB", BdvOptions.options().addTo( bdv ) );
+
+		new Timer( "MemoryBudget-stats", true ).schedule( new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				System.out.println( budget );
+			}
+		}, 5000, 5000 );
+	}
+}
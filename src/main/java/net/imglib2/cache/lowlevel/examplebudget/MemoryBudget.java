@@ -0,0 +1,186 @@
+package net.imglib2.cache.lowlevel.examplebudget;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.function.ToLongFunction;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.PrimitiveType;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.Intervals;
+
+/**
+ * A byte budget shared by any number of {@link BudgetedLoaderRemoverCache}s.
+ * <p>
+ * All strongly held entries of all participating caches are kept in one
+ * least-recently-used order. When adding an entry pushes the total weight over
+ * the budget, the least recently used entries (of whichever cache) are
+ * evicted until it fits again.
+ */
+public class MemoryBudget
+{
+	/**
+	 * Something that occupies memory in a {@link MemoryBudget}.
+	 */
+	public interface Weighted
+	{
+		/**
+		 * Size in bytes. Must not change while the entry is in the budget.
+		 */
+		long weight();
+
+		/**
+		 * Called (without holding the budget lock) after the entry was
+		 * removed from the budget to make room for others.
+		 */
+		void evict();
+	}
+
+	private final long maxBytes;
+
+	private final LinkedHashMap< Weighted, Boolean > lru = new LinkedHashMap<>( 16, 0.75f, true );
+
+	private long usedBytes;
+
+	private long peakBytes;
+
+	private long numEvictions;
+
+	public MemoryBudget( final long maxBytes )
+	{
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Add {@code entry} as most recently used and evict least recently used
+	 * entries as necessary. The entry just added is never evicted by this
+	 * call, even if it exceeds the budget on its own.
+	 */
+	public void add( final Weighted entry )
+	{
+		final List< Weighted > victims = new ArrayList<>();
+		synchronized ( this )
+		{
+			if ( lru.put( entry, Boolean.TRUE ) == null )
+				usedBytes += entry.weight();
+			final Iterator< Weighted > it = lru.keySet().iterator();
+			while ( usedBytes > maxBytes && it.hasNext() )
+			{
+				final Weighted victim = it.next();
+				if ( victim == entry )
+					continue;
+				it.remove();
+				usedBytes -= victim.weight();
+				victims.add( victim );
+			}
+			peakBytes = Math.max( peakBytes, usedBytes );
+			numEvictions += victims.size();
+		}
+		victims.forEach( Weighted::evict );
+	}
+
+	/**
+	 * Mark {@code entry} as most recently used, if it is in the budget.
+	 */
+	public synchronized void touch( final Weighted entry )
+	{
+		lru.get( entry );
+	}
+
+	/**
+	 * Remove {@code entry} from the budget without evicting it.
+	 */
+	public synchronized void remove( final Weighted entry )
+	{
+		if ( lru.remove( entry ) != null )
+			usedBytes -= entry.weight();
+	}
+
+	public long getMaxBytes()
+	{
+		return maxBytes;
+	}
+
+	public synchronized long getUsedBytes()
+	{
+		return usedBytes;
+	}
+
+	public synchronized long getPeakBytes()
+	{
+		return peakBytes;
+	}
+
+	public synchronized int getNumEntries()
+	{
+		return lru.size();
+	}
+
+	public synchronized long getNumEvictions()
+	{
+		return numEvictions;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return String.format( "%d entries, %.1f / %.1f MB (peak %.1f MB), %d evictions",
+				lru.size(), usedBytes / 1e6, maxBytes / 1e6, peakBytes / 1e6, numEvictions );
+	}
+
+	/**
+	 * Size in bytes of one entity (primitive array element) of the given type.
+	 */
+	public static int bytesPerEntity( final PrimitiveType primitiveType )
+	{
+		switch ( primitiveType )
+		{
+		case BOOLEAN:
+		case BYTE:
+			return 1;
+		case CHAR:
+		case SHORT:
+			return 2;
+		case INT:
+		case FLOAT:
+			return 4;
+		case LONG:
+		case DOUBLE:
+			return 8;
+		default:
+			throw new IllegalArgumentException( "unknown primitive type: " + primitiveType );
+		}
+	}
+
+	/**
+	 * Size in bytes of the storage of a cell of {@code numPixels} pixels of
+	 * the given type.
+	 */
+	public static long cellBytes( final long numPixels, final NativeType< ? > type )
+	{
+		final Fraction entitiesPerPixel = type.getEntitiesPerPixel();
+		return entitiesPerPixel.mulCeil( numPixels ) * bytesPerEntity( type.getNativeTypeFactory().getPrimitiveType() );
+	}
+
+	/**
+	 * Weigher for cells of the given type, to be used with
+	 * {@link BudgetedLoaderRemoverCache}.
+	 */
+	public static ToLongFunction< Cell< ? > > cellWeigher( final NativeType< ? > type )
+	{
+		return cell -> cellBytes( cell.size(), type );
+	}
+
+	/**
+	 * Number of (full) cells that fit into {@code maxBytes}, e.g., for
+	 * {@code DiskCachedCellImgOptions.maxCacheSize()}. The factory caches count
+	 * cells, so this is how a byte budget translates to them. It is at least
+	 * 1.
+	 */
+	public static long maxCacheSize( final long maxBytes, final int[] cellDimensions, final NativeType< ? > type )
+	{
+		return Math.max( 1, maxBytes / cellBytes( Intervals.numElements( cellDimensions ), type ) );
+	}
+}
@@ -0,0 +1,62 @@
+package net.imglib2.cache.lowlevel.examplecancel;
+
+import weka.classifiers.Classifier;
+import weka.core.Capabilities;
+import weka.core.Instance;
+import weka.core.Instances;
+
+/**
+ * Wraps a {@link Classifier} such that a loader classifying a cell voxel by
+ * voxel aborts when the cell is no longer needed: every
+ * {@code checkInterval} instances classified by a thread,
+ * {@link GenerationFetchQueues#checkCancelled()} is called.
+ */
+public class CancellableClassifier implements Classifier
+{
+	private final Classifier classifier;
+
+	private final int checkInterval;
+
+	private final ThreadLocal< int[] > numClassified = ThreadLocal.withInitial( () -> new int[ 1 ] );
+
+	/**
+	 * @param checkInterval
+	 *            how many instances to classify between checks, e.g., the
+	 *            length of a cell line
+	 */
+	public CancellableClassifier( final Classifier classifier, final int checkInterval )
+	{
+		this.classifier = classifier;
+		this.checkInterval = checkInterval;
+	}
+
+	@Override
+	public void buildClassifier( final Instances data ) throws Exception
+	{
+		classifier.buildClassifier( data );
+	}
+
+	@Override
+	public double classifyInstance( final Instance instance ) throws Exception
+	{
+		final int[] n = numClassified.get();
+		if ( ++n[ 0 ] >= checkInterval )
+		{
+			n[ 0 ] = 0;
+			GenerationFetchQueues.checkCancelled();
+		}
+		return classifier.classifyInstance( instance );
+	}
+
+	@Override
+	public double[] distributionForInstance( final Instance instance ) throws Exception
+	{
+		return classifier.distributionForInstance( instance );
+	}
+
+	@Override
+	public Capabilities getCapabilities()
+	{
+		return classifier.getCapabilities();
+	}
+}
@@ -0,0 +1,26 @@
+package net.imglib2.cache.lowlevel.examplecancel;
+
+import java.util.concurrent.ExecutionException;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGather;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+
+/**
+ * A {@link HaloGather} that calls {@link GenerationFetchQueues#checkCancelled()}
+ * after gathering, such that a loader waiting for its halo aborts before the
+ * actual computation if the cell is no longer needed.
+ */
+public class CancellableHaloGather extends HaloGather
+{
+	public CancellableHaloGather( final AbstractCellImg< ?, ?, ? extends Cell< ? >, ? > img )
+	{
+		super( img );
+	}
+
+	@Override
+	public void gather( final long[] min, final int[] dims, final Object dst ) throws InterruptedException, ExecutionException
+	{
+		super.gather( min, dims, dst );
+		GenerationFetchQueues.checkCancelled();
+	}
+}
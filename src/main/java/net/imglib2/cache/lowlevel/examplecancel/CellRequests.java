@@ -0,0 +1,66 @@
+package net.imglib2.cache.lowlevel.examplecancel;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import java.util.concurrent.ConcurrentHashMap;
+import net.imglib2.cache.CacheLoader;
+
+/**
+ * Cancellation token for the cells of one volatile image.
+ * <p>
+ * Remembers in which generation of a {@link GenerationFetchQueues} each cell
+ * was last requested through the volatile image. A load running on a fetcher
+ * thread is cancelled if its cell has not been requested since the viewer
+ * moved on, i.e., if it is no longer on screen. Cells that are still on
+ * screen are re-requested by every frame and keep loading.
+ */
+public class CellRequests
+{
+	private final GenerationFetchQueues queue;
+
+	private final ConcurrentHashMap< Long, Integer > lastRequested = new ConcurrentHashMap<>();
+
+	public CellRequests( final GenerationFetchQueues queue )
+	{
+		this.queue = queue;
+	}
+
+	/**
+	 * Whether the load of cell {@code index} should be cancelled. Cells that
+	 * have never been requested through a {@link #track(VolatileCachedCellImg.Get)
+	 * tracked} volatile image are never cancelled.
+	 */
+	public boolean isCancelled( final long index )
+	{
+		final Integer generation = lastRequested.get( index );
+		return generation != null && queue.isStale( generation );
+	}
+
+	/**
+	 * Wrap the {@code get} of a volatile image to record the generation of
+	 * every request.
+	 */
+	public < T > VolatileCachedCellImg.Get< T > track( final VolatileCachedCellImg.Get< T > get )
+	{
+		return ( index, hints ) -> {
+			// record before get, which may enqueue the load
+			lastRequested.put( index, queue.getGeneration() );
+			return get.get( index, hints );
+		};
+	}
+
+	/**
+	 * Wrap {@code loader} such that, when run for a request of the
+	 * {@link GenerationFetchQueues}, it does not start if its cell is
+	 * {@link #isCancelled(long) cancelled}, and
+	 * {@link GenerationFetchQueues#checkCancelled()} in the loader aborts it
+	 * when it becomes cancelled.
+	 */
+	public < V > CacheLoader< Long, V > cancellable( final CacheLoader< Long, V > loader )
+	{
+		return key -> {
+			GenerationFetchQueues.cancelWhen( () -> isCancelled( key ) );
+			GenerationFetchQueues.checkCancelled();
+			return loader.get( key );
+		};
+	}
+}
@@ -0,0 +1,157 @@
+package net.imglib2.cache.lowlevel.examplecancel;
+
+import bdv.img.cache.CreateInvalidVolatileCell;
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import bdv.util.BdvSource;
+import bdv.viewer.ViewerPanel;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.exampleclassifier.ExampleClassifyingCell.ClassifyingCellLoader;
+import net.imglib2.cache.exampleclassifier.ThresholdingClassifier;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DirtyDiskCellCache;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.img.LoadedCellCacheLoader;
+import net.imglib2.cache.lowlevel.example06.Example06.CheckerboardLoader;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGaussLoader;
+import net.imglib2.cache.queue.FetcherThreads;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.cache.ref.WeakRefVolatileCache;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.CreateInvalid;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.cache.volatiles.VolatileCache;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.img.basictypeaccess.AccessFlags.VOLATILE;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * A Gauss stage and a classifier on top of it, fetched through a
+ * {@link GenerationFetchQueues}. Whenever a frame is rendered with a new
+ * viewer transform, requests for cells that are no longer on screen are
+ * dropped from the queue, and Gauss and classifier loads of such cells that
+ * are already running abort. The Gauss checks after gathering its halo (see
+ * {@link CancellableHaloGather}), the classifier once per cell line (see
+ * {@link CancellableClassifier}). Scroll quickly through the volume and compare
+ * how fast the final position becomes sharp with {@code examplehalo}.
+ */
+public class ExampleCancel
+{
+	static Pair< LazyCellImg< UnsignedShortType, VolatileShortArray >, VolatileCachedCellImg< VolatileUnsignedShortType, ? > >
+		createCancellable( final String name, final CacheLoader< Long, Cell< VolatileShortArray > > loader, final CellGrid grid, final GenerationFetchQueues queue )
+				throws IOException
+	{
+		final UnsignedShortType type = new UnsignedShortType();
+		final VolatileUnsignedShortType vtype = new VolatileUnsignedShortType();
+
+		final CellRequests requests = new CellRequests( queue );
+
+		final Path blockcache = DiskCellCache.createTempDirectory( name + "-", true );
+		final DiskCellCache< VolatileShortArray > diskcache = new DiskCellCache<>(
+				blockcache,
+				grid,
+				requests.cancellable( loader ),
+				AccessIo.get( SHORT, AccessFlags.setOf( VOLATILE ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< VolatileShortArray >, VolatileShortArray > iosync = new IoSync<>( diskcache );
+		final Cache< Long, Cell< VolatileShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< VolatileShortArray >, VolatileShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync );
+		final LazyCellImg< UnsignedShortType, VolatileShortArray > img = new LazyCellImg<>( grid, type, cache.unchecked()::get );
+
+		final CreateInvalid< Long, Cell< VolatileShortArray > > createInvalid = CreateInvalidVolatileCell.get( grid, type, false );
+		final VolatileCache< Long, Cell< VolatileShortArray > > volatileCache = new WeakRefVolatileCache<>( cache, queue, createInvalid );
+
+		final CacheHints hints = new CacheHints( LoadingStrategy.VOLATILE, 0, false );
+		final VolatileCachedCellImg.Get< Cell< VolatileShortArray > > get = requests.track( volatileCache.unchecked()::get );
+		final VolatileCachedCellImg< VolatileUnsignedShortType, ? > vimg = new VolatileCachedCellImg<>( grid, vtype, hints, get );
+
+		return new ValuePair<>( img, vimg );
+	}
+
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+
+		final UnsignedShortType type = new UnsignedShortType();
+
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Path blockcache = DiskCellCache.createTempDirectory( "CellImg-", true );
+		final DiskCellCache< DirtyShortArray > diskcache = new DirtyDiskCellCache<>(
+				blockcache,
+				grid,
+				new CheckerboardLoader( grid ),
+				AccessIo.get( SHORT, AccessFlags.setOf( DIRTY ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< DirtyShortArray >, DirtyShortArray > iosync = new IoSync<>( diskcache );
+		final UncheckedCache< Long, Cell< DirtyShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirtyShortArray >, DirtyShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync )
+				.unchecked();
+		final LazyCellImg< UnsignedShortType, DirtyShortArray > img = new LazyCellImg<>( grid, new UnsignedShortType(), cache::get );
+
+		final Bdv bdv = BdvFunctions.show( img, "Cached" );
+		final ViewerPanel viewer = bdv.getBdvHandle().getViewerPanel();
+		viewer.setDisplayMode( SINGLE );
+
+		final int maxNumLevels = 1;
+		final int numFetcherThreads = 7;
+		final GenerationFetchQueues queue = new GenerationFetchQueues( maxNumLevels, numFetcherThreads );
+		new FetcherThreads( queue, numFetcherThreads );
+
+		/*
+		 * Start a new generation after a frame with a new transform has been
+		 * rendered (and has requested the cells it needs).
+		 */
+		final AffineTransform3D rendered = new AffineTransform3D();
+		viewer.renderTransformListeners().add( transform -> {
+			if ( !Arrays.equals( transform.getRowPackedCopy(), rendered.getRowPackedCopy() ) )
+			{
+				rendered.set( transform );
+				queue.nextGeneration();
+			}
+		} );
+
+		final Pair< LazyCellImg< UnsignedShortType, VolatileShortArray >, VolatileCachedCellImg< VolatileUnsignedShortType, ? > > gauss = createCancellable(
+				"Gauss",
+				new HaloGaussLoader( grid, new CancellableHaloGather( img ), 5 ),
+				grid,
+				queue );
+		final Pair< LazyCellImg< UnsignedShortType, VolatileShortArray >, VolatileCachedCellImg< VolatileUnsignedShortType, ? > > prediction = createCancellable(
+				"Prediction",
+				LoadedCellCacheLoader.get( grid, new ClassifyingCellLoader<>( Arrays.asList( gauss.getA() ), new CancellableClassifier( new ThresholdingClassifier( 0.5 ), cellDimensions[ 0 ] ), 2 ), type, AccessFlags.setOf( VOLATILE ) ),
+				grid,
+				queue );
+
+		BdvFunctions.show( gauss.getB(), "Gauss", BdvOptions.options().addTo( bdv ) );
+		final BdvSource bdvSourcePrediction = BdvFunctions.show( prediction.getB(), "Prediction", BdvOptions.options().addTo( bdv ) );
+		bdvSourcePrediction.setDisplayRange( 0, 1 );
+
+		Runtime.getRuntime().addShutdownHook( new Thread( () -> System.out.println(
+				"dropped " + queue.getNumDropped() + " stale requests, aborted " + queue.getNumAborted() + " running loads" ) ) );
+	}
+}
@@ -0,0 +1,167 @@
+package net.imglib2.cache.lowlevel.examplecancel;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.BooleanSupplier;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+
+/**
+ * {@link BlockingFetchQueues} that drop requests which became stale.
+ * <p>
+ * Every request is tagged with the generation in which it was enqueued.
+ * {@link #nextGeneration()} (called when the viewer moves on) marks the
+ * generations before the one that just ended stale. Stale requests are not run when they are taken
+ * from the queue. Because {@link #nextGeneration()} also starts a new frame
+ * (see {@link #clearToPrefetch()}), the {@code WeakRefVolatileCache}
+ * re-enqueues every cell that is still needed the next time it is requested.
+ * <p>
+ * Loaders that are already running can abort cooperatively by calling
+ * {@link #checkCancelled()}, which throws a {@link CancellationException} if
+ * the request being executed by the current thread has been cancelled (see
+ * {@link CellRequests}). The exception propagates through the cache, so the
+ * partial result is never stored, and is swallowed here.
+ */
+public class GenerationFetchQueues extends BlockingFetchQueues< Callable< ? > >
+{
+	private static final ThreadLocal< Task > currentTask = new ThreadLocal<>();
+
+	private volatile int generation = 0;
+
+	private volatile int staleBefore = 0;
+
+	private final AtomicLong numDropped = new AtomicLong();
+
+	private final AtomicLong numAborted = new AtomicLong();
+
+	public GenerationFetchQueues( final int numPriorities, final int numFetcherThreads )
+	{
+		super( numPriorities, numFetcherThreads );
+	}
+
+	@Override
+	public void put( final Callable< ? > element, final int priority, final boolean enqueuToFront )
+	{
+		super.put( new Task( element, generation ), priority, enqueuToFront );
+	}
+
+	/**
+	 * Start a new generation. Requests of the generation that just ended stay
+	 * valid: it contains the requests of the frame that triggered this call,
+	 * which is still on screen. All requests of earlier generations become
+	 * stale.
+	 */
+	public synchronized void nextGeneration()
+	{
+		staleBefore = generation;
+		++generation;
+		clearToPrefetch();
+	}
+
+	public int getGeneration()
+	{
+		return generation;
+	}
+
+	/**
+	 * Whether requests made in {@code generation} are stale.
+	 */
+	public boolean isStale( final int generation )
+	{
+		return generation < staleBefore;
+	}
+
+	/**
+	 * Number of stale requests that were taken from the queue but not run.
+	 */
+	public long getNumDropped()
+	{
+		return numDropped.get();
+	}
+
+	/**
+	 * Number of requests that were aborted by their loader.
+	 */
+	public long getNumAborted()
+	{
+		return numAborted.get();
+	}
+
+	/**
+	 * Throw a {@link CancellationException} if the request executed by the
+	 * current thread has been cancelled. Does nothing if the current thread is
+	 * not executing a request of a {@link GenerationFetchQueues}, so loaders
+	 * may call this unconditionally.
+	 */
+	public static void checkCancelled()
+	{
+		final Task task = currentTask.get();
+		if ( task != null && task.isCancelled != null && task.isCancelled.getAsBoolean() )
+			throw new CancellationException();
+	}
+
+	/**
+	 * Set how {@link #checkCancelled()} decides whether the request executed
+	 * by the current thread is cancelled. Only the first call for a request
+	 * has an effect, so that loads nested in the outermost one (e.g., of
+	 * upstream cells) are cancelled with the outermost request, and not on
+	 * their own account.
+	 */
+	static void cancelWhen( final BooleanSupplier isCancelled )
+	{
+		final Task task = currentTask.get();
+		if ( task != null && task.isCancelled == null )
+			task.isCancelled = isCancelled;
+	}
+
+	private static boolean isCancellation( final Throwable e )
+	{
+		for ( Throwable t = e; t != null; t = t.getCause() )
+			if ( t instanceof CancellationException )
+				return true;
+		return false;
+	}
+
+	private class Task implements Callable< Object >
+	{
+		private final Callable< ? > request;
+
+		private final int generation;
+
+		private BooleanSupplier isCancelled;
+
+		Task( final Callable< ? > request, final int generation )
+		{
+			this.request = request;
+			this.generation = generation;
+		}
+
+		@Override
+		public Object call() throws Exception
+		{
+			if ( isStale( generation ) )
+			{
+				numDropped.incrementAndGet();
+				return null;
+			}
+
+			final Task previous = currentTask.get();
+			currentTask.set( this );
+			try
+			{
+				return request.call();
+			}
+			catch ( final Exception e )
+			{
+				if ( !isCancellation( e ) )
+					throw e;
+				numAborted.incrementAndGet();
+				return null;
+			}
+			finally
+			{
+				currentTask.set( previous );
+			}
+		}
+	}
+}
@@ -0,0 +1,222 @@
+package net.imglib2.cache.lowlevel.examplecompressed;
+
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Codecs for the payload of a cell block written by
+ * {@link CompressedDiskCellCache}. The {@link #id()} is stored in the block
+ * header, so a cache can read blocks written with any codec.
+ */
+public enum CellCodec
+{
+	/**
+	 * Uncompressed.
+	 */
+	RAW( 0 )
+	{
+		@Override
+		public int maxEncodedLength( final int length )
+		{
+			return length;
+		}
+
+		@Override
+		public int encode( final byte[] src, final int length, final byte[] dst, final int dstOffset )
+		{
+			System.arraycopy( src, 0, dst, dstOffset, length );
+			return length;
+		}
+
+		@Override
+		public void decode( final byte[] src, final int srcOffset, final int srcLength, final byte[] dst, final int length )
+		{
+			if ( srcLength != length )
+				throw new IllegalArgumentException( "raw block has " + srcLength + " bytes, expected " + length );
+			System.arraycopy( src, srcOffset, dst, 0, length );
+		}
+	},
+
+	/**
+	 * {@link Deflater} with {@link Deflater#BEST_SPEED}.
+	 */
+	DEFLATE( 1 )
+	{
+		@Override
+		public int maxEncodedLength( final int length )
+		{
+			return length + ( length >> 8 ) + 64;
+		}
+
+		@Override
+		public int encode( final byte[] src, final int length, final byte[] dst, final int dstOffset )
+		{
+			final Deflater deflater = deflaters.get();
+			try
+			{
+				deflater.setInput( src, 0, length );
+				deflater.finish();
+				int size = 0;
+				while ( !deflater.finished() )
+					size += deflater.deflate( dst, dstOffset + size, dst.length - dstOffset - size );
+				return size;
+			}
+			finally
+			{
+				deflater.reset();
+			}
+		}
+
+		@Override
+		public void decode( final byte[] src, final int srcOffset, final int srcLength, final byte[] dst, final int length )
+		{
+			final Inflater inflater = inflaters.get();
+			try
+			{
+				inflater.setInput( src, srcOffset, srcLength );
+				int size = 0;
+				while ( size < length && !inflater.finished() )
+				{
+					final int n = inflater.inflate( dst, size, length - size );
+					if ( n == 0 && ( inflater.needsInput() || inflater.needsDictionary() ) )
+						break;
+					size += n;
+				}
+				if ( size != length )
+					throw new IllegalArgumentException( "deflate block decompressed to " + size + " bytes, expected " + length );
+			}
+			catch ( final DataFormatException e )
+			{
+				throw new IllegalArgumentException( "malformed deflate block", e );
+			}
+			finally
+			{
+				inflater.reset();
+			}
+		}
+	},
+
+	/**
+	 * The pure-Java {@link LZ4Block} codec. Much faster than {@link #DEFLATE}
+	 * at a somewhat lower compression ratio.
+	 */
+	LZ4( 2 )
+	{
+		@Override
+		public int maxEncodedLength( final int length )
+		{
+			return LZ4Block.maxCompressedLength( length );
+		}
+
+		@Override
+		public int encode( final byte[] src, final int length, final byte[] dst, final int dstOffset )
+		{
+			return LZ4Block.compress( src, length, dst, dstOffset );
+		}
+
+		@Override
+		public void decode( final byte[] src, final int srcOffset, final int srcLength, final byte[] dst, final int length )
+		{
+			LZ4Block.decompress( src, srcOffset, srcLength, dst, length );
+		}
+	},
+
+	/**
+	 * A cell in which every element has the same value. Only the first
+	 * {@value #CONSTANT_PERIOD} bytes are stored, which covers one element of
+	 * any primitive type. Can only encode data for which
+	 * {@link #isConstant(byte[], int)} is {@code true}.
+	 */
+	CONSTANT( 3 )
+	{
+		@Override
+		public int maxEncodedLength( final int length )
+		{
+			return Math.min( length, CONSTANT_PERIOD );
+		}
+
+		@Override
+		public int encode( final byte[] src, final int length, final byte[] dst, final int dstOffset )
+		{
+			if ( !isConstant( src, length ) )
+				throw new IllegalArgumentException( "data is not constant" );
+			final int size = maxEncodedLength( length );
+			System.arraycopy( src, 0, dst, dstOffset, size );
+			return size;
+		}
+
+		@Override
+		public void decode( final byte[] src, final int srcOffset, final int srcLength, final byte[] dst, final int length )
+		{
+			if ( srcLength != maxEncodedLength( length ) )
+				throw new IllegalArgumentException( "malformed constant block" );
+			System.arraycopy( src, srcOffset, dst, 0, srcLength );
+			for ( int filled = srcLength; filled < length; filled *= 2 )
+				System.arraycopy( dst, 0, dst, filled, Math.min( filled, length - filled ) );
+		}
+	};
+
+	private static final int CONSTANT_PERIOD = 8;
+
+	/**
+	 * Whether {@code src[0, length)} repeats with a period of
+	 * {@value #CONSTANT_PERIOD} bytes, i.e., whether all elements of a
+	 * primitive array serialized to {@code src} are equal.
+	 */
+	public static boolean isConstant( final byte[] src, final int length )
+	{
+		for ( int i = CONSTANT_PERIOD; i < length; ++i )
+			if ( src[ i ] != src[ i % CONSTANT_PERIOD ] )
+				return false;
+		return true;
+	}
+
+	private static final ThreadLocal< Deflater > deflaters = ThreadLocal.withInitial( () -> new Deflater( Deflater.BEST_SPEED ) );
+
+	private static final ThreadLocal< Inflater > inflaters = ThreadLocal.withInitial( Inflater::new );
+
+	private final int id;
+
+	CellCodec( final int id )
+	{
+		this.id = id;
+	}
+
+	/**
+	 * The id stored in the block header.
+	 */
+	public int id()
+	{
+		return id;
+	}
+
+	/**
+	 * Upper bound for the encoded size of {@code length} bytes.
+	 */
+	public abstract int maxEncodedLength( int length );
+
+	/**
+	 * Encode {@code src[0, length)} into {@code dst} starting at
+	 * {@code dstOffset}. {@code dst} must have room for at least
+	 * {@link #maxEncodedLength(int) maxEncodedLength(length)} bytes after
+	 * {@code dstOffset}.
+	 *
+	 * @return the number of bytes written
+	 */
+	public abstract int encode( byte[] src, int length, byte[] dst, int dstOffset );
+
+	/**
+	 * Decode {@code src[srcOffset, srcOffset + srcLength)} into
+	 * {@code dst[0, length)}.
+	 */
+	public abstract void decode( byte[] src, int srcOffset, int srcLength, byte[] dst, int length );
+
+	public static CellCodec forId( final int id )
+	{
+		for ( final CellCodec codec : values() )
+			if ( codec.id == id )
+				return codec;
+		throw new IllegalArgumentException( "unknown codec id " + id );
+	}
+}
@@ -0,0 +1,307 @@
+package net.imglib2.cache.lowlevel.examplecompressed;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Predicate;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.CacheRemover;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.Intervals;
+
+/**
+ * Like {@code DiskCellCache}, but cells are compressed with a
+ * {@link CellCodec} before they are written to disk.
+ * <p>
+ * Each cell is stored in its own file as one block: a {@value #HEADER_SIZE}
+ * byte header (magic, version, codec id, raw and encoded length) followed by
+ * the encoded bytes that {@link AccessIo#save} produced. The codec used for
+ * writing is chosen per cache; reading always uses the codec recorded in the
+ * header. If a codec does not reduce the size of a cell, the cell is stored
+ * {@link CellCodec#RAW raw}, and uniform cells are always stored as a single
+ * {@link CellCodec#CONSTANT constant} value. Blocks are written to a temporary file first and
+ * then moved into place, so a block file is never partially written.
+ *
+ * @param <A>
+ *            access type
+ */
+public class CompressedDiskCellCache< A > implements CacheRemover< Long, Cell< A >, A >, CacheLoader< Long, Cell< A > >
+{
+	public static final int HEADER_SIZE = 16;
+
+	private static final int MAGIC = 0x43454c4c;
+
+	private static final int VERSION = 1;
+
+	private final Path blockcache;
+
+	private final CellGrid grid;
+
+	private final int n;
+
+	private final Fraction entitiesPerPixel;
+
+	private final AccessIo< A > accessIo;
+
+	private final CacheLoader< Long, ? extends Cell< ? extends A > > backingLoader;
+
+	private final CellCodec codec;
+
+	private final LongAdder rawBytesWritten = new LongAdder();
+
+	private final LongAdder encodedBytesWritten = new LongAdder();
+
+	/**
+	 * Per-thread scratch arrays for raw (index 0) and encoded (index 1) data.
+	 */
+	private static final ThreadLocal< byte[][] > buffers = ThreadLocal.withInitial( () -> new byte[ 2 ][ 0 ] );
+
+	public CompressedDiskCellCache(
+			final Path blockcache,
+			final CellGrid grid,
+			final CacheLoader< Long, ? extends Cell< ? extends A > > backingLoader,
+			final AccessIo< A > accessIo,
+			final Fraction entitiesPerPixel,
+			final CellCodec codec )
+	{
+		this.blockcache = blockcache;
+		this.grid = grid;
+		this.n = grid.numDimensions();
+		this.entitiesPerPixel = entitiesPerPixel;
+		this.accessIo = accessIo;
+		this.backingLoader = backingLoader;
+		this.codec = codec;
+	}
+
+	public CellCodec getCodec()
+	{
+		return codec;
+	}
+
+	/**
+	 * Total number of uncompressed bytes written so far.
+	 */
+	public long getRawBytesWritten()
+	{
+		return rawBytesWritten.sum();
+	}
+
+	/**
+	 * Total number of bytes written to disk so far (including headers).
+	 */
+	public long getEncodedBytesWritten()
+	{
+		return encodedBytesWritten.sum();
+	}
+
+	protected Path blockname( final long index )
+	{
+		return blockcache.resolve( Long.toString( index ) );
+	}
+
+	@Override
+	public Cell< A > get( final Long key ) throws Exception
+	{
+		final long index = key;
+		final Path path = blockname( index );
+
+		if ( Files.exists( path ) )
+		{
+			final long[] cellMin = new long[ n ];
+			final int[] cellDims = new int[ n ];
+			grid.getCellDimensions( index, cellMin, cellDims );
+			final int numEntities = ( int ) entitiesPerPixel.mulCeil( Intervals.numElements( cellDims ) );
+			final int rawLength = numEntities * accessIo.getBytesPerElement();
+			final byte[] raw = buffer( 0, rawLength );
+			decodeBlock( Files.readAllBytes( path ), raw, rawLength );
+			final A access = accessIo.load( ByteBuffer.wrap( raw, 0, rawLength ), numEntities );
+			return new Cell<>( cellDims, cellMin, access );
+		}
+		else
+		{
+			@SuppressWarnings( "unchecked" )
+			final Cell< A > cell = ( Cell< A > ) backingLoader.get( key );
+			return cell;
+		}
+	}
+
+	@Override
+	public A extract( final Cell< A > value )
+	{
+		return value.getData();
+	}
+
+	@Override
+	public Cell< A > reconstruct( final Long key, final A valueData )
+	{
+		final long index = key;
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		grid.getCellDimensions( index, cellMin, cellDims );
+		return new Cell<>( cellDims, cellMin, valueData );
+	}
+
+	@Override
+	public void onRemoval( final Long key, final A valueData )
+	{
+		final long index = key;
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		grid.getCellDimensions( index, cellMin, cellDims );
+		final int numEntities = ( int ) entitiesPerPixel.mulCeil( Intervals.numElements( cellDims ) );
+		final int rawLength = numEntities * accessIo.getBytesPerElement();
+		final byte[] raw = buffer( 0, rawLength );
+		accessIo.save( valueData, ByteBuffer.wrap( raw, 0, rawLength ), numEntities );
+
+		final byte[] block = buffer( 1, HEADER_SIZE + Math.max( rawLength, codec.maxEncodedLength( rawLength ) ) );
+		final int blockLength = encodeBlock( codec, raw, rawLength, block );
+		final Path path = blockname( index );
+		final Path tmp = path.resolveSibling( path.getFileName() + ".tmp" );
+		try
+		{
+			try ( final OutputStream out = Files.newOutputStream( tmp ) )
+			{
+				out.write( block, 0, blockLength );
+			}
+			Files.move( tmp, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+		rawBytesWritten.add( rawLength );
+		encodedBytesWritten.add( blockLength );
+	}
+
+	@Override
+	public CompletableFuture< Void > persist( final Long key, final A valueData )
+	{
+		onRemoval( key, valueData );
+		return CompletableFuture.completedFuture( null );
+	}
+
+	@Override
+	public void invalidate( final Long key )
+	{
+		try
+		{
+			Files.deleteIfExists( blockname( key ) );
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	@Override
+	public void invalidateIf( final long parallelismThreshold, final Predicate< Long > condition )
+	{
+		try ( final DirectoryStream< Path > files = Files.newDirectoryStream( blockcache ) )
+		{
+			for ( final Path file : files )
+			{
+				final Long index = parseIndex( file );
+				if ( index != null && condition.test( index ) )
+					Files.deleteIfExists( file );
+			}
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+
+	@Override
+	public void invalidateAll( final long parallelismThreshold )
+	{
+		invalidateIf( parallelismThreshold, index -> true );
+	}
+
+	/**
+	 * Encode {@code raw[0, rawLength)} with {@code codec} into {@code block},
+	 * including header. Uniform data is always encoded as
+	 * {@link CellCodec#CONSTANT}, and data that {@code codec} cannot shrink as
+	 * {@link CellCodec#RAW}.
+	 *
+	 * @return the total block length
+	 */
+	static int encodeBlock( final CellCodec codec, final byte[] raw, final int rawLength, final byte[] block )
+	{
+		CellCodec used = CellCodec.isConstant( raw, rawLength ) ? CellCodec.CONSTANT : codec;
+		int encodedLength = used.encode( raw, rawLength, block, HEADER_SIZE );
+		if ( encodedLength >= rawLength && used != CellCodec.RAW )
+		{
+			used = CellCodec.RAW;
+			encodedLength = used.encode( raw, rawLength, block, HEADER_SIZE );
+		}
+		ByteBuffer.wrap( block )
+				.putInt( MAGIC )
+				.put( ( byte ) VERSION )
+				.put( ( byte ) used.id() )
+				.putShort( ( short ) 0 )
+				.putInt( rawLength )
+				.putInt( encodedLength );
+		return HEADER_SIZE + encodedLength;
+	}
+
+	/**
+	 * Decode a block (including header) into {@code raw[0, rawLength)}.
+	 *
+	 * @throws CorruptCellBlockException
+	 *             if the header is invalid or does not match
+	 *             {@code rawLength}, or the encoded data is malformed
+	 */
+	static void decodeBlock( final byte[] block, final byte[] raw, final int rawLength ) throws CorruptCellBlockException
+	{
+		final ByteBuffer header = ByteBuffer.wrap( block );
+		if ( block.length < HEADER_SIZE || header.getInt() != MAGIC )
+			throw new CorruptCellBlockException( "not a cell block" );
+		final int version = header.get();
+		if ( version != VERSION )
+			throw new CorruptCellBlockException( "unsupported cell block version " + version );
+		try
+		{
+			final CellCodec codec = CellCodec.forId( header.get() );
+			header.getShort();
+			final int storedRawLength = header.getInt();
+			final int encodedLength = header.getInt();
+			if ( storedRawLength != rawLength || HEADER_SIZE + encodedLength > block.length )
+				throw new CorruptCellBlockException( "cell block size mismatch" );
+			codec.decode( block, HEADER_SIZE, encodedLength, raw, rawLength );
+		}
+		catch ( final IllegalArgumentException e )
+		{
+			throw new CorruptCellBlockException( e.getMessage(), e );
+		}
+	}
+
+	private static byte[] buffer( final int i, final int minSize )
+	{
+		final byte[][] b = buffers.get();
+		if ( b[ i ].length < minSize )
+			b[ i ] = new byte[ minSize ];
+		return b[ i ];
+	}
+
+	private static Long parseIndex( final Path file )
+	{
+		try
+		{
+			return Long.parseLong( file.getFileName().toString() );
+		}
+		catch ( final NumberFormatException e )
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,23 @@
+package net.imglib2.cache.lowlevel.examplecompressed;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a cell block read by a {@link CompressedDiskCellCache} cannot
+ * be decoded: it is truncated, was written by an incompatible version, or
+ * does not match the cell size.
+ */
+public class CorruptCellBlockException extends IOException
+{
+	private static final long serialVersionUID = 1L;
+
+	public CorruptCellBlockException( final String message )
+	{
+		super( message );
+	}
+
+	public CorruptCellBlockException( final String message, final Throwable cause )
+	{
+		super( message, cause );
+	}
+}
@@ -0,0 +1,46 @@
+package net.imglib2.cache.lowlevel.examplecompressed;
+
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import net.imglib2.Dirty;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Fraction;
+
+/**
+ * A {@link CompressedDiskCellCache} that only writes back cells that are
+ * {@link Dirty#isDirty() dirty}, like {@code DirtyDiskCellCache}.
+ *
+ * @param <A>
+ *            access type
+ */
+public class DirtyCompressedDiskCellCache< A extends Dirty > extends CompressedDiskCellCache< A >
+{
+	public DirtyCompressedDiskCellCache(
+			final Path blockcache,
+			final CellGrid grid,
+			final CacheLoader< Long, ? extends Cell< ? extends A > > backingLoader,
+			final AccessIo< A > accessIo,
+			final Fraction entitiesPerPixel,
+			final CellCodec codec )
+	{
+		super( blockcache, grid, backingLoader, accessIo, entitiesPerPixel, codec );
+	}
+
+	@Override
+	public void onRemoval( final Long key, final A valueData )
+	{
+		if ( valueData.isDirty() )
+			super.onRemoval( key, valueData );
+	}
+
+	@Override
+	public CompletableFuture< Void > persist( final Long key, final A valueData )
+	{
+		if ( valueData.isDirty() )
+			return super.persist( key, valueData );
+		return CompletableFuture.completedFuture( null );
+	}
+}
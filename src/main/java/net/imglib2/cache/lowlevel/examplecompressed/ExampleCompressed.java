@@ -0,0 +1,136 @@
+package net.imglib2.cache.lowlevel.examplecompressed;
+
+import bdv.img.cache.CreateInvalidVolatileCell;
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.lowlevel.example06.Example06.CheckerboardLoader;
+import net.imglib2.cache.lowlevel.example06.Example06.DiffLoader;
+import net.imglib2.cache.lowlevel.example06.Example06.GaussLoader;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.cache.ref.WeakRefVolatileCache;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.CreateInvalid;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.cache.volatiles.VolatileCache;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.img.basictypeaccess.AccessFlags.VOLATILE;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * Same pipeline as {@code lowlevel.example06}, but all stages spill
+ * compressed cells. The checkerboard and Gauss stages use the fast
+ * {@link CellCodec#LZ4 LZ4} codec, the difference stage uses
+ * {@link CellCodec#DEFLATE DEFLATE}.
+ */
+public class ExampleCompressed
+{
+	static < T extends NativeType< T >, V extends NativeType< V > > Pair< Img< T >, Img< V > >
+		createCached( final String name, final CacheLoader< Long, Cell< VolatileShortArray > > loader, final T type, final V vtype, final CellGrid grid, final CellCodec codec, final BlockingFetchQueues< Callable< ? > > queue )
+				throws IOException
+	{
+		final Path blockcache = DiskCellCache.createTempDirectory( name + "-", true );
+		final CompressedDiskCellCache< VolatileShortArray > diskcache = new CompressedDiskCellCache<>(
+				blockcache,
+				grid,
+				loader,
+				AccessIo.get( SHORT, AccessFlags.setOf( VOLATILE ) ),
+				type.getEntitiesPerPixel(),
+				codec );
+		final IoSync< Long, Cell< VolatileShortArray >, VolatileShortArray > iosync = new IoSync<>( diskcache );
+		final Cache< Long, Cell< VolatileShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< VolatileShortArray >, VolatileShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync );
+		final Img< T > img = new LazyCellImg<>( grid, type, cache.unchecked()::get );
+
+		final CreateInvalid< Long, Cell< VolatileShortArray > > createInvalid = CreateInvalidVolatileCell.get( grid, type, false );
+		final VolatileCache< Long, Cell< VolatileShortArray > > volatileCache = new WeakRefVolatileCache<>( cache, queue, createInvalid );
+
+		final CacheHints hints = new CacheHints( LoadingStrategy.VOLATILE, 0, false );
+		final VolatileCachedCellImg< V, ? > vimg = new VolatileCachedCellImg<>( grid, vtype, hints, volatileCache.unchecked()::get );
+
+		return new ValuePair<>( img, vimg );
+	}
+
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+
+		final UnsignedShortType type = new UnsignedShortType();
+		final VolatileUnsignedShortType vtype = new VolatileUnsignedShortType();
+
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Path blockcache = DiskCellCache.createTempDirectory( "CellImg-", true );
+		final CompressedDiskCellCache< DirtyShortArray > diskcache = new DirtyCompressedDiskCellCache<>(
+				blockcache,
+				grid,
+				new CheckerboardLoader( grid ),
+				AccessIo.get( SHORT, AccessFlags.setOf( DIRTY ) ),
+				type.getEntitiesPerPixel(),
+				CellCodec.LZ4 );
+		final IoSync< Long, Cell< DirtyShortArray >, DirtyShortArray > iosync = new IoSync<>( diskcache );
+		final UncheckedCache< Long, Cell< DirtyShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirtyShortArray >, DirtyShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync )
+				.unchecked();
+		final Img< UnsignedShortType > img = new LazyCellImg<>( grid, new UnsignedShortType(), cache::get );
+
+		final Bdv bdv = BdvFunctions.show( img, "Cached" );
+		bdv.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+
+		final int maxNumLevels = 1;
+		final int numFetcherThreads = 7;
+		final BlockingFetchQueues< Callable< ? > > queue = new BlockingFetchQueues<>( maxNumLevels, numFetcherThreads );
+		new FetcherThreads( queue, numFetcherThreads );
+
+		final Pair< Img< UnsignedShortType >, Img< VolatileUnsignedShortType > > gauss1 = createCached(
+				"Gauss5", new GaussLoader( grid, Views.extendBorder( img ), 5 ), type, vtype, grid, CellCodec.LZ4, queue );
+		final Pair< Img< UnsignedShortType >, Img< VolatileUnsignedShortType > > gauss2 = createCached(
+				"Gauss4", new GaussLoader( grid, Views.extendBorder( img ), 4 ), type, vtype, grid, CellCodec.LZ4, queue );
+
+		BdvFunctions.show( gauss1.getB(), "Gauss 1", BdvOptions.options().addTo( bdv ) );
+		BdvFunctions.show( gauss2.getB(), "Gauss 2", BdvOptions.options().addTo( bdv ) );
+
+		final Pair< Img< ShortType >, Img< VolatileShortType > > diff = createCached(
+				"Difference",
+				new DiffLoader( grid, Views.extendBorder( gauss1.getA() ), Views.extendBorder( gauss2.getA() ) ),
+				new ShortType(),
+				new VolatileShortType(),
+				grid,
+				CellCodec.DEFLATE,
+				queue );
+		BdvFunctions.show( diff.getB(), "Diff", BdvOptions.options().addTo( bdv ) );
+	}
+}
@@ -0,0 +1,207 @@
+package net.imglib2.cache.lowlevel.examplecompressed;
+
+import java.util.Arrays;
+
+/**
+ * A small pure-Java compressor/decompressor for the LZ4 block format.
+ * <p>
+ * Compression is greedy with a single hash table of 4-byte sequences and no
+ * backward match extension. That gives a little less compression than the
+ * reference implementation, but it is fast and produces valid LZ4 blocks.
+ * Runs of identical values (as in uniform cells) collapse to a handful of
+ * bytes.
+ */
+public final class LZ4Block
+{
+	private static final int MIN_MATCH = 4;
+
+	private static final int MF_LIMIT = 12;
+
+	private static final int LAST_LITERALS = 5;
+
+	private static final int MAX_OFFSET = 65535;
+
+	private static final int HASH_LOG = 14;
+
+	private static final ThreadLocal< int[] > hashTable = ThreadLocal.withInitial( () -> new int[ 1 << HASH_LOG ] );
+
+	private LZ4Block()
+	{}
+
+	/**
+	 * Upper bound for the compressed size of {@code length} bytes.
+	 */
+	public static int maxCompressedLength( final int length )
+	{
+		return length + length / 255 + 16;
+	}
+
+	/**
+	 * Compress {@code src[0, length)} into {@code dst} starting at
+	 * {@code dstOffset}.
+	 *
+	 * @return the number of bytes written to {@code dst}
+	 */
+	public static int compress( final byte[] src, final int length, final byte[] dst, final int dstOffset )
+	{
+		final int[] table = hashTable.get();
+		Arrays.fill( table, -1 );
+
+		final int mfLimit = length - MF_LIMIT;
+		final int matchLimit = length - LAST_LITERALS;
+
+		int ip = 0;
+		int anchor = 0;
+		int op = dstOffset;
+		while ( ip < mfLimit )
+		{
+			final int sequence = readInt( src, ip );
+			final int h = hash( sequence );
+			final int ref = table[ h ];
+			table[ h ] = ip;
+			if ( ref >= 0 && ip - ref <= MAX_OFFSET && readInt( src, ref ) == sequence )
+			{
+				int matchLength = MIN_MATCH;
+				while ( ip + matchLength < matchLimit && src[ ref + matchLength ] == src[ ip + matchLength ] )
+					++matchLength;
+				op = writeSequence( src, anchor, ip - anchor, ip - ref, matchLength, dst, op );
+				ip += matchLength;
+				anchor = ip;
+			}
+			else
+				++ip;
+		}
+		op = writeLastLiterals( src, anchor, length - anchor, dst, op );
+		return op - dstOffset;
+	}
+
+	/**
+	 * Decompress the LZ4 block {@code src[srcOffset, srcOffset + srcLength)}
+	 * into {@code dst[0, length)}.
+	 *
+	 * @throws IllegalArgumentException
+	 *             if the block is malformed or does not decompress to exactly
+	 *             {@code length} bytes
+	 */
+	public static void decompress( final byte[] src, final int srcOffset, final int srcLength, final byte[] dst, final int length )
+	{
+		final int srcEnd = srcOffset + srcLength;
+		int ip = srcOffset;
+		int op = 0;
+		try
+		{
+			while ( true )
+			{
+				final int token = src[ ip++ ] & 0xff;
+
+				int literalLength = token >>> 4;
+				if ( literalLength == 15 )
+				{
+					int b;
+					do
+					{
+						b = src[ ip++ ] & 0xff;
+						literalLength += b;
+					}
+					while ( b == 255 );
+				}
+				System.arraycopy( src, ip, dst, op, literalLength );
+				ip += literalLength;
+				op += literalLength;
+				if ( ip >= srcEnd )
+					break;
+
+				final int offset = ( src[ ip++ ] & 0xff ) | ( ( src[ ip++ ] & 0xff ) << 8 );
+				int matchLength = token & 0x0f;
+				if ( matchLength == 15 )
+				{
+					int b;
+					do
+					{
+						b = src[ ip++ ] & 0xff;
+						matchLength += b;
+					}
+					while ( b == 255 );
+				}
+				matchLength += MIN_MATCH;
+
+				final int ref = op - offset;
+				if ( offset <= 0 || ref < 0 )
+					throw new IllegalArgumentException( "malformed LZ4 block" );
+				if ( offset >= matchLength )
+					System.arraycopy( dst, ref, dst, op, matchLength );
+				else
+					for ( int i = 0; i < matchLength; ++i )
+						dst[ op + i ] = dst[ ref + i ];
+				op += matchLength;
+			}
+		}
+		catch ( final ArrayIndexOutOfBoundsException e )
+		{
+			throw new IllegalArgumentException( "malformed LZ4 block", e );
+		}
+		if ( op != length )
+			throw new IllegalArgumentException( "LZ4 block decompressed to " + op + " bytes, expected " + length );
+	}
+
+	private static int writeSequence( final byte[] src, final int literalStart, final int literalLength, final int offset, final int matchLength, final byte[] dst, int op )
+	{
+		final int token = op++;
+		if ( literalLength >= 15 )
+		{
+			dst[ token ] = ( byte ) ( 15 << 4 );
+			op = writeLength( literalLength - 15, dst, op );
+		}
+		else
+			dst[ token ] = ( byte ) ( literalLength << 4 );
+		System.arraycopy( src, literalStart, dst, op, literalLength );
+		op += literalLength;
+
+		dst[ op++ ] = ( byte ) offset;
+		dst[ op++ ] = ( byte ) ( offset >>> 8 );
+
+		final int ml = matchLength - MIN_MATCH;
+		if ( ml >= 15 )
+		{
+			dst[ token ] |= 15;
+			op = writeLength( ml - 15, dst, op );
+		}
+		else
+			dst[ token ] |= ml;
+		return op;
+	}
+
+	private static int writeLastLiterals( final byte[] src, final int literalStart, final int literalLength, final byte[] dst, int op )
+	{
+		if ( literalLength >= 15 )
+		{
+			dst[ op++ ] = ( byte ) ( 15 << 4 );
+			op = writeLength( literalLength - 15, dst, op );
+		}
+		else
+			dst[ op++ ] = ( byte ) ( literalLength << 4 );
+		System.arraycopy( src, literalStart, dst, op, literalLength );
+		return op + literalLength;
+	}
+
+	private static int writeLength( int length, final byte[] dst, int op )
+	{
+		while ( length >= 255 )
+		{
+			dst[ op++ ] = ( byte ) 255;
+			length -= 255;
+		}
+		dst[ op++ ] = ( byte ) length;
+		return op;
+	}
+
+	private static int readInt( final byte[] src, final int i )
+	{
+		return ( src[ i ] & 0xff ) | ( ( src[ i + 1 ] & 0xff ) << 8 ) | ( ( src[ i + 2 ] & 0xff ) << 16 ) | ( ( src[ i + 3 ] & 0xff ) << 24 );
+	}
+
+	private static int hash( final int sequence )
+	{
+		return ( sequence * -1640531535 ) >>> ( 32 - HASH_LOG );
+	}
+}
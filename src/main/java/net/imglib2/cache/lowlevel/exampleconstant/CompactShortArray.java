@@ -0,0 +1,152 @@
+package net.imglib2.cache.lowlevel.exampleconstant;
+
+import java.util.Arrays;
+import net.imglib2.Dirty;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileShortAccess;
+
+/**
+ * A short access that represents a uniform cell by a single fill value and
+ * only allocates a {@code short[]} when a different value is written into it.
+ * <p>
+ * Like {@code DirtyShortArray}, every write marks the access dirty.
+ */
+public class CompactShortArray implements VolatileShortAccess, Dirty
+{
+	private final int length;
+
+	private final short fill;
+
+	private volatile short[] data;
+
+	private final boolean isValid;
+
+	private boolean dirty = false;
+
+	/**
+	 * Create a uniform access of the given {@code length}.
+	 */
+	public CompactShortArray( final int length, final short fill, final boolean isValid )
+	{
+		this.length = length;
+		this.fill = fill;
+		this.data = null;
+		this.isValid = isValid;
+	}
+
+	/**
+	 * Create an access backed by {@code data}.
+	 */
+	public CompactShortArray( final short[] data, final boolean isValid )
+	{
+		this.length = data.length;
+		this.fill = 0;
+		this.data = data;
+		this.isValid = isValid;
+	}
+
+	/**
+	 * Create an access for {@code data}, which is dropped in favour of a fill
+	 * value if all its elements are equal.
+	 */
+	public static CompactShortArray compact( final short[] data, final boolean isValid )
+	{
+		return isUniform( data )
+				? new CompactShortArray( data.length, data.length == 0 ? 0 : data[ 0 ], isValid )
+				: new CompactShortArray( data, isValid );
+	}
+
+	@Override
+	public short getValue( final int index )
+	{
+		final short[] d = data;
+		return d == null ? fill : d[ index ];
+	}
+
+	@Override
+	public void setValue( final int index, final short value )
+	{
+		dirty = true;
+		short[] d = data;
+		if ( d == null )
+		{
+			if ( value == fill )
+				return;
+			d = expand();
+		}
+		d[ index ] = value;
+	}
+
+	/**
+	 * Whether this access is (still) represented by a single fill value.
+	 */
+	public boolean isCompact()
+	{
+		return data == null;
+	}
+
+	/**
+	 * The fill value. Only meaningful if {@link #isCompact()}.
+	 */
+	public short getFillValue()
+	{
+		return fill;
+	}
+
+	/**
+	 * Get the backing {@code short[]}, expanding a compact access if
+	 * necessary.
+	 */
+	public short[] getCurrentStorageArray()
+	{
+		final short[] d = data;
+		return d == null ? expand() : d;
+	}
+
+	public int getArrayLength()
+	{
+		return length;
+	}
+
+	@Override
+	public boolean isValid()
+	{
+		return isValid;
+	}
+
+	@Override
+	public boolean isDirty()
+	{
+		return dirty;
+	}
+
+	@Override
+	public void setDirty()
+	{
+		dirty = true;
+	}
+
+	@Override
+	public void setDirty( final boolean dirty )
+	{
+		this.dirty = dirty;
+	}
+
+	private synchronized short[] expand()
+	{
+		if ( data == null )
+		{
+			final short[] d = new short[ length ];
+			Arrays.fill( d, fill );
+			data = d;
+		}
+		return data;
+	}
+
+	static boolean isUniform( final short[] data )
+	{
+		for ( int i = 1; i < data.length; ++i )
+			if ( data[ i ] != data[ 0 ] )
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,58 @@
+package net.imglib2.cache.lowlevel.exampleconstant;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import net.imglib2.cache.img.AccessIo;
+
+/**
+ * {@link AccessIo} for {@link CompactShortArray}. Loading a uniform cell
+ * yields a compact access without allocating a {@code short[]}.
+ */
+public class CompactShortArrayIo implements AccessIo< CompactShortArray >
+{
+	private final boolean isValid;
+
+	public CompactShortArrayIo( final boolean isValid )
+	{
+		this.isValid = isValid;
+	}
+
+	@Override
+	public CompactShortArray load( final ByteBuffer bytes, final int numElements )
+	{
+		final ShortBuffer shorts = bytes.asShortBuffer();
+		if ( isUniform( shorts, numElements ) )
+			return new CompactShortArray( numElements, numElements == 0 ? 0 : shorts.get( 0 ), isValid );
+		final short[] data = new short[ numElements ];
+		shorts.get( data );
+		return new CompactShortArray( data, isValid );
+	}
+
+	@Override
+	public void save( final CompactShortArray access, final ByteBuffer out, final int numElements )
+	{
+		final ShortBuffer shorts = out.asShortBuffer();
+		if ( access.isCompact() )
+		{
+			final short fill = access.getFillValue();
+			for ( int i = 0; i < numElements; ++i )
+				shorts.put( fill );
+		}
+		else
+			shorts.put( access.getCurrentStorageArray(), 0, numElements );
+	}
+
+	@Override
+	public int getBytesPerElement()
+	{
+		return 2;
+	}
+
+	private static boolean isUniform( final ShortBuffer shorts, final int numElements )
+	{
+		for ( int i = 1; i < numElements; ++i )
+			if ( shorts.get( i ) != shorts.get( 0 ) )
+				return false;
+		return true;
+	}
+}
@@ -0,0 +1,54 @@
+package net.imglib2.cache.lowlevel.exampleconstant;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.img.basictypeaccess.ShortAccess;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.util.Intervals;
+
+/**
+ * Wraps a loader of short cells (e.g., the {@code ShortArray} cells of a
+ * {@code LoadedCellCacheLoader}) and turns uniform cells into compact
+ * {@link CompactShortArray}s, so that they occupy a few bytes instead of a
+ * full array while they are in the cache, and are written as constant blocks.
+ * <p>
+ * The {@code short[]} of array accesses is reused for non-uniform cells, other
+ * accesses are copied.
+ */
+public class CompactingCacheLoader implements CacheLoader< Long, Cell< CompactShortArray > >
+{
+	private final CacheLoader< Long, ? extends Cell< ? extends ShortAccess > > loader;
+
+	public CompactingCacheLoader( final CacheLoader< Long, ? extends Cell< ? extends ShortAccess > > loader )
+	{
+		this.loader = loader;
+	}
+
+	@Override
+	public Cell< CompactShortArray > get( final Long key ) throws Exception
+	{
+		final Cell< ? extends ShortAccess > cell = loader.get( key );
+		final ShortAccess access = cell.getData();
+		final boolean isValid = !( access instanceof VolatileAccess ) || ( ( VolatileAccess ) access ).isValid();
+
+		final int n = cell.numDimensions();
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		cell.min( cellMin );
+		cell.dimensions( cellDims );
+		final int numElements = ( int ) Intervals.numElements( cellDims );
+
+		final Object storage = access instanceof ArrayDataAccess ? ( ( ArrayDataAccess< ? > ) access ).getCurrentStorageArray() : null;
+		final short[] data;
+		if ( storage instanceof short[] && ( ( short[] ) storage ).length == numElements )
+			data = ( short[] ) storage;
+		else
+		{
+			data = new short[ numElements ];
+			for ( int i = 0; i < numElements; ++i )
+				data[ i ] = access.getValue( i );
+		}
+		return new Cell<>( cellDims, cellMin, CompactShortArray.compact( data, isValid ) );
+	}
+}
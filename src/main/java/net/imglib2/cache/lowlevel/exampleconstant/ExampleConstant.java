@@ -0,0 +1,160 @@
+package net.imglib2.cache.lowlevel.exampleconstant;
+
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import bdv.viewer.ViewerPanel;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import net.imglib2.RandomAccess;
+import net.imglib2.RealPositionable;
+import net.imglib2.algorithm.neighborhood.HyperSphereShape;
+import net.imglib2.algorithm.neighborhood.Neighborhood;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.exampleclassifier.ExampleClassifyingCell.ClassifyingCellLoader;
+import net.imglib2.cache.exampleclassifier.ThresholdingClassifier;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.img.LoadedCellCacheLoader;
+import net.imglib2.cache.lowlevel.examplecompressed.CellCodec;
+import net.imglib2.cache.lowlevel.examplecompressed.CompressedDiskCellCache;
+import net.imglib2.cache.lowlevel.examplecompressed.DirtyCompressedDiskCellCache;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.position.transform.Round;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.view.Views;
+import org.scijava.ui.behaviour.DragBehaviour;
+import org.scijava.ui.behaviour.io.InputTriggerConfig;
+import org.scijava.ui.behaviour.util.Behaviours;
+
+/**
+ * A checkerboard whose cells are all uniform, so every cell is held as a
+ * single fill value, in memory and (as a {@link CellCodec#CONSTANT} block) on
+ * disk. Painting with "D" expands only the cells that are painted into.
+ * <p>
+ * The prediction of a classifier on the checkerboard is computed into full
+ * {@code short[]} cells, which a {@link CompactingCacheLoader} compacts
+ * wherever they turn out to be uniform.
+ */
+public class ExampleConstant
+{
+	public static class CheckerboardLoader implements CacheLoader< Long, Cell< CompactShortArray > >
+	{
+		private final CellGrid grid;
+
+		public CheckerboardLoader( final CellGrid grid )
+		{
+			this.grid = grid;
+		}
+
+		@Override
+		public Cell< CompactShortArray > get( final Long key ) throws Exception
+		{
+			final long index = key;
+
+			final int n = grid.numDimensions();
+			final long[] cellMin = new long[ n ];
+			final int[] cellDims = new int[ n ];
+			grid.getCellDimensions( index, cellMin, cellDims );
+			final int blocksize = ( int ) Intervals.numElements( cellDims );
+
+			final long[] cellGridPosition = new long[ n ];
+			grid.getCellGridPositionFlat( index, cellGridPosition );
+			long sum = 0;
+			for ( int d = 0; d < n; ++d )
+				sum += cellGridPosition[ d ];
+			final short color = ( short ) ( ( sum & 0x01 ) == 0 ? 0x0000 : 0xffff );
+
+			return new Cell<>( cellDims, cellMin, new CompactShortArray( blocksize, color, true ) );
+		}
+	}
+
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+
+		final UnsignedShortType type = new UnsignedShortType();
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Path blockcache = DiskCellCache.createTempDirectory( "CellImg-", true );
+		final CompressedDiskCellCache< CompactShortArray > diskcache = new DirtyCompressedDiskCellCache<>(
+				blockcache,
+				grid,
+				new CheckerboardLoader( grid ),
+				new CompactShortArrayIo( true ),
+				type.getEntitiesPerPixel(),
+				CellCodec.LZ4 );
+		final IoSync< Long, Cell< CompactShortArray >, CompactShortArray > iosync = new IoSync<>( diskcache );
+		final UncheckedCache< Long, Cell< CompactShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< CompactShortArray >, CompactShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync )
+				.unchecked();
+		final Img< UnsignedShortType > img = new LazyCellImg<>( grid, type, cache::get );
+
+		final Bdv bdv = BdvFunctions.show( img, "Compact" );
+
+		final CacheLoader< Long, Cell< ShortArray > > classifyingLoader = LoadedCellCacheLoader.get(
+				grid, new ClassifyingCellLoader<>( Arrays.asList( img ), new ThresholdingClassifier( 0.5 ), 2 ), type, AccessFlags.setOf() );
+		final CompressedDiskCellCache< CompactShortArray > predictionDiskcache = new CompressedDiskCellCache<>(
+				DiskCellCache.createTempDirectory( "Prediction-", true ),
+				grid,
+				new CompactingCacheLoader( classifyingLoader ),
+				new CompactShortArrayIo( true ),
+				type.getEntitiesPerPixel(),
+				CellCodec.LZ4 );
+		final IoSync< Long, Cell< CompactShortArray >, CompactShortArray > predictionIosync = new IoSync<>( predictionDiskcache );
+		final UncheckedCache< Long, Cell< CompactShortArray > > predictionCache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< CompactShortArray >, CompactShortArray >( 1000 )
+				.withRemover( predictionIosync )
+				.withLoader( predictionIosync )
+				.unchecked();
+		final Img< UnsignedShortType > prediction = new LazyCellImg<>( grid, type, predictionCache::get );
+		BdvFunctions.show( prediction, "Prediction", BdvOptions.options().addTo( bdv ) ).setDisplayRange( 0, 1 );
+
+		/*
+		 * Install behaviour for painting into img with shortcut "D"
+		 */
+
+		final Behaviours behaviours = new Behaviours( new InputTriggerConfig() );
+		behaviours.install( bdv.getBdvHandle().getTriggerbindings(), "paint" );
+		behaviours.behaviour( new DragBehaviour()
+		{
+			final ViewerPanel viewer = bdv.getBdvHandle().getViewerPanel();
+			final RandomAccess< Neighborhood< UnsignedShortType > > sphere = new HyperSphereShape( 10 ).neighborhoodsRandomAccessible( Views.extendZero( img ) ).randomAccess();
+			final RealPositionable roundpos = new Round<>( sphere );
+
+			void draw( final int x, final int y )
+			{
+				viewer.displayToGlobalCoordinates( x, y, roundpos );
+				sphere.get().forEach( t -> t.set( 0x8000 ) );
+				viewer.requestRepaint();
+			}
+
+			@Override
+			public void init( final int x, final int y )
+			{
+				draw( x, y );
+			}
+
+			@Override
+			public void end( final int x, final int y )
+			{}
+
+			@Override
+			public void drag( final int x, final int y )
+			{
+				draw( x, y );
+			}
+		}, "paint", "D" );
+	}
+}
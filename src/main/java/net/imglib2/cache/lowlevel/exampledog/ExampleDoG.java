@@ -0,0 +1,96 @@
+package net.imglib2.cache.lowlevel.exampledog;
+
+import bdv.util.AxisOrder;
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DirtyDiskCellCache;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.lowlevel.example06.Example06.CheckerboardLoader;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGather;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * The difference of Gaussians of {@code lowlevel.example06}, but as one fused
+ * stage: both blurs are computed from one halo fetch per cell, and only the
+ * difference is stored. More scales give a DoG bank with one channel per pair
+ * of consecutive scales.
+ * <p>
+ * Run with argument {@code --gauss} to also show the individual Gaussians.
+ */
+public class ExampleDoG
+{
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+
+		final UnsignedShortType type = new UnsignedShortType();
+
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Path blockcache = DiskCellCache.createTempDirectory( "CellImg-", true );
+		final DiskCellCache< DirtyShortArray > diskcache = new DirtyDiskCellCache<>(
+				blockcache,
+				grid,
+				new CheckerboardLoader( grid ),
+				AccessIo.get( SHORT, AccessFlags.setOf( DIRTY ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< DirtyShortArray >, DirtyShortArray > iosync = new IoSync<>( diskcache );
+		final UncheckedCache< Long, Cell< DirtyShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirtyShortArray >, DirtyShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync )
+				.unchecked();
+		final LazyCellImg< UnsignedShortType, DirtyShortArray > img = new LazyCellImg<>( grid, new UnsignedShortType(), cache::get );
+
+		final Bdv bdv = BdvFunctions.show( img, "Cached" );
+		bdv.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+
+		final int maxNumLevels = 1;
+		final int numFetcherThreads = 7;
+		final BlockingFetchQueues< Callable< ? > > queue = new BlockingFetchQueues<>( maxNumLevels, numFetcherThreads );
+		new FetcherThreads( queue, numFetcherThreads );
+
+		final ExecutorService gatherExecutor = Executors.newFixedThreadPool( 4, r -> {
+			final Thread t = new Thread( r, "HaloGather" );
+			t.setDaemon( true );
+			return t;
+		} );
+		final HaloGather source = new HaloGather( img, gatherExecutor );
+
+		final FusedDoG dog = new FusedDoG( source, new double[] { 4, 5 }, true, queue );
+		BdvFunctions.show( dog.getDoG().getB(), "DoG", BdvOptions.options().axisOrder( AxisOrder.XYZC ).addTo( bdv ) );
+
+		/*
+		 * The Gaussians are only computed if something asks for them:
+		 */
+		if ( Arrays.asList( args ).contains( "--gauss" ) )
+		{
+			final double[] sigmas = dog.getSigmas();
+			for ( int i = 0; i < sigmas.length; ++i )
+				BdvFunctions.show( dog.getGauss( i ).getB(), "Gauss " + sigmas[ i ], BdvOptions.options().addTo( bdv ) );
+		}
+	}
+}
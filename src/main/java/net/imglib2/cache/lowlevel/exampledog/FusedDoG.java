@@ -0,0 +1,145 @@
+package net.imglib2.cache.lowlevel.exampledog;
+
+import bdv.img.cache.CreateInvalidVolatileCell;
+import bdv.img.cache.VolatileCachedCellImg;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import net.imglib2.Volatile;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGather;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGaussLoader;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.cache.ref.WeakRefVolatileCache;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.CreateInvalid;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.cache.volatiles.VolatileCache;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+
+import static net.imglib2.img.basictypeaccess.AccessFlags.VOLATILE;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * A multi-scale DoG stage on a cached source. The DoG bank is one cached
+ * image computed by {@link FusedDoGLoader}. The Gaussians of the individual
+ * scales are separate cached images that are only set up (and computed) when
+ * {@link #getGauss(int)} is called, e.g., to display them.
+ */
+public class FusedDoG
+{
+	private final HaloGather source;
+
+	private final double[] sigmas;
+
+	private final boolean cascade;
+
+	private final BlockingFetchQueues< Callable< ? > > queue;
+
+	private Pair< LazyCellImg< ShortType, VolatileShortArray >, Img< VolatileShortType > > dog;
+
+	private final Map< Integer, Pair< LazyCellImg< UnsignedShortType, VolatileShortArray >, Img< VolatileUnsignedShortType > > > gaussians = new HashMap<>();
+
+	public FusedDoG( final HaloGather source, final double[] sigmas, final boolean cascade, final BlockingFetchQueues< Callable< ? > > queue )
+	{
+		this.source = source;
+		this.sigmas = sigmas.clone();
+		this.cascade = cascade;
+		this.queue = queue;
+	}
+
+	/**
+	 * The DoG bank. It has one dimension more than the source, channel
+	 * {@code c} is {@code G(sigmas[c+1]) - G(sigmas[c]) + 65535/4}.
+	 */
+	public synchronized Pair< LazyCellImg< ShortType, VolatileShortArray >, Img< VolatileShortType > > getDoG()
+	{
+		if ( dog == null )
+		{
+			final CellGrid grid = FusedDoGLoader.createGrid( source.getCellGrid(), sigmas.length );
+			dog = createStage( "DoG-", grid, new FusedDoGLoader( grid, source, sigmas, cascade ), new ShortType(), new VolatileShortType(), queue );
+		}
+		return dog;
+	}
+
+	/**
+	 * The Gaussian with {@code sigmas[i]}, set up on first request.
+	 */
+	public synchronized Pair< LazyCellImg< UnsignedShortType, VolatileShortArray >, Img< VolatileUnsignedShortType > > getGauss( final int i )
+	{
+		return gaussians.computeIfAbsent( i, k -> {
+			final CellGrid grid = source.getCellGrid();
+			return createStage( "Gauss" + sigmas[ k ] + "-", grid, new HaloGaussLoader( grid, source, sigmas[ k ] ), new UnsignedShortType(), new VolatileUnsignedShortType(), queue );
+		} );
+	}
+
+	public double[] getSigmas()
+	{
+		return sigmas.clone();
+	}
+
+	@Override
+	public String toString()
+	{
+		return "FusedDoG" + Arrays.toString( sigmas ) + ( cascade ? " (cascaded)" : "" );
+	}
+
+	private static < T extends NativeType< T >, V extends Volatile< T > & NativeType< V > > Pair< LazyCellImg< T, VolatileShortArray >, Img< V > > createStage(
+			final String name,
+			final CellGrid grid,
+			final CacheLoader< Long, Cell< VolatileShortArray > > loader,
+			final T type,
+			final V vtype,
+			final BlockingFetchQueues< Callable< ? > > queue )
+	{
+		final Path blockcache;
+		try
+		{
+			blockcache = DiskCellCache.createTempDirectory( name, true );
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+		final DiskCellCache< VolatileShortArray > diskcache = new DiskCellCache<>(
+				blockcache,
+				grid,
+				loader,
+				AccessIo.get( SHORT, AccessFlags.setOf( VOLATILE ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< VolatileShortArray >, VolatileShortArray > iosync = new IoSync<>( diskcache );
+		final Cache< Long, Cell< VolatileShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< VolatileShortArray >, VolatileShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync );
+		final LazyCellImg< T, VolatileShortArray > img = new LazyCellImg<>( grid, type, cache.unchecked()::get );
+
+		final CreateInvalid< Long, Cell< VolatileShortArray > > createInvalid = CreateInvalidVolatileCell.get( grid, type, false );
+		final VolatileCache< Long, Cell< VolatileShortArray > > volatileCache = new WeakRefVolatileCache<>( cache, queue, createInvalid );
+
+		final CacheHints hints = new CacheHints( LoadingStrategy.VOLATILE, 0, false );
+		final Img< V > vimg = new VolatileCachedCellImg<>( grid, vtype, hints, volatileCache.unchecked()::get );
+
+		return new ValuePair<>( img, vimg );
+	}
+}
@@ -0,0 +1,215 @@
+package net.imglib2.cache.lowlevel.exampledog;
+
+import java.util.Arrays;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGather;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Computes a bank of Difference-of-Gaussians for increasing scales
+ * {@code sigmas[0] < sigmas[1] < ...} from a single halo fetch per cell.
+ * <p>
+ * The output has one more dimension than the source: channel {@code c} holds
+ * {@code G(sigmas[c+1]) - G(sigmas[c]) + 65535/4} (like the difference stage
+ * of {@code lowlevel.example06}). The intermediate Gaussians only live in
+ * per-cell float buffers and are never stored.
+ * <p>
+ * Without cascading, every Gaussian is computed directly from the gathered
+ * input. With cascading, {@code G(sigmas[c+1])} is computed from
+ * {@code G(sigmas[c])} with the increment
+ * {@code sqrt(sigmas[c+1]^2 - sigmas[c]^2)}, so kernels stay short even for
+ * large scales, at the price of a larger halo.
+ */
+public class FusedDoGLoader implements CacheLoader< Long, Cell< VolatileShortArray > >
+{
+	private final CellGrid grid;
+
+	private final HaloGather source;
+
+	private final double[] sigmas;
+
+	private final boolean cascade;
+
+	/**
+	 * Sigma (per dimension) of each blur. Without cascading, these are just
+	 * the sigmas. With cascading, the first is {@code sigmas[0]}, the others
+	 * are increments.
+	 */
+	private final double[][] blurs;
+
+	/**
+	 * Halo of each blur.
+	 */
+	private final int[][] halos;
+
+	/**
+	 * @param grid
+	 *            grid of the output, which has an additional last dimension
+	 *            of size {@code sigmas.length - 1} (one cell).
+	 */
+	public FusedDoGLoader( final CellGrid grid, final HaloGather source, final double[] sigmas, final boolean cascade )
+	{
+		if ( sigmas.length < 2 )
+			throw new IllegalArgumentException( "need at least two scales" );
+		for ( int i = 1; i < sigmas.length; ++i )
+			if ( sigmas[ i ] <= sigmas[ i - 1 ] )
+				throw new IllegalArgumentException( "scales must be increasing" );
+
+		this.grid = grid;
+		this.source = source;
+		this.sigmas = sigmas.clone();
+		this.cascade = cascade;
+
+		final int n = source.getCellGrid().numDimensions();
+		blurs = new double[ sigmas.length ][ n ];
+		halos = new int[ sigmas.length ][];
+		for ( int i = 0; i < sigmas.length; ++i )
+		{
+			final double s = cascade && i > 0
+					? Math.sqrt( sigmas[ i ] * sigmas[ i ] - sigmas[ i - 1 ] * sigmas[ i - 1 ] )
+					: sigmas[ i ];
+			Arrays.fill( blurs[ i ], s );
+			halos[ i ] = Gauss3.halfkernelsizes( blurs[ i ] );
+		}
+	}
+
+	/**
+	 * Grid for the output of a DoG bank with {@code numScales} scales on a
+	 * source with the given grid.
+	 */
+	public static CellGrid createGrid( final CellGrid sourceGrid, final int numScales )
+	{
+		final int n = sourceGrid.numDimensions();
+		final long[] dimensions = new long[ n + 1 ];
+		final int[] cellDimensions = new int[ n + 1 ];
+		for ( int d = 0; d < n; ++d )
+		{
+			dimensions[ d ] = sourceGrid.imgDimension( d );
+			cellDimensions[ d ] = sourceGrid.cellDimension( d );
+		}
+		dimensions[ n ] = numScales - 1;
+		cellDimensions[ n ] = numScales - 1;
+		return new CellGrid( dimensions, cellDimensions );
+	}
+
+	public double[] getSigmas()
+	{
+		return sigmas.clone();
+	}
+
+	@Override
+	public Cell< VolatileShortArray > get( final Long key ) throws Exception
+	{
+		final long index = key;
+
+		final int n = grid.numDimensions() - 1;
+		final long[] outMin = new long[ n + 1 ];
+		final int[] outDims = new int[ n + 1 ];
+		grid.getCellDimensions( index, outMin, outDims );
+		final long[] cellMin = Arrays.copyOf( outMin, n );
+		final int[] cellDims = Arrays.copyOf( outDims, n );
+		final int cellSize = ( int ) Intervals.numElements( cellDims );
+
+		final int numScales = sigmas.length;
+		final VolatileShortArray array = new VolatileShortArray( cellSize * ( numScales - 1 ), true );
+		final short[] out = array.getCurrentStorageArray();
+
+		/*
+		 * Border around the cell that the input must cover.
+		 */
+		final int[] border = new int[ n ];
+		for ( int i = 0; i < numScales; ++i )
+			for ( int d = 0; d < n; ++d )
+				border[ d ] = cascade
+						? border[ d ] + halos[ i ][ d ]
+						: Math.max( border[ d ], halos[ i ][ d ] );
+
+		final long[] inMin = new long[ n ];
+		final int[] inDims = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			inMin[ d ] = cellMin[ d ] - border[ d ];
+			inDims[ d ] = cellDims[ d ] + 2 * border[ d ];
+		}
+		final short[] input = new short[ ( int ) Intervals.numElements( inDims ) ];
+		source.gather( inMin, inDims, input );
+		final Img< UnsignedShortType > in = ArrayImgs.unsignedShorts( input, Util.int2long( inDims ) );
+
+		float[] previous = null;
+		Img< FloatType > blurred = null;
+		long[] blurredMin = null;
+		for ( int i = 0; i < numScales; ++i )
+		{
+			/*
+			 * Compute the i-th Gaussian on the cell expanded by the halos of
+			 * the blurs still to come (only when cascading).
+			 */
+			final long[] min = new long[ n ];
+			final int[] dims = new int[ n ];
+			for ( int d = 0; d < n; ++d )
+			{
+				int remaining = 0;
+				if ( cascade )
+					for ( int j = i + 1; j < numScales; ++j )
+						remaining += halos[ j ][ d ];
+				min[ d ] = cellMin[ d ] - remaining;
+				dims[ d ] = cellDims[ d ] + 2 * remaining;
+			}
+			final float[] current = new float[ ( int ) Intervals.numElements( dims ) ];
+			final Img< FloatType > target = ArrayImgs.floats( current, Util.int2long( dims ) );
+			if ( cascade && i > 0 )
+				Gauss3.gauss( blurs[ i ], Views.extendBorder( Views.translate( blurred, blurredMin ) ), Views.translate( target, min ) );
+			else
+				Gauss3.gauss( blurs[ i ], Views.extendBorder( Views.translate( in, inMin ) ), Views.translate( target, min ) );
+
+			final float[] cell = crop( current, dims, cellMin, min, cellDims );
+			if ( previous != null )
+			{
+				final int offset = ( i - 1 ) * cellSize;
+				for ( int k = 0; k < cellSize; ++k )
+					out[ offset + k ] = ( short ) ( Math.round( cell[ k ] ) - Math.round( previous[ k ] ) + 65535 / 4 );
+			}
+			previous = cell;
+			blurred = target;
+			blurredMin = min;
+		}
+
+		return new Cell<>( outDims, outMin, array );
+	}
+
+	/**
+	 * Copy the part of {@code src} (with origin {@code srcMin}, size
+	 * {@code srcDims}) starting at {@code min} with size {@code dims}.
+	 */
+	private static float[] crop( final float[] src, final int[] srcDims, final long[] min, final long[] srcMin, final int[] dims )
+	{
+		final int n = dims.length;
+		final float[] dst = new float[ ( int ) Intervals.numElements( dims ) ];
+		final int[] pos = new int[ n ];
+		final int length = dims[ 0 ];
+		for ( int dstOffset = 0; dstOffset < dst.length; dstOffset += length )
+		{
+			int srcOffset = 0;
+			for ( int d = n - 1; d >= 0; --d )
+				srcOffset = srcOffset * srcDims[ d ] + ( int ) ( min[ d ] - srcMin[ d ] ) + pos[ d ];
+			System.arraycopy( src, srcOffset, dst, dstOffset, length );
+			for ( int d = 1; d < n; ++d )
+			{
+				if ( ++pos[ d ] < dims[ d ] )
+					break;
+				pos[ d ] = 0;
+			}
+		}
+		return dst;
+	}
+}
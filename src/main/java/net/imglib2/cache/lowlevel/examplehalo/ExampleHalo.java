@@ -0,0 +1,125 @@
+package net.imglib2.cache.lowlevel.examplehalo;
+
+import bdv.img.cache.CreateInvalidVolatileCell;
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DirtyDiskCellCache;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.lowlevel.example06.Example06.CheckerboardLoader;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.cache.ref.WeakRefVolatileCache;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.CreateInvalid;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.cache.volatiles.VolatileCache;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.img.basictypeaccess.AccessFlags.VOLATILE;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * Two Gauss stages on the checkerboard of {@code lowlevel.example06}, computed
+ * with {@link HaloGaussLoader}. The upstream cells of each halo are fetched in
+ * parallel on a shared executor.
+ */
+public class ExampleHalo
+{
+	public static Pair< LazyCellImg< UnsignedShortType, VolatileShortArray >, VolatileCachedCellImg< VolatileUnsignedShortType, ? > >
+		createGauss( final HaloGather source, final double sigma, final CellGrid grid, final BlockingFetchQueues< Callable< ? > > queue )
+				throws IOException
+	{
+		final UnsignedShortType type = new UnsignedShortType();
+		final VolatileUnsignedShortType vtype = new VolatileUnsignedShortType();
+
+		final Path blockcache = DiskCellCache.createTempDirectory( "Gauss" + sigma + "-", true );
+		final DiskCellCache< VolatileShortArray > diskcache = new DiskCellCache<>(
+				blockcache,
+				grid,
+				new HaloGaussLoader( grid, source, sigma ),
+				AccessIo.get( SHORT, AccessFlags.setOf( VOLATILE ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< VolatileShortArray >, VolatileShortArray > iosync = new IoSync<>( diskcache );
+		final Cache< Long, Cell< VolatileShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< VolatileShortArray >, VolatileShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync );
+		final LazyCellImg< UnsignedShortType, VolatileShortArray > gauss = new LazyCellImg<>( grid, type, cache.unchecked()::get );
+
+		final CreateInvalid< Long, Cell< VolatileShortArray > > createInvalid = CreateInvalidVolatileCell.get( grid, type, false );
+		final VolatileCache< Long, Cell< VolatileShortArray > > volatileCache = new WeakRefVolatileCache<>( cache, queue, createInvalid );
+
+		final CacheHints hints = new CacheHints( LoadingStrategy.VOLATILE, 0, false );
+		final VolatileCachedCellImg< VolatileUnsignedShortType, ? > vgauss = new VolatileCachedCellImg<>( grid, vtype, hints, volatileCache.unchecked()::get );
+
+		return new ValuePair<>( gauss, vgauss );
+	}
+
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+
+		final UnsignedShortType type = new UnsignedShortType();
+
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Path blockcache = DiskCellCache.createTempDirectory( "CellImg-", true );
+		final DiskCellCache< DirtyShortArray > diskcache = new DirtyDiskCellCache<>(
+				blockcache,
+				grid,
+				new CheckerboardLoader( grid ),
+				AccessIo.get( SHORT, AccessFlags.setOf( DIRTY ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< DirtyShortArray >, DirtyShortArray > iosync = new IoSync<>( diskcache );
+		final UncheckedCache< Long, Cell< DirtyShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirtyShortArray >, DirtyShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync )
+				.unchecked();
+		final LazyCellImg< UnsignedShortType, DirtyShortArray > img = new LazyCellImg<>( grid, new UnsignedShortType(), cache::get );
+
+		final Bdv bdv = BdvFunctions.show( img, "Cached" );
+		bdv.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+
+		final int maxNumLevels = 1;
+		final int numFetcherThreads = 7;
+		final BlockingFetchQueues< Callable< ? > > queue = new BlockingFetchQueues<>( maxNumLevels, numFetcherThreads );
+		new FetcherThreads( queue, numFetcherThreads );
+
+		final ExecutorService gatherExecutor = Executors.newFixedThreadPool( 4, r -> {
+			final Thread t = new Thread( r, "HaloGather" );
+			t.setDaemon( true );
+			return t;
+		} );
+		final HaloGather source = new HaloGather( img, gatherExecutor );
+
+		final Pair< LazyCellImg< UnsignedShortType, VolatileShortArray >, VolatileCachedCellImg< VolatileUnsignedShortType, ? > > gauss1 = createGauss( source, 5, grid, queue );
+		final Pair< LazyCellImg< UnsignedShortType, VolatileShortArray >, VolatileCachedCellImg< VolatileUnsignedShortType, ? > > gauss2 = createGauss( source, 4, grid, queue );
+
+		BdvFunctions.show( gauss1.getB(), "Gauss 1", BdvOptions.options().addTo( bdv ) );
+		BdvFunctions.show( gauss2.getB(), "Gauss 2", BdvOptions.options().addTo( bdv ) );
+	}
+}
@@ -0,0 +1,233 @@
+package net.imglib2.cache.lowlevel.examplehalo;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import net.imglib2.RandomAccess;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.grid.CellRanges;
+import net.imglib2.img.basictypeaccess.array.ArrayDataAccess;
+import net.imglib2.img.cell.AbstractCellImg;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * Copies an arbitrary box of a cell image (including parts outside the image,
+ * which are border-extended like {@code Views.extendBorder}) into a flat
+ * primitive array.
+ * <p>
+ * Each overlapping cell is fetched from the cache once, and its data is copied
+ * line by line with {@link System#arraycopy}, instead of going through a
+ * {@code RandomAccess} voxel by voxel. If an {@link Executor} is given, the
+ * overlapping cells are fetched and copied in parallel. The calling thread
+ * runs every task that has not been picked up by the executor yet, so nested
+ * gathers (a derived stage loading the cells of another derived stage) on the
+ * same executor cannot deadlock.
+ * <p>
+ * The cells must be backed by {@link ArrayDataAccess} of the same primitive
+ * array type as the target array.
+ */
+public class HaloGather
+{
+	private final RandomAccessibleInterval< ? extends Cell< ? > > cells;
+
+	private final CellGrid grid;
+
+	private final Executor executor;
+
+	public HaloGather( final AbstractCellImg< ?, ?, ? extends Cell< ? >, ? > img, final Executor executor )
+	{
+		this.cells = img.getCells();
+		this.grid = img.getCellGrid();
+		this.executor = executor;
+	}
+
+	public HaloGather( final AbstractCellImg< ?, ?, ? extends Cell< ? >, ? > img )
+	{
+		this( img, null );
+	}
+
+	public CellGrid getCellGrid()
+	{
+		return grid;
+	}
+
+	/**
+	 * Copy the box starting at {@code min} with size {@code dims} into
+	 * {@code dst} (flattened, dimension 0 fastest).
+	 *
+	 * @param dst
+	 *            primitive array of at least {@code prod(dims)} elements
+	 */
+	public void gather( final long[] min, final int[] dims, final Object dst ) throws InterruptedException, ExecutionException
+	{
+		final int n = grid.numDimensions();
+
+		// box intersected with the image
+		final long[] innerMin = new long[ n ];
+		final long[] innerMax = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			innerMin[ d ] = Math.max( min[ d ], 0 );
+			innerMax[ d ] = Math.min( min[ d ] + dims[ d ] - 1, grid.imgDimension( d ) - 1 );
+			if ( innerMin[ d ] > innerMax[ d ] )
+				throw new IllegalArgumentException( "box does not intersect the image" );
+		}
+
+		// one task per cell overlapping the inner box
+		final List< FutureTask< Void > > tasks = new ArrayList<>();
+		CellRanges.forEachCell( grid, innerMin, innerMax, index -> {
+			final long[] pos = new long[ n ];
+			grid.getCellGridPositionFlat( index, pos );
+			tasks.add( new FutureTask<>( () -> {
+				copyCell( pos, innerMin, innerMax, min, dims, dst );
+				return null;
+			} ) );
+		} );
+
+		if ( executor != null && tasks.size() > 1 )
+			for ( int i = 1; i < tasks.size(); ++i )
+				executor.execute( tasks.get( i ) );
+		for ( final FutureTask< Void > task : tasks )
+			task.run();
+		for ( final FutureTask< Void > task : tasks )
+			task.get();
+
+		extendBorder( min, dims, innerMin, innerMax, dst );
+	}
+
+	private void copyCell( final long[] gridPos, final long[] innerMin, final long[] innerMax, final long[] min, final int[] dims, final Object dst )
+	{
+		final RandomAccess< ? extends Cell< ? > > access = cells.randomAccess();
+		access.setPosition( gridPos );
+		final Cell< ? > cell = access.get();
+		final Object data = cell.getData();
+		if ( !( data instanceof ArrayDataAccess ) )
+			throw new IllegalArgumentException( "cells must be backed by ArrayDataAccess, found " + data.getClass().getName() );
+		final Object src = ( ( ArrayDataAccess< ? > ) data ).getCurrentStorageArray();
+
+		final int n = grid.numDimensions();
+		final long[] lo = new long[ n ];
+		final long[] hi = new long[ n ];
+		final int[] srcSteps = new int[ n ];
+		final int[] dstSteps = new int[ n ];
+		int srcStep = 1;
+		int dstStep = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			lo[ d ] = Math.max( cell.min( d ), innerMin[ d ] );
+			hi[ d ] = Math.min( cell.max( d ), innerMax[ d ] );
+			srcSteps[ d ] = srcStep;
+			dstSteps[ d ] = dstStep;
+			srcStep *= ( int ) cell.dimension( d );
+			dstStep *= dims[ d ];
+		}
+
+		final int length = ( int ) ( hi[ 0 ] - lo[ 0 ] + 1 );
+		final long[] pos = lo.clone();
+		while ( true )
+		{
+			int srcOffset = 0;
+			int dstOffset = 0;
+			for ( int d = 0; d < n; ++d )
+			{
+				srcOffset += ( int ) ( pos[ d ] - cell.min( d ) ) * srcSteps[ d ];
+				dstOffset += ( int ) ( pos[ d ] - min[ d ] ) * dstSteps[ d ];
+			}
+			System.arraycopy( src, srcOffset, dst, dstOffset, length );
+
+			int d = 1;
+			for ( ; d < n; ++d )
+			{
+				if ( ++pos[ d ] <= hi[ d ] )
+					break;
+				pos[ d ] = lo[ d ];
+			}
+			if ( d >= n )
+				break;
+		}
+	}
+
+	/**
+	 * Fill the parts of the box outside the image by repeating the border
+	 * values, one dimension after the other. After dimension {@code d} is
+	 * done, everything that is inside the image in dimensions {@code > d} is
+	 * filled, so for {@code d > 0} whole blocks of the lower dimensions are
+	 * copied at once.
+	 */
+	private static void extendBorder( final long[] min, final int[] dims, final long[] innerMin, final long[] innerMax, final Object dst )
+	{
+		final int n = dims.length;
+		final int[] a = new int[ n ];
+		final int[] b = new int[ n ];
+		final int[] steps = new int[ n ];
+		int step = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			a[ d ] = ( int ) ( innerMin[ d ] - min[ d ] );
+			b[ d ] = ( int ) ( innerMax[ d ] - min[ d ] );
+			steps[ d ] = step;
+			step *= dims[ d ];
+		}
+
+		for ( int d = 0; d < n; ++d )
+		{
+			if ( a[ d ] == 0 && b[ d ] == dims[ d ] - 1 )
+				continue;
+
+			// iterate over the outer dimensions (> d), inside the image
+			final int[] pos = new int[ n ];
+			for ( int e = d + 1; e < n; ++e )
+				pos[ e ] = a[ e ];
+			while ( true )
+			{
+				int base = 0;
+				for ( int e = d + 1; e < n; ++e )
+					base += pos[ e ] * steps[ e ];
+
+				if ( d == 0 )
+				{
+					fill( dst, base + a[ 0 ], base, a[ 0 ] );
+					fill( dst, base + b[ 0 ], base + b[ 0 ] + 1, dims[ 0 ] - 1 - b[ 0 ] );
+				}
+				else
+				{
+					final int block = steps[ d ];
+					for ( int c = 0; c < a[ d ]; ++c )
+						System.arraycopy( dst, base + a[ d ] * block, dst, base + c * block, block );
+					for ( int c = b[ d ] + 1; c < dims[ d ]; ++c )
+						System.arraycopy( dst, base + b[ d ] * block, dst, base + c * block, block );
+				}
+
+				int e = d + 1;
+				for ( ; e < n; ++e )
+				{
+					if ( ++pos[ e ] <= b[ e ] )
+						break;
+					pos[ e ] = a[ e ];
+				}
+				if ( e >= n )
+					break;
+			}
+		}
+	}
+
+	/**
+	 * Set {@code length} elements starting at {@code from} to the value at
+	 * {@code srcIndex}, by copying doubling runs.
+	 */
+	private static void fill( final Object array, final int srcIndex, final int from, final int length )
+	{
+		if ( length <= 0 )
+			return;
+		System.arraycopy( array, srcIndex, array, from, 1 );
+		for ( int filled = 1; filled < length; )
+		{
+			final int chunk = Math.min( filled, length - filled );
+			System.arraycopy( array, from, array, from + filled, chunk );
+			filled += chunk;
+		}
+	}
+}
@@ -0,0 +1,71 @@
+package net.imglib2.cache.lowlevel.examplehalo;
+
+import java.util.Arrays;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+/**
+ * Like {@code lowlevel.example06.Example06.GaussLoader}, but instead of
+ * reading the source through {@code Views.extendBorder} voxel by voxel, the
+ * halo-expanded input box is first copied into a flat {@code short[]} with
+ * {@link HaloGather}, and the convolution runs on that.
+ */
+public class HaloGaussLoader implements CacheLoader< Long, Cell< VolatileShortArray > >
+{
+	private final CellGrid grid;
+
+	private final HaloGather source;
+
+	private final double[] sigma;
+
+	private final int[] halo;
+
+	public HaloGaussLoader( final CellGrid grid, final HaloGather source, final double sigma )
+	{
+		this.grid = grid;
+		this.source = source;
+		this.sigma = new double[ grid.numDimensions() ];
+		Arrays.fill( this.sigma, sigma );
+		this.halo = Gauss3.halfkernelsizes( this.sigma );
+	}
+
+	@Override
+	public Cell< VolatileShortArray > get( final Long key ) throws Exception
+	{
+		final long index = key;
+
+		final int n = grid.numDimensions();
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		grid.getCellDimensions( index, cellMin, cellDims );
+
+		final long[] inMin = new long[ n ];
+		final int[] inDims = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			inMin[ d ] = cellMin[ d ] - halo[ d ];
+			inDims[ d ] = cellDims[ d ] + 2 * halo[ d ];
+		}
+		final short[] input = new short[ ( int ) Intervals.numElements( inDims ) ];
+		source.gather( inMin, inDims, input );
+
+		final Img< UnsignedShortType > in = ArrayImgs.unsignedShorts( input, Util.int2long( inDims ) );
+
+		final int blocksize = ( int ) Intervals.numElements( cellDims );
+		final VolatileShortArray array = new VolatileShortArray( blocksize, true );
+		final Img< UnsignedShortType > img = ArrayImgs.unsignedShorts( array.getCurrentStorageArray(), Util.int2long( cellDims ) );
+
+		Gauss3.gauss( sigma, Views.extendBorder( Views.translate( in, inMin ) ), Views.translate( img, cellMin ) );
+
+		return new Cell<>( cellDims, cellMin, array );
+	}
+}
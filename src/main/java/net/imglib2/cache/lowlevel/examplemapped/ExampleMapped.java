@@ -0,0 +1,78 @@
+package net.imglib2.cache.lowlevel.examplemapped;
+
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import java.io.IOException;
+import java.nio.file.Path;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.lowlevel.example04.Example04.CheckerboardLoader;
+import net.imglib2.cache.lowlevel.example04.Example04.GaussLoader;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.basictypeaccess.array.ShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Fraction;
+import net.imglib2.view.Views;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * Same pipeline as {@code lowlevel.example04}, but each stage spills its cells
+ * into one memory-mapped file instead of one file per cell.
+ */
+public class ExampleMapped
+{
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+
+		final UnsignedShortType type = new UnsignedShortType();
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Path blockcache = MappedDiskCellCache.createTempFile( "CellImg-", true );
+		final Fraction entitiesPerPixel = type.getEntitiesPerPixel();
+		final MappedDiskCellCache< DirtyShortArray > diskcache = new DirtyMappedDiskCellCache<>(
+				blockcache,
+				grid,
+				new CheckerboardLoader( grid ),
+				AccessIo.get( SHORT, AccessFlags.setOf( DIRTY ) ),
+				entitiesPerPixel );
+		final IoSync< Long, Cell< DirtyShortArray >, DirtyShortArray > iosync = new IoSync<>( diskcache );
+		final UncheckedCache< Long, Cell< DirtyShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirtyShortArray >, DirtyShortArray >( 100 )
+				.withRemover( iosync )
+				.withLoader( iosync )
+				.unchecked();
+		final Img< UnsignedShortType > img = new LazyCellImg<>( grid, new UnsignedShortType(), cache::get );
+
+		final Bdv bdv = BdvFunctions.show( img, "Cached" );
+		bdv.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+
+		final Path blockcache2 = MappedDiskCellCache.createTempFile( "Gauss-", true );
+		final MappedDiskCellCache< ShortArray > diskcache2 = new MappedDiskCellCache<>(
+				blockcache2,
+				grid,
+				new GaussLoader( grid, Views.extendBorder( img ) ),
+				AccessIo.get( SHORT, AccessFlags.setOf() ),
+				entitiesPerPixel );
+		final IoSync< Long, Cell< ShortArray >, ShortArray > iosync2 = new IoSync<>( diskcache2 );
+		final UncheckedCache< Long, Cell< ShortArray > > cache2 = new GuardedStrongRefLoaderRemoverCache< Long, Cell< ShortArray >, ShortArray >( 100 )
+				.withRemover( iosync2 )
+				.withLoader( iosync2 )
+				.unchecked();
+		final Img< UnsignedShortType > img2 = new LazyCellImg<>( grid, new UnsignedShortType(), cache2::get );
+
+		BdvFunctions.show( img2, "Gauss", BdvOptions.options().addTo( bdv ) );
+	}
+}
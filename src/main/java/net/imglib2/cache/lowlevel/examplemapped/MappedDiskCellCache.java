@@ -0,0 +1,270 @@
+package net.imglib2.cache.lowlevel.examplemapped;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Predicate;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.CacheRemover;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.Intervals;
+
+/**
+ * A drop-in alternative to {@code DiskCellCache} that keeps all cells of one
+ * {@link CellGrid} in a single preallocated, memory-mapped file instead of
+ * one file per cell.
+ * <p>
+ * Every cell gets a fixed-size slot (large enough for a full-size cell) at
+ * offset {@code index * slotSize}. The file is mapped in segments of at most
+ * {@link #MAX_SEGMENT_SIZE} bytes which are created on first use. Writing
+ * back and reloading a cell is a copy between the access and the mapped
+ * segment, i.e. it goes through the page cache without any open, write or
+ * close system calls.
+ * <p>
+ * Which slots hold valid data is tracked in memory, so (like
+ * {@code DiskCellCache}) the file is only meaningful for the lifetime of this
+ * object. {@link #close()} releases the file channel; segments that have not
+ * been mapped by then cannot be accessed afterwards.
+ *
+ * @param <A>
+ *            access type
+ */
+public class MappedDiskCellCache< A > implements CacheRemover< Long, Cell< A >, A >, CacheLoader< Long, Cell< A > >, Closeable
+{
+	public static final long MAX_SEGMENT_SIZE = 1L << 30;
+
+	private final Path file;
+
+	private final CellGrid grid;
+
+	private final int n;
+
+	private final Fraction entitiesPerPixel;
+
+	private final AccessIo< A > accessIo;
+
+	private final CacheLoader< Long, ? extends Cell< ? extends A > > backingLoader;
+
+	private final long numCells;
+
+	private final long slotSize;
+
+	private final long slotsPerSegment;
+
+	private final FileChannel channel;
+
+	private final AtomicReferenceArray< MappedByteBuffer > segments;
+
+	/**
+	 * One bit per cell, set if the cell's slot holds written data.
+	 */
+	private final AtomicLongArray written;
+
+	public MappedDiskCellCache(
+			final Path file,
+			final CellGrid grid,
+			final CacheLoader< Long, ? extends Cell< ? extends A > > backingLoader,
+			final AccessIo< A > accessIo,
+			final Fraction entitiesPerPixel ) throws IOException
+	{
+		this.file = file;
+		this.grid = grid;
+		this.n = grid.numDimensions();
+		this.entitiesPerPixel = entitiesPerPixel;
+		this.accessIo = accessIo;
+		this.backingLoader = backingLoader;
+
+		final int[] cellDimensions = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+			cellDimensions[ d ] = grid.cellDimension( d );
+		numCells = Intervals.numElements( grid.getGridDimensions() );
+		slotSize = entitiesPerPixel.mulCeil( Intervals.numElements( cellDimensions ) ) * accessIo.getBytesPerElement();
+		if ( slotSize > MAX_SEGMENT_SIZE )
+			throw new IllegalArgumentException( "cell size " + slotSize + " bytes exceeds maximum segment size" );
+		slotsPerSegment = MAX_SEGMENT_SIZE / slotSize;
+
+		final long numSegments = ( numCells + slotsPerSegment - 1 ) / slotsPerSegment;
+		segments = new AtomicReferenceArray<>( ( int ) numSegments );
+		written = new AtomicLongArray( ( int ) ( ( numCells + 63 ) / 64 ) );
+
+		@SuppressWarnings( "resource" )
+		final RandomAccessFile raf = new RandomAccessFile( file.toFile(), "rw" );
+		raf.setLength( numCells * slotSize );
+		channel = raf.getChannel();
+	}
+
+	public Path getFile()
+	{
+		return file;
+	}
+
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+
+	@Override
+	public Cell< A > get( final Long key ) throws Exception
+	{
+		final long index = key;
+		if ( isWritten( index ) )
+		{
+			final long[] cellMin = new long[ n ];
+			final int[] cellDims = new int[ n ];
+			grid.getCellDimensions( index, cellMin, cellDims );
+			final long numEntities = entitiesPerPixel.mulCeil( Intervals.numElements( cellDims ) );
+			final A access = accessIo.load( slot( index ), ( int ) numEntities );
+			return new Cell<>( cellDims, cellMin, access );
+		}
+		else
+		{
+			@SuppressWarnings( "unchecked" )
+			final Cell< A > cell = ( Cell< A > ) backingLoader.get( key );
+			return cell;
+		}
+	}
+
+	@Override
+	public A extract( final Cell< A > value )
+	{
+		return value.getData();
+	}
+
+	@Override
+	public Cell< A > reconstruct( final Long key, final A valueData )
+	{
+		final long index = key;
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		grid.getCellDimensions( index, cellMin, cellDims );
+		return new Cell<>( cellDims, cellMin, valueData );
+	}
+
+	@Override
+	public void onRemoval( final Long key, final A valueData )
+	{
+		final long index = key;
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		grid.getCellDimensions( index, cellMin, cellDims );
+		final long numEntities = entitiesPerPixel.mulCeil( Intervals.numElements( cellDims ) );
+		accessIo.save( valueData, slot( index ), ( int ) numEntities );
+		setWritten( index, true );
+	}
+
+	@Override
+	public CompletableFuture< Void > persist( final Long key, final A valueData )
+	{
+		onRemoval( key, valueData );
+		return CompletableFuture.completedFuture( null );
+	}
+
+	@Override
+	public void invalidate( final Long key )
+	{
+		setWritten( key, false );
+	}
+
+	@Override
+	public void invalidateIf( final long parallelismThreshold, final Predicate< Long > condition )
+	{
+		for ( long index = 0; index < numCells; ++index )
+			if ( isWritten( index ) && condition.test( index ) )
+				setWritten( index, false );
+	}
+
+	@Override
+	public void invalidateAll( final long parallelismThreshold )
+	{
+		for ( int i = 0; i < written.length(); ++i )
+			written.set( i, 0 );
+	}
+
+	/**
+	 * Get a buffer spanning exactly the slot of the cell with the given index.
+	 * The returned buffer is independent of other callers' buffers.
+	 */
+	private ByteBuffer slot( final long index )
+	{
+		final int s = ( int ) ( index / slotsPerSegment );
+		final int offset = ( int ) ( ( index % slotsPerSegment ) * slotSize );
+		final ByteBuffer buffer = segment( s ).duplicate();
+		buffer.position( offset );
+		buffer.limit( offset + ( int ) slotSize );
+		return buffer.slice();
+	}
+
+	private MappedByteBuffer segment( final int s )
+	{
+		MappedByteBuffer segment = segments.get( s );
+		if ( segment == null )
+		{
+			synchronized ( segments )
+			{
+				segment = segments.get( s );
+				if ( segment == null )
+				{
+					final long position = s * slotsPerSegment * slotSize;
+					final long size = Math.min( slotsPerSegment, numCells - s * slotsPerSegment ) * slotSize;
+					try
+					{
+						segment = channel.map( MapMode.READ_WRITE, position, size );
+					}
+					catch ( final IOException e )
+					{
+						throw new UncheckedIOException( e );
+					}
+					segments.set( s, segment );
+				}
+			}
+		}
+		return segment;
+	}
+
+	private boolean isWritten( final long index )
+	{
+		return ( written.get( ( int ) ( index >>> 6 ) ) & ( 1L << index ) ) != 0;
+	}
+
+	private void setWritten( final long index, final boolean value )
+	{
+		final int i = ( int ) ( index >>> 6 );
+		final long mask = 1L << index;
+		long bits;
+		do
+		{
+			bits = written.get( i );
+		}
+		while ( !written.compareAndSet( i, bits, value ? bits | mask : bits & ~mask ) );
+	}
+
+	/**
+	 * Create a temporary file to back a {@link MappedDiskCellCache}.
+	 *
+	 * @param prefix
+	 *            prefix of the file name
+	 * @param deleteOnExit
+	 *            whether to delete the file when the JVM exits
+	 */
+	public static Path createTempFile( final String prefix, final boolean deleteOnExit ) throws IOException
+	{
+		final Path file = Files.createTempFile( prefix, ".cells" );
+		if ( deleteOnExit )
+			file.toFile().deleteOnExit();
+		return file;
+	}
+}
@@ -0,0 +1,229 @@
+package net.imglib2.cache.lowlevel.examplemetrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+/**
+ * Counters and histograms for one named cache, published as an MBean
+ * {@code net.imglib2.cache:type=CacheMetrics,name=<name>}.
+ * <p>
+ * The metrics are fed by the decorators in this package:
+ * {@link MeteredGets} counts requests (and invalid volatile cells),
+ * {@link MeteredLoaderRemover} counts misses, loads and evictions between the
+ * cache and {@code IoSync}, and {@link MeteredWriter} times the write-backs
+ * between {@code IoSync} and the disk cache.
+ */
+public class CacheMetrics implements CacheMetricsMBean
+{
+	private final String name;
+
+	final LongAdder requests = new LongAdder();
+
+	final LongAdder loads = new LongAdder();
+
+	final LongAdder loadFailures = new LongAdder();
+
+	final LongAdder loadNanos = new LongAdder();
+
+	final LogHistogram loadHistogram = new LogHistogram();
+
+	final LongAdder evictions = new LongAdder();
+
+	final LongAdder writeBacks = new LongAdder();
+
+	final LongAdder writeBackNanos = new LongAdder();
+
+	final LogHistogram writeBackHistogram = new LogHistogram();
+
+	final AtomicLong bytesResident = new AtomicLong();
+
+	final LongAdder volatileRequests = new LongAdder();
+
+	final LongAdder invalidReturns = new LongAdder();
+
+	private ObjectName objectName;
+
+	public CacheMetrics( final String name )
+	{
+		this.name = name;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * Register with the platform MBean server.
+	 */
+	public synchronized CacheMetrics register()
+	{
+		if ( objectName == null )
+		{
+			try
+			{
+				final ObjectName on = new ObjectName( "net.imglib2.cache:type=CacheMetrics,name=" + ObjectName.quote( name ) );
+				final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+				if ( server.isRegistered( on ) )
+					server.unregisterMBean( on );
+				server.registerMBean( this, on );
+				objectName = on;
+			}
+			catch ( final JMException e )
+			{
+				throw new IllegalStateException( "could not register metrics for " + name, e );
+			}
+		}
+		return this;
+	}
+
+	public synchronized void unregister()
+	{
+		if ( objectName != null )
+		{
+			try
+			{
+				ManagementFactory.getPlatformMBeanServer().unregisterMBean( objectName );
+			}
+			catch ( final JMException e )
+			{
+				// already gone
+			}
+			objectName = null;
+		}
+	}
+
+	@Override
+	public long getRequests()
+	{
+		return requests.sum();
+	}
+
+	/**
+	 * Requests that did not go to the loader. Approximate, because concurrent
+	 * requests for a key that is being loaded count as one miss.
+	 */
+	@Override
+	public long getHits()
+	{
+		return Math.max( 0, getRequests() - getMisses() );
+	}
+
+	@Override
+	public long getMisses()
+	{
+		return loads.sum() + loadFailures.sum();
+	}
+
+	@Override
+	public double getHitRate()
+	{
+		final long n = getRequests();
+		return n == 0 ? 0 : ( double ) getHits() / n;
+	}
+
+	@Override
+	public long getLoads()
+	{
+		return loads.sum();
+	}
+
+	@Override
+	public long getLoadFailures()
+	{
+		return loadFailures.sum();
+	}
+
+	@Override
+	public double getMeanLoadMillis()
+	{
+		final long n = loads.sum();
+		return n == 0 ? 0 : loadNanos.sum() / 1e6 / n;
+	}
+
+	@Override
+	public double getLoadMillis50()
+	{
+		return loadHistogram.percentileMillis( 0.5 );
+	}
+
+	@Override
+	public double getLoadMillis99()
+	{
+		return loadHistogram.percentileMillis( 0.99 );
+	}
+
+	@Override
+	public long getEvictions()
+	{
+		return evictions.sum();
+	}
+
+	@Override
+	public long getWriteBacks()
+	{
+		return writeBacks.sum();
+	}
+
+	@Override
+	public double getMeanWriteBackMillis()
+	{
+		final long n = writeBacks.sum();
+		return n == 0 ? 0 : writeBackNanos.sum() / 1e6 / n;
+	}
+
+	@Override
+	public double getWriteBackMillis99()
+	{
+		return writeBackHistogram.percentileMillis( 0.99 );
+	}
+
+	@Override
+	public long getBytesResident()
+	{
+		return bytesResident.get();
+	}
+
+	@Override
+	public long getVolatileRequests()
+	{
+		return volatileRequests.sum();
+	}
+
+	@Override
+	public long getInvalidReturns()
+	{
+		return invalidReturns.sum();
+	}
+
+	/**
+	 * Reset all counters except {@link #getBytesResident()}.
+	 */
+	@Override
+	public void reset()
+	{
+		requests.reset();
+		loads.reset();
+		loadFailures.reset();
+		loadNanos.reset();
+		loadHistogram.reset();
+		evictions.reset();
+		writeBacks.reset();
+		writeBackNanos.reset();
+		writeBackHistogram.reset();
+		volatileRequests.reset();
+		invalidReturns.reset();
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "%s: %d requests (hit rate %.2f), %d loads (mean %.1f ms, p99 < %.1f ms), %d evictions, %d write-backs, %.1f MB resident, %d/%d invalid",
+				name, getRequests(), getHitRate(), getLoads(), getMeanLoadMillis(), getLoadMillis99(),
+				getEvictions(), getWriteBacks(), getBytesResident() / 1e6, getInvalidReturns(), getVolatileRequests() );
+	}
+}
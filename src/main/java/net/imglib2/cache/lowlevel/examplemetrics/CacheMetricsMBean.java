@@ -0,0 +1,41 @@
+package net.imglib2.cache.lowlevel.examplemetrics;
+
+/**
+ * JMX interface of {@link CacheMetrics}.
+ */
+public interface CacheMetricsMBean
+{
+	long getRequests();
+
+	long getHits();
+
+	long getMisses();
+
+	double getHitRate();
+
+	long getLoads();
+
+	long getLoadFailures();
+
+	double getMeanLoadMillis();
+
+	double getLoadMillis50();
+
+	double getLoadMillis99();
+
+	long getEvictions();
+
+	long getWriteBacks();
+
+	double getMeanWriteBackMillis();
+
+	double getWriteBackMillis99();
+
+	long getBytesResident();
+
+	long getVolatileRequests();
+
+	long getInvalidReturns();
+
+	void reset();
+}
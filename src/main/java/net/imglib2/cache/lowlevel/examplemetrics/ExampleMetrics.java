@@ -0,0 +1,141 @@
+package net.imglib2.cache.lowlevel.examplemetrics;
+
+import bdv.img.cache.CreateInvalidVolatileCell;
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Timer;
+import java.util.TimerTask;
+import java.util.concurrent.Callable;
+import net.imglib2.RandomAccessible;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DirtyDiskCellCache;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.lowlevel.example05.Example05.CheckerboardLoader;
+import net.imglib2.cache.lowlevel.example05.Example05.GaussLoader;
+import net.imglib2.cache.lowlevel.examplebudget.MemoryBudget;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.cache.ref.WeakRefVolatileCache;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.CreateInvalid;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.cache.volatiles.VolatileCache;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.img.basictypeaccess.AccessFlags.VOLATILE;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * The {@code lowlevel.example05} pipeline, with every stage instrumented. The
+ * metrics are published as MBeans {@code net.imglib2.cache:type=CacheMetrics}
+ * (look at them with {@code jconsole}) and printed every few seconds. The
+ * loaders are wrapped in {@link LoadRecordingCacheLoader}s, which print how
+ * often cells were recomputed at shutdown.
+ */
+public class ExampleMetrics
+{
+	static Pair< Img< UnsignedShortType >, Img< VolatileUnsignedShortType > >
+		createGauss( final RandomAccessible< UnsignedShortType > source, final double sigma, final CellGrid grid, final BlockingFetchQueues< Callable< ? > > queue, final CacheMetrics metrics )
+				throws IOException
+	{
+		final UnsignedShortType type = new UnsignedShortType();
+		final VolatileUnsignedShortType vtype = new VolatileUnsignedShortType();
+
+		final Path blockcache = DiskCellCache.createTempDirectory( "Gauss" + sigma + "-", true );
+		final DiskCellCache< VolatileShortArray > diskcache = new DiskCellCache<>(
+				blockcache,
+				grid,
+				new LoadRecordingCacheLoader<>( "Gauss " + sigma, new GaussLoader( grid, source, sigma ) ).reportOnShutdown(),
+				AccessIo.get( SHORT, AccessFlags.setOf( VOLATILE ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< VolatileShortArray >, VolatileShortArray > iosync = new IoSync<>( new MeteredWriter<>( diskcache, metrics ) );
+		final MeteredLoaderRemover< Long, Cell< VolatileShortArray >, VolatileShortArray > io = new MeteredLoaderRemover<>( iosync, metrics, MemoryBudget.cellWeigher( type ) );
+		final Cache< Long, Cell< VolatileShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< VolatileShortArray >, VolatileShortArray >( 1000 )
+				.withRemover( io )
+				.withLoader( io );
+		final Img< UnsignedShortType > gauss = new LazyCellImg<>( grid, new UnsignedShortType(), MeteredGets.lazy( cache.unchecked()::get, metrics ) );
+
+		final CreateInvalid< Long, Cell< VolatileShortArray > > createInvalid = CreateInvalidVolatileCell.get( grid, type, false );
+		final VolatileCache< Long, Cell< VolatileShortArray > > volatileCache = new WeakRefVolatileCache<>( cache, queue, createInvalid );
+
+		final CacheHints hints = new CacheHints( LoadingStrategy.VOLATILE, 0, false );
+		final VolatileCachedCellImg< VolatileUnsignedShortType, ? > vgauss = new VolatileCachedCellImg<>( grid, vtype, hints, MeteredGets.volatiles( volatileCache.unchecked()::get, metrics ) );
+
+		return new ValuePair<>( gauss, vgauss );
+	}
+
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+
+		final UnsignedShortType type = new UnsignedShortType();
+
+		final CacheMetrics metrics = new CacheMetrics( "CellImg" ).register();
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Path blockcache = DiskCellCache.createTempDirectory( "CellImg-", true );
+		final DiskCellCache< DirtyShortArray > diskcache = new DirtyDiskCellCache<>(
+				blockcache,
+				grid,
+				new LoadRecordingCacheLoader<>( "CellImg", new CheckerboardLoader( grid ) ).reportOnShutdown(),
+				AccessIo.get( SHORT, AccessFlags.setOf( DIRTY ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< DirtyShortArray >, DirtyShortArray > iosync = new IoSync<>( new MeteredWriter<>( diskcache, metrics, DirtyShortArray::isDirty ) );
+		final MeteredLoaderRemover< Long, Cell< DirtyShortArray >, DirtyShortArray > io = new MeteredLoaderRemover<>( iosync, metrics, MemoryBudget.cellWeigher( type ) );
+		final UncheckedCache< Long, Cell< DirtyShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirtyShortArray >, DirtyShortArray >( 1000 )
+				.withRemover( io )
+				.withLoader( io )
+				.unchecked();
+		final Img< UnsignedShortType > img = new LazyCellImg<>( grid, new UnsignedShortType(), MeteredGets.lazy( cache::get, metrics ) );
+
+		final Bdv bdv = BdvFunctions.show( img, "Cached" );
+		bdv.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+
+		final int maxNumLevels = 1;
+		final int numFetcherThreads = 7;
+		final BlockingFetchQueues< Callable< ? > > queue = new BlockingFetchQueues<>( maxNumLevels, numFetcherThreads );
+		new FetcherThreads( queue, numFetcherThreads );
+
+		final CacheMetrics metrics1 = new CacheMetrics( "Gauss 1" ).register();
+		final CacheMetrics metrics2 = new CacheMetrics( "Gauss 2" ).register();
+		final Pair< Img< UnsignedShortType >, Img< VolatileUnsignedShortType > > gauss1 = createGauss( Views.extendBorder( img ), 5, grid, queue, metrics1 );
+		final Pair< Img< UnsignedShortType >, Img< VolatileUnsignedShortType > > gauss2 = createGauss( Views.extendBorder( img ), 4, grid, queue, metrics2 );
+
+		BdvFunctions.show( gauss1.getB(), "Gauss 1", BdvOptions.options().addTo( bdv ) );
+		BdvFunctions.show( gauss2.getB(), "Gauss 2", BdvOptions.options().addTo( bdv ) );
+
+		new Timer( "CacheMetrics", true ).schedule( new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				System.out.println( metrics );
+				System.out.println( metrics1 );
+				System.out.println( metrics2 );
+			}
+		}, 5000, 5000 );
+	}
+}
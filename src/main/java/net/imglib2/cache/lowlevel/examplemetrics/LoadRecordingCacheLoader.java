@@ -0,0 +1,129 @@
+package net.imglib2.cache.lowlevel.examplemetrics;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import net.imglib2.cache.CacheLoader;
+
+/**
+ * Decorates a {@link CacheLoader} to record how often each key is loaded and
+ * how long loading takes.
+ * <p>
+ * The cache never loads a key concurrently, so every load after the first one
+ * for the same key is a reload after eviction: computation wasted because the
+ * cache is too small (or the values are not written back). Wrap the loader
+ * that computes cells (e.g., the one passed to {@code DiskCellCache}) to find
+ * stages that recompute.
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ */
+public class LoadRecordingCacheLoader< K, V > implements CacheLoader< K, V >
+{
+	private final String name;
+
+	private final CacheLoader< K, V > loader;
+
+	private final ConcurrentHashMap< K, AtomicInteger > loadcounts = new ConcurrentHashMap<>();
+
+	private final LongAdder loadcount = new LongAdder();
+
+	private final LongAdder reloadcount = new LongAdder();
+
+	private final LongAdder loadNanos = new LongAdder();
+
+	private final LongAdder reloadNanos = new LongAdder();
+
+	private final LogHistogram histogram = new LogHistogram();
+
+	public LoadRecordingCacheLoader( final String name, final CacheLoader< K, V > loader )
+	{
+		this.name = name;
+		this.loader = loader;
+	}
+
+	@Override
+	public V get( final K key ) throws Exception
+	{
+		final long t0 = System.nanoTime();
+		final V value = loader.get( key );
+		final long t = System.nanoTime() - t0;
+
+		final int count = loadcounts.computeIfAbsent( key, k -> new AtomicInteger() ).incrementAndGet();
+		loadcount.increment();
+		loadNanos.add( t );
+		histogram.add( t );
+		if ( count > 1 )
+		{
+			reloadcount.increment();
+			reloadNanos.add( t );
+		}
+		return value;
+	}
+
+	public String getName()
+	{
+		return name;
+	}
+
+	public long getLoadCount()
+	{
+		return loadcount.sum();
+	}
+
+	/**
+	 * Number of loads of keys that had been loaded before.
+	 */
+	public long getReloadCount()
+	{
+		return reloadcount.sum();
+	}
+
+	public int getLoadCount( final K key )
+	{
+		final AtomicInteger count = loadcounts.get( key );
+		return count == null ? 0 : count.get();
+	}
+
+	/**
+	 * Print a summary and the most often loaded keys.
+	 */
+	public void report( final PrintStream out, final int maxKeys )
+	{
+		final long n = getLoadCount();
+		out.println( String.format( "%s: %d loads of %d keys, %d reloads (%.1f%%, %.1f s wasted)",
+				name, n, loadcounts.size(), getReloadCount(),
+				n == 0 ? 0.0 : 100.0 * getReloadCount() / n, reloadNanos.sum() / 1e9 ) );
+		out.println( String.format( "  load time: total %.1f s, mean %.2f ms, p50 < %.2f ms, p90 < %.2f ms, p99 < %.2f ms",
+				loadNanos.sum() / 1e9, n == 0 ? 0.0 : loadNanos.sum() / 1e6 / n,
+				histogram.percentileMillis( 0.5 ), histogram.percentileMillis( 0.9 ), histogram.percentileMillis( 0.99 ) ) );
+
+		final List< Map.Entry< K, AtomicInteger > > entries = new ArrayList<>( loadcounts.entrySet() );
+		entries.removeIf( e -> e.getValue().get() < 2 );
+		entries.sort( Comparator.comparingInt( ( Map.Entry< K, AtomicInteger > e ) -> e.getValue().get() ).reversed() );
+		for ( final Map.Entry< K, AtomicInteger > e : entries.subList( 0, Math.min( maxKeys, entries.size() ) ) )
+			out.println( "  key " + e.getKey() + " loaded " + e.getValue().get() + " times" );
+	}
+
+	public void report( final PrintStream out )
+	{
+		report( out, 10 );
+	}
+
+	/**
+	 * Print a {@link #report(PrintStream)} to {@code System.out} when the JVM
+	 * shuts down.
+	 */
+	public LoadRecordingCacheLoader< K, V > reportOnShutdown()
+	{
+		Runtime.getRuntime().addShutdownHook( new Thread( () -> report( System.out ), "report " + name ) );
+		return this;
+	}
+}
@@ -0,0 +1,67 @@
+package net.imglib2.cache.lowlevel.examplemetrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of durations with power-of-two buckets. Bucket {@code b}
+ * counts durations in {@code [2^b, 2^(b+1))} nanoseconds, so percentiles are
+ * accurate to within a factor of two.
+ */
+public class LogHistogram
+{
+	private static final int NUM_BUCKETS = 64;
+
+	private final AtomicLongArray counts = new AtomicLongArray( NUM_BUCKETS );
+
+	public void add( final long nanos )
+	{
+		counts.incrementAndGet( bucket( nanos ) );
+	}
+
+	public long getCount()
+	{
+		long n = 0;
+		for ( int b = 0; b < NUM_BUCKETS; ++b )
+			n += counts.get( b );
+		return n;
+	}
+
+	/**
+	 * Upper bound (in nanoseconds) of the bucket containing the
+	 * {@code q}-quantile, or 0 if the histogram is empty.
+	 */
+	public long percentile( final double q )
+	{
+		final long[] c = new long[ NUM_BUCKETS ];
+		long n = 0;
+		for ( int b = 0; b < NUM_BUCKETS; ++b )
+			n += ( c[ b ] = counts.get( b ) );
+		if ( n == 0 )
+			return 0;
+		final long rank = Math.max( 1, ( long ) Math.ceil( q * n ) );
+		long sum = 0;
+		for ( int b = 0; b < NUM_BUCKETS; ++b )
+		{
+			sum += c[ b ];
+			if ( sum >= rank )
+				return b >= 62 ? Long.MAX_VALUE : 1L << ( b + 1 );
+		}
+		return Long.MAX_VALUE;
+	}
+
+	public double percentileMillis( final double q )
+	{
+		return percentile( q ) / 1e6;
+	}
+
+	public void reset()
+	{
+		for ( int b = 0; b < NUM_BUCKETS; ++b )
+			counts.set( b, 0 );
+	}
+
+	private static int bucket( final long nanos )
+	{
+		return nanos <= 0 ? 0 : 63 - Long.numberOfLeadingZeros( nanos );
+	}
+}
@@ -0,0 +1,36 @@
+package net.imglib2.cache.lowlevel.examplemetrics;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.LazyCellImg;
+
+/**
+ * Decorate the cell getters of {@link LazyCellImg} and
+ * {@link VolatileCachedCellImg} to count requests in a {@link CacheMetrics}.
+ */
+public class MeteredGets
+{
+	public static < T > LazyCellImg.Get< T > lazy( final LazyCellImg.Get< T > get, final CacheMetrics metrics )
+	{
+		return index -> {
+			metrics.requests.increment();
+			return get.get( index );
+		};
+	}
+
+	/**
+	 * Also counts the invalid (not yet loaded) cells returned.
+	 */
+	public static < A extends VolatileAccess > VolatileCachedCellImg.Get< Cell< A > > volatiles( final VolatileCachedCellImg.Get< Cell< A > > get, final CacheMetrics metrics )
+	{
+		return ( index, hints ) -> {
+			metrics.requests.increment();
+			metrics.volatileRequests.increment();
+			final Cell< A > cell = get.get( index, hints );
+			if ( !cell.getData().isValid() )
+				metrics.invalidReturns.increment();
+			return cell;
+		};
+	}
+}
@@ -0,0 +1,131 @@
+package net.imglib2.cache.lowlevel.examplemetrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.CacheRemover;
+
+/**
+ * Decorates the loader/remover of a cache (typically {@code IoSync}) to record
+ * misses, load durations, evictions and resident bytes in a
+ * {@link CacheMetrics}.
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ * @param <D>
+ *            value data type
+ */
+public class MeteredLoaderRemover< K, V, D > implements CacheLoader< K, V >, CacheRemover< K, V, D >
+{
+	private final CacheLoader< K, V > loader;
+
+	private final CacheRemover< K, V, D > remover;
+
+	private final CacheMetrics metrics;
+
+	private final ToLongFunction< ? super V > weigher;
+
+	private final ConcurrentHashMap< K, Long > weights = new ConcurrentHashMap<>();
+
+	/**
+	 * @param weigher
+	 *            size of a value in bytes, e.g.,
+	 *            {@code MemoryBudget.cellWeigher(type)}
+	 */
+	public < T extends CacheLoader< K, V > & CacheRemover< K, V, D > > MeteredLoaderRemover(
+			final T io,
+			final CacheMetrics metrics,
+			final ToLongFunction< ? super V > weigher )
+	{
+		this.loader = io;
+		this.remover = io;
+		this.metrics = metrics;
+		this.weigher = weigher;
+	}
+
+	@Override
+	public V get( final K key ) throws Exception
+	{
+		final long t0 = System.nanoTime();
+		final V value;
+		try
+		{
+			value = loader.get( key );
+		}
+		catch ( final Exception e )
+		{
+			metrics.loadFailures.increment();
+			throw e;
+		}
+		final long t = System.nanoTime() - t0;
+		metrics.loads.increment();
+		metrics.loadNanos.add( t );
+		metrics.loadHistogram.add( t );
+
+		final long w = weigher.applyAsLong( value );
+		final Long previous = weights.put( key, w );
+		metrics.bytesResident.addAndGet( previous == null ? w : w - previous );
+		return value;
+	}
+
+	@Override
+	public void onRemoval( final K key, final D valueData )
+	{
+		metrics.evictions.increment();
+		release( key );
+		remover.onRemoval( key, valueData );
+	}
+
+	@Override
+	public CompletableFuture< Void > persist( final K key, final D valueData )
+	{
+		return remover.persist( key, valueData );
+	}
+
+	@Override
+	public D extract( final V value )
+	{
+		return remover.extract( value );
+	}
+
+	@Override
+	public V reconstruct( final K key, final D valueData )
+	{
+		return remover.reconstruct( key, valueData );
+	}
+
+	@Override
+	public void invalidate( final K key )
+	{
+		release( key );
+		remover.invalidate( key );
+	}
+
+	@Override
+	public void invalidateIf( final long parallelismThreshold, final Predicate< K > condition )
+	{
+		weights.keySet().forEach( key -> {
+			if ( condition.test( key ) )
+				release( key );
+		} );
+		remover.invalidateIf( parallelismThreshold, condition );
+	}
+
+	@Override
+	public void invalidateAll( final long parallelismThreshold )
+	{
+		weights.keySet().forEach( this::release );
+		remover.invalidateAll( parallelismThreshold );
+	}
+
+	private void release( final K key )
+	{
+		final Long w = weights.remove( key );
+		if ( w != null )
+			metrics.bytesResident.addAndGet( -w );
+	}
+}
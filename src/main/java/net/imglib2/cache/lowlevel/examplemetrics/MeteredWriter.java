@@ -0,0 +1,124 @@
+package net.imglib2.cache.lowlevel.examplemetrics;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Predicate;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.CacheRemover;
+
+/**
+ * Decorates a disk cache (below {@code IoSync}) to record the number and
+ * duration of write-backs in a {@link CacheMetrics}.
+ * <p>
+ * Only data that the disk cache actually writes is counted. For a
+ * {@code DirtyDiskCellCache}, which skips clean cells, pass
+ * {@code Dirty::isDirty} as {@code isWritten}. Evictions, written or not, are
+ * counted by {@link MeteredLoaderRemover}.
+ *
+ * @param <K>
+ *            key type
+ * @param <V>
+ *            value type
+ * @param <D>
+ *            value data type
+ */
+public class MeteredWriter< K, V, D > implements CacheLoader< K, V >, CacheRemover< K, V, D >
+{
+	private final CacheLoader< K, V > loader;
+
+	private final CacheRemover< K, V, D > remover;
+
+	private final CacheMetrics metrics;
+
+	private final Predicate< ? super D > isWritten;
+
+	/**
+	 * @param isWritten
+	 *            whether {@code io} writes the given data when it is removed
+	 *            or persisted
+	 */
+	public < T extends CacheLoader< K, V > & CacheRemover< K, V, D > > MeteredWriter(
+			final T io,
+			final CacheMetrics metrics,
+			final Predicate< ? super D > isWritten )
+	{
+		this.loader = io;
+		this.remover = io;
+		this.metrics = metrics;
+		this.isWritten = isWritten;
+	}
+
+	/**
+	 * Meter a disk cache that writes all data.
+	 */
+	public < T extends CacheLoader< K, V > & CacheRemover< K, V, D > > MeteredWriter(
+			final T io,
+			final CacheMetrics metrics )
+	{
+		this( io, metrics, d -> true );
+	}
+
+	@Override
+	public V get( final K key ) throws Exception
+	{
+		return loader.get( key );
+	}
+
+	@Override
+	public void onRemoval( final K key, final D valueData )
+	{
+		if ( !isWritten.test( valueData ) )
+		{
+			remover.onRemoval( key, valueData );
+			return;
+		}
+		final long t0 = System.nanoTime();
+		remover.onRemoval( key, valueData );
+		record( System.nanoTime() - t0 );
+	}
+
+	@Override
+	public CompletableFuture< Void > persist( final K key, final D valueData )
+	{
+		if ( !isWritten.test( valueData ) )
+			return remover.persist( key, valueData );
+		final long t0 = System.nanoTime();
+		return remover.persist( key, valueData ).thenRun( () -> record( System.nanoTime() - t0 ) );
+	}
+
+	@Override
+	public D extract( final V value )
+	{
+		return remover.extract( value );
+	}
+
+	@Override
+	public V reconstruct( final K key, final D valueData )
+	{
+		return remover.reconstruct( key, valueData );
+	}
+
+	@Override
+	public void invalidate( final K key )
+	{
+		remover.invalidate( key );
+	}
+
+	@Override
+	public void invalidateIf( final long parallelismThreshold, final Predicate< K > condition )
+	{
+		remover.invalidateIf( parallelismThreshold, condition );
+	}
+
+	@Override
+	public void invalidateAll( final long parallelismThreshold )
+	{
+		remover.invalidateAll( parallelismThreshold );
+	}
+
+	private void record( final long nanos )
+	{
+		metrics.writeBacks.increment();
+		metrics.writeBackNanos.add( nanos );
+		metrics.writeBackHistogram.add( nanos );
+	}
+}
@@ -0,0 +1,123 @@
+package net.imglib2.cache.lowlevel.exampleoffheap;
+
+import java.lang.ref.PhantomReference;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Pool of direct {@link ByteBuffer}s, keyed by capacity.
+ * <p>
+ * Direct buffers cannot be freed explicitly (before Java 14 without internal
+ * API), so instead they are recycled. Every buffer is acquired for an owner,
+ * e.g. the {@link DirectShortArray} that wraps it, and goes back to the pool
+ * once the owner has become unreachable (tracked with a
+ * {@link PhantomReference}). Only then nobody (no cell, no cursor, no linked
+ * type) can still read or write it. Unreachable owners are collected on the
+ * next {@link #acquire(int, Object)}. Up to {@code maxPooledBytes} are kept for
+ * reuse, beyond that buffers are left to the garbage collector.
+ * <p>
+ * Buffers are therefore <em>not</em> freed deterministically when their cell
+ * is evicted. When that happens depends on when the garbage collector finds
+ * the owner unreachable. Until then, the buffers of evicted cells stay
+ * allocated, so the off-heap memory in use can exceed what the cache holds.
+ * Returning a buffer on eviction would require every reader to pin the access
+ * while using it, which {@code LazyCellImg} cursors and BDV do not do.
+ */
+public class DirectBufferPool
+{
+	private final long maxPooledBytes;
+
+	private final Map< Integer, ArrayDeque< ByteBuffer > > pool = new HashMap<>();
+
+	private final ReferenceQueue< Object > unreachable = new ReferenceQueue<>();
+
+	/**
+	 * Keeps the {@link OwnerRef}s reachable until they are enqueued.
+	 */
+	private final Set< OwnerRef > owners = new HashSet<>();
+
+	private long pooledBytes;
+
+	private long numAllocated;
+
+	private long numReused;
+
+	private long numReclaimed;
+
+	private static class OwnerRef extends PhantomReference< Object >
+	{
+		final ByteBuffer buffer;
+
+		OwnerRef( final Object owner, final ByteBuffer buffer, final ReferenceQueue< Object > queue )
+		{
+			super( owner, queue );
+			this.buffer = buffer;
+		}
+	}
+
+	public DirectBufferPool( final long maxPooledBytes )
+	{
+		this.maxPooledBytes = maxPooledBytes;
+	}
+
+	/**
+	 * Get a native-order direct buffer of exactly {@code capacity} bytes. Its
+	 * content is undefined. The buffer is recycled when {@code owner} becomes
+	 * unreachable, so it must not be used anywhere {@code owner} is not.
+	 */
+	public synchronized ByteBuffer acquire( final int capacity, final Object owner )
+	{
+		reclaim();
+		ByteBuffer buffer;
+		final ArrayDeque< ByteBuffer > buffers = pool.get( capacity );
+		if ( buffers != null && !buffers.isEmpty() )
+		{
+			pooledBytes -= capacity;
+			++numReused;
+			buffer = buffers.pop();
+			buffer.clear();
+		}
+		else
+		{
+			++numAllocated;
+			buffer = ByteBuffer.allocateDirect( capacity ).order( ByteOrder.nativeOrder() );
+		}
+		owners.add( new OwnerRef( owner, buffer, unreachable ) );
+		return buffer;
+	}
+
+	/**
+	 * Return the buffers of owners that have become unreachable to the pool.
+	 * Must be called with this pool locked.
+	 */
+	private void reclaim()
+	{
+		Reference< ? > ref;
+		while ( ( ref = unreachable.poll() ) != null )
+		{
+			final OwnerRef owner = ( OwnerRef ) ref;
+			owners.remove( owner );
+			++numReclaimed;
+			final int capacity = owner.buffer.capacity();
+			if ( pooledBytes + capacity <= maxPooledBytes )
+			{
+				pool.computeIfAbsent( capacity, c -> new ArrayDeque<>() ).push( owner.buffer );
+				pooledBytes += capacity;
+			}
+		}
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		reclaim();
+		return String.format( "%d allocated, %d reused, %d reclaimed, %.1f MB pooled", numAllocated, numReused, numReclaimed, pooledBytes / 1e6 );
+	}
+}
@@ -0,0 +1,97 @@
+package net.imglib2.cache.lowlevel.exampleoffheap;
+
+import java.nio.ShortBuffer;
+import net.imglib2.Dirty;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileShortAccess;
+
+/**
+ * A short access backed by a direct (off-heap) buffer from a
+ * {@link DirectBufferPool}.
+ * <p>
+ * Like {@code DirtyShortArray}, every write marks the access dirty. The
+ * access owns its buffer: the pool recycles it only after the garbage
+ * collector has found the access unreachable, not when its cell is evicted.
+ */
+public class DirectShortArray implements VolatileShortAccess, Dirty
+{
+	private final int length;
+
+	private final ShortBuffer data;
+
+	private final boolean isValid;
+
+	private boolean dirty = false;
+
+	public DirectShortArray( final DirectBufferPool pool, final int length, final boolean isValid )
+	{
+		this.length = length;
+		this.data = pool.acquire( 2 * length, this ).asShortBuffer();
+		this.isValid = isValid;
+	}
+
+	public DirectShortArray( final DirectBufferPool pool, final int length )
+	{
+		this( pool, length, true );
+	}
+
+	@Override
+	public short getValue( final int index )
+	{
+		return data.get( index );
+	}
+
+	@Override
+	public void setValue( final int index, final short value )
+	{
+		dirty = true;
+		data.put( index, value );
+	}
+
+	/**
+	 * Fill with {@code value}, without marking the access dirty.
+	 */
+	public void fill( final short value )
+	{
+		for ( int i = 0; i < length; ++i )
+			data.put( i, value );
+	}
+
+	/**
+	 * A view of the backing buffer, positioned at 0 with limit
+	 * {@link #getArrayLength()}. It must not be used after this access has
+	 * become unreachable.
+	 */
+	public ShortBuffer getBuffer()
+	{
+		return data.duplicate();
+	}
+
+	public int getArrayLength()
+	{
+		return length;
+	}
+
+	@Override
+	public boolean isValid()
+	{
+		return isValid;
+	}
+
+	@Override
+	public boolean isDirty()
+	{
+		return dirty;
+	}
+
+	@Override
+	public void setDirty()
+	{
+		dirty = true;
+	}
+
+	@Override
+	public void setDirty( final boolean dirty )
+	{
+		this.dirty = dirty;
+	}
+}
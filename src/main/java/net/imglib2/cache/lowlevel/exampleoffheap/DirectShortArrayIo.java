@@ -0,0 +1,50 @@
+package net.imglib2.cache.lowlevel.exampleoffheap;
+
+import java.nio.ByteBuffer;
+import java.nio.ShortBuffer;
+import net.imglib2.cache.img.AccessIo;
+
+/**
+ * {@link AccessIo} for {@link DirectShortArray}. Cells are copied between the
+ * disk buffer and a pooled direct buffer without going through a
+ * {@code short[]}.
+ */
+public class DirectShortArrayIo implements AccessIo< DirectShortArray >
+{
+	private final DirectBufferPool pool;
+
+	private final boolean isValid;
+
+	public DirectShortArrayIo( final DirectBufferPool pool, final boolean isValid )
+	{
+		this.pool = pool;
+		this.isValid = isValid;
+	}
+
+	public DirectShortArrayIo( final DirectBufferPool pool )
+	{
+		this( pool, true );
+	}
+
+	@Override
+	public DirectShortArray load( final ByteBuffer bytes, final int numElements )
+	{
+		final DirectShortArray access = new DirectShortArray( pool, numElements, isValid );
+		final ShortBuffer shorts = bytes.asShortBuffer();
+		shorts.limit( numElements );
+		access.getBuffer().put( shorts );
+		return access;
+	}
+
+	@Override
+	public void save( final DirectShortArray access, final ByteBuffer out, final int numElements )
+	{
+		out.asShortBuffer().put( access.getBuffer() );
+	}
+
+	@Override
+	public int getBytesPerElement()
+	{
+		return 2;
+	}
+}
@@ -0,0 +1,169 @@
+package net.imglib2.cache.lowlevel.exampleoffheap;
+
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Timer;
+import java.util.TimerTask;
+import net.imglib2.RandomAccessible;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.img.DirtyDiskCellCache;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.lowlevel.examplewritebehind.WriteBehindIoSync;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.img.Img;
+import net.imglib2.img.array.ArrayImgs;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.util.Fraction;
+import net.imglib2.util.Intervals;
+import net.imglib2.util.Util;
+import net.imglib2.view.Views;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+
+/**
+ * The {@code lowlevel.example04} pipeline with cells stored off-heap in
+ * {@link DirectShortArray}s. The loaders write into the direct buffers, and
+ * the buffers of accesses that are no longer referenced (by the cache, the
+ * write-behind queue, or any reader) are recycled through a
+ * {@link DirectBufferPool}. Recycling waits for the garbage collector to find
+ * the access unreachable, so it happens some time after eviction, not at
+ * eviction (see {@link DirectBufferPool}).
+ */
+public class ExampleOffHeap
+{
+	public static class CheckerboardLoader implements CacheLoader< Long, Cell< DirectShortArray > >
+	{
+		private final CellGrid grid;
+
+		private final DirectBufferPool pool;
+
+		public CheckerboardLoader( final CellGrid grid, final DirectBufferPool pool )
+		{
+			this.grid = grid;
+			this.pool = pool;
+		}
+
+		@Override
+		public Cell< DirectShortArray > get( final Long key ) throws Exception
+		{
+			final long index = key;
+
+			final int n = grid.numDimensions();
+			final long[] cellMin = new long[ n ];
+			final int[] cellDims = new int[ n ];
+			grid.getCellDimensions( index, cellMin, cellDims );
+			final int blocksize = ( int ) Intervals.numElements( cellDims );
+			final DirectShortArray array = new DirectShortArray( pool, blocksize );
+
+			final long[] cellGridPosition = new long[ n ];
+			grid.getCellGridPositionFlat( index, cellGridPosition );
+			long sum = 0;
+			for ( int d = 0; d < n; ++d )
+				sum += cellGridPosition[ d ];
+			final short color = ( short ) ( ( sum & 0x01 ) == 0 ? 0x0000 : 0xffff );
+			array.fill( color );
+
+			return new Cell<>( cellDims, cellMin, array );
+		}
+	}
+
+	public static class GaussLoader implements CacheLoader< Long, Cell< DirectShortArray > >
+	{
+		private final CellGrid grid;
+
+		private final RandomAccessible< UnsignedShortType > source;
+
+		private final DirectBufferPool pool;
+
+		public GaussLoader( final CellGrid grid, final RandomAccessible< UnsignedShortType > source, final DirectBufferPool pool )
+		{
+			this.grid = grid;
+			this.source = source;
+			this.pool = pool;
+		}
+
+		@Override
+		public Cell< DirectShortArray > get( final Long key ) throws Exception
+		{
+			final long index = key;
+
+			final int n = grid.numDimensions();
+			final long[] cellMin = new long[ n ];
+			final int[] cellDims = new int[ n ];
+			grid.getCellDimensions( index, cellMin, cellDims );
+
+			final int blocksize = ( int ) Intervals.numElements( cellDims );
+			final DirectShortArray array = new DirectShortArray( pool, blocksize );
+
+			final Img< UnsignedShortType > img = ArrayImgs.unsignedShorts( array, Util.int2long( cellDims ) );
+			Gauss3.gauss( 5, source, Views.translate( img, cellMin ) );
+
+			return new Cell<>( cellDims, cellMin, array );
+		}
+	}
+
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+
+		final DirectBufferPool pool = new DirectBufferPool( 64L << 20 );
+
+		final UnsignedShortType type = new UnsignedShortType();
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Path blockcache = DiskCellCache.createTempDirectory( "CellImg", true );
+		final Fraction entitiesPerPixel = type.getEntitiesPerPixel();
+		final DiskCellCache< DirectShortArray > diskcache = new DirtyDiskCellCache<>(
+				blockcache,
+				grid,
+				new CheckerboardLoader( grid, pool ),
+				new DirectShortArrayIo( pool ),
+				entitiesPerPixel );
+		final WriteBehindIoSync< Cell< DirectShortArray >, DirectShortArray > iosync = new WriteBehindIoSync<>(
+				diskcache, 2, 64, 16 );
+		final UncheckedCache< Long, Cell< DirectShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirectShortArray >, DirectShortArray >( 100 )
+				.withRemover( iosync )
+				.withLoader( iosync )
+				.unchecked();
+		final Img< UnsignedShortType > img = new LazyCellImg<>( grid, new UnsignedShortType(), cache::get );
+
+		final Bdv bdv = BdvFunctions.show( img, "Cached" );
+		bdv.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+
+		final Path blockcache2 = DiskCellCache.createTempDirectory( "Gauss", true );
+		final DiskCellCache< DirectShortArray > diskcache2 = new DiskCellCache<>(
+				blockcache2,
+				grid,
+				new GaussLoader( grid, Views.extendBorder( img ), pool ),
+				new DirectShortArrayIo( pool ),
+				entitiesPerPixel );
+		final WriteBehindIoSync< Cell< DirectShortArray >, DirectShortArray > iosync2 = new WriteBehindIoSync<>(
+				diskcache2, 2, 64, 16 );
+		final UncheckedCache< Long, Cell< DirectShortArray > > cache2 = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirectShortArray >, DirectShortArray >( 100 )
+				.withRemover( iosync2 )
+				.withLoader( iosync2 )
+				.unchecked();
+		final Img< UnsignedShortType > img2 = new LazyCellImg<>( grid, new UnsignedShortType(), cache2::get );
+
+		BdvFunctions.show( img2, "Gauss", BdvOptions.options().addTo( bdv ) );
+
+		new Timer( "DirectBufferPool-stats", true ).schedule( new TimerTask()
+		{
+			@Override
+			public void run()
+			{
+				System.out.println( pool );
+			}
+		}, 5000, 5000 );
+	}
+}
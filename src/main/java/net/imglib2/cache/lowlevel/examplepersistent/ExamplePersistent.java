@@ -0,0 +1,154 @@
+package net.imglib2.cache.lowlevel.examplepersistent;
+
+import bdv.img.cache.CreateInvalidVolatileCell;
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.util.Bdv;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.Callable;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.UncheckedCache;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DirtyDiskCellCache;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.lowlevel.example06.Example06.CheckerboardLoader;
+import net.imglib2.cache.lowlevel.example06.Example06.DiffLoader;
+import net.imglib2.cache.lowlevel.example06.Example06.GaussLoader;
+import net.imglib2.cache.lowlevel.examplecompressed.CellCodec;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.cache.ref.WeakRefVolatileCache;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.CreateInvalid;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.cache.volatiles.VolatileCache;
+import net.imglib2.img.Img;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.array.DirtyShortArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.NativeType;
+import net.imglib2.type.numeric.integer.ShortType;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+import net.imglib2.util.Pair;
+import net.imglib2.util.ValuePair;
+import net.imglib2.view.Views;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.img.basictypeaccess.AccessFlags.VOLATILE;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * Same pipeline as {@code lowlevel.example06}, but the Gauss and difference
+ * stages are stored in a {@link PersistentStore}. Run it twice: the second
+ * run shows the cells computed in the first run without recomputing them.
+ * Changing a sigma invalidates only the affected stages.
+ * <p>
+ * The store root can be given as the first argument.
+ */
+public class ExamplePersistent
+{
+	static < T extends NativeType< T >, V extends NativeType< V > > Pair< Img< T >, Img< V > >
+		createPersistent( final PersistentStore store, final StageKey key, final CacheLoader< Long, Cell< VolatileShortArray > > loader, final T type, final V vtype, final CellGrid grid, final BlockingFetchQueues< Callable< ? > > queue )
+				throws IOException
+	{
+		final PersistentStore.Stage stage = store.open( key );
+
+		final PersistentDiskCellCache< VolatileShortArray > diskcache = new PersistentDiskCellCache<>(
+				stage,
+				grid,
+				loader,
+				AccessIo.get( SHORT, AccessFlags.setOf( VOLATILE ) ),
+				type.getEntitiesPerPixel(),
+				CellCodec.LZ4 );
+		// no IoSync: cells are written synchronously, so that the shutdown
+		// hook only returns once the cells in memory are on disk
+		final Cache< Long, Cell< VolatileShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< VolatileShortArray >, VolatileShortArray >( 1000 )
+				.withRemover( diskcache )
+				.withLoader( diskcache );
+		Runtime.getRuntime().addShutdownHook( new Thread( cache::persistAll ) );
+		final Img< T > img = new LazyCellImg<>( grid, type, cache.unchecked()::get );
+
+		final CreateInvalid< Long, Cell< VolatileShortArray > > createInvalid = CreateInvalidVolatileCell.get( grid, type, false );
+		final VolatileCache< Long, Cell< VolatileShortArray > > volatileCache = new WeakRefVolatileCache<>( cache, queue, createInvalid );
+
+		final CacheHints hints = new CacheHints( LoadingStrategy.VOLATILE, 0, false );
+		final VolatileCachedCellImg< V, ? > vimg = new VolatileCachedCellImg<>( grid, vtype, hints, volatileCache.unchecked()::get );
+
+		return new ValuePair<>( img, vimg );
+	}
+
+	public static void main( final String[] args ) throws IOException
+	{
+		System.setProperty( "apple.laf.useScreenMenuBar", "true" );
+
+		final Path root = args.length > 0
+				? Paths.get( args[ 0 ] )
+				: Paths.get( System.getProperty( "java.io.tmpdir" ), "imglib2-cache-examples-persistent" );
+		final PersistentStore store = new PersistentStore( root );
+
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 640, 640, 640 };
+
+		final UnsignedShortType type = new UnsignedShortType();
+		final VolatileUnsignedShortType vtype = new VolatileUnsignedShortType();
+
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+		final Path blockcache = DiskCellCache.createTempDirectory( "CellImg-", true );
+		final DiskCellCache< DirtyShortArray > diskcache = new DirtyDiskCellCache<>(
+				blockcache,
+				grid,
+				new CheckerboardLoader( grid ),
+				AccessIo.get( SHORT, AccessFlags.setOf( DIRTY ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< DirtyShortArray >, DirtyShortArray > iosync = new IoSync<>( diskcache );
+		final UncheckedCache< Long, Cell< DirtyShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirtyShortArray >, DirtyShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync )
+				.unchecked();
+		final Img< UnsignedShortType > img = new LazyCellImg<>( grid, new UnsignedShortType(), cache::get );
+		final StageKey checkerboardKey = StageKey.builder( "checkerboard" ).grid( grid ).type( type ).build();
+
+		final Bdv bdv = BdvFunctions.show( img, "Cached" );
+		bdv.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+
+		final int maxNumLevels = 1;
+		final int numFetcherThreads = 7;
+		final BlockingFetchQueues< Callable< ? > > queue = new BlockingFetchQueues<>( maxNumLevels, numFetcherThreads );
+		new FetcherThreads( queue, numFetcherThreads );
+
+		final double sigma1 = 5;
+		final double sigma2 = 4;
+		final StageKey gauss1Key = StageKey.builder( "gauss" ).grid( grid ).type( type ).param( "sigma", sigma1 ).param( "extension", "border" ).upstream( checkerboardKey ).build();
+		final StageKey gauss2Key = StageKey.builder( "gauss" ).grid( grid ).type( type ).param( "sigma", sigma2 ).param( "extension", "border" ).upstream( checkerboardKey ).build();
+		final Pair< Img< UnsignedShortType >, Img< VolatileUnsignedShortType > > gauss1 = createPersistent(
+				store, gauss1Key, new GaussLoader( grid, Views.extendBorder( img ), sigma1 ), type, vtype, grid, queue );
+		final Pair< Img< UnsignedShortType >, Img< VolatileUnsignedShortType > > gauss2 = createPersistent(
+				store, gauss2Key, new GaussLoader( grid, Views.extendBorder( img ), sigma2 ), type, vtype, grid, queue );
+
+		BdvFunctions.show( gauss1.getB(), "Gauss 1", BdvOptions.options().addTo( bdv ) );
+		BdvFunctions.show( gauss2.getB(), "Gauss 2", BdvOptions.options().addTo( bdv ) );
+
+		final StageKey diffKey = StageKey.builder( "difference" ).grid( grid ).type( new ShortType() ).param( "offset", 65535 / 4 ).param( "extension", "border" ).upstream( gauss1Key ).upstream( gauss2Key ).build();
+		final Pair< Img< ShortType >, Img< VolatileShortType > > diff = createPersistent(
+				store,
+				diffKey,
+				new DiffLoader( grid, Views.extendBorder( gauss1.getA() ), Views.extendBorder( gauss2.getA() ) ),
+				new ShortType(),
+				new VolatileShortType(),
+				grid,
+				queue );
+		BdvFunctions.show( diff.getB(), "Diff", BdvOptions.options().addTo( bdv ) );
+	}
+}
@@ -0,0 +1,59 @@
+package net.imglib2.cache.lowlevel.examplepersistent;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.lowlevel.examplecompressed.CellCodec;
+import net.imglib2.cache.lowlevel.examplecompressed.CompressedDiskCellCache;
+import net.imglib2.cache.lowlevel.examplecompressed.CorruptCellBlockException;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Fraction;
+
+/**
+ * A {@link CompressedDiskCellCache} in the directory of a
+ * {@link PersistentStore.Stage}. Cells found there are reused across runs.
+ * A cell block that cannot be decoded (e.g. written by an incompatible
+ * version) is deleted and recomputed instead of failing the load.
+ * <p>
+ * Every evicted cell is written, dirty or not. Cells that are still in memory
+ * at shutdown are only written if the cache is
+ * {@link net.imglib2.cache.Cache#persistAll() persisted}.
+ *
+ * @param <A>
+ *            access type
+ */
+public class PersistentDiskCellCache< A > extends CompressedDiskCellCache< A >
+{
+	private final PersistentStore.Stage stage;
+
+	public PersistentDiskCellCache(
+			final PersistentStore.Stage stage,
+			final CellGrid grid,
+			final CacheLoader< Long, ? extends Cell< ? extends A > > backingLoader,
+			final AccessIo< A > accessIo,
+			final Fraction entitiesPerPixel,
+			final CellCodec codec )
+	{
+		super( stage.directory(), grid, backingLoader, accessIo, entitiesPerPixel, codec );
+		this.stage = stage;
+	}
+
+	public PersistentStore.Stage getStage()
+	{
+		return stage;
+	}
+
+	@Override
+	public Cell< A > get( final Long key ) throws Exception
+	{
+		try
+		{
+			return super.get( key );
+		}
+		catch ( final CorruptCellBlockException e )
+		{
+			invalidate( key );
+			return super.get( key );
+		}
+	}
+}
@@ -0,0 +1,202 @@
+package net.imglib2.cache.lowlevel.examplepersistent;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.UUID;
+
+/**
+ * A root directory holding the cells of persistent pipeline stages, one
+ * subdirectory per {@link StageKey}.
+ * <p>
+ * Every stage directory contains a manifest with the stage's
+ * {@link StageKey#descriptor() descriptor}, a random <em>generation</em> and
+ * the generations its upstream stages had when the stage was created.
+ * {@link #open(StageKey)} reuses the cells of a stage only if the descriptor
+ * matches and no upstream stage has been recreated (or
+ * {@link Stage#markModified() modified}) since. Otherwise the stale cells are
+ * deleted and the stage starts over with a new generation. Upstream stages
+ * that are not in this store (for example deterministic sources) are assumed
+ * to never change.
+ */
+public class PersistentStore
+{
+	private static final String MANIFEST = "stage.properties";
+
+	private final Path root;
+
+	public PersistentStore( final Path root ) throws IOException
+	{
+		this.root = root;
+		Files.createDirectories( root );
+	}
+
+	public Path getRoot()
+	{
+		return root;
+	}
+
+	/**
+	 * An opened stage directory.
+	 */
+	public class Stage
+	{
+		private final StageKey key;
+
+		private final Path directory;
+
+		private final boolean reused;
+
+		private final String reason;
+
+		Stage( final StageKey key, final Path directory, final boolean reused, final String reason )
+		{
+			this.key = key;
+			this.directory = directory;
+			this.reused = reused;
+			this.reason = reason;
+		}
+
+		public StageKey key()
+		{
+			return key;
+		}
+
+		public Path directory()
+		{
+			return directory;
+		}
+
+		/**
+		 * Whether previously computed cells were found valid and are reused.
+		 */
+		public boolean isReused()
+		{
+			return reused;
+		}
+
+		/**
+		 * Why previously computed cells were discarded, or {@code null}.
+		 */
+		public String staleReason()
+		{
+			return reason;
+		}
+
+		/**
+		 * Give this stage a new generation. Must be called when cells of the
+		 * stage are modified other than by its loader (e.g. painted), so that
+		 * downstream stages computed from the old cells are detected as stale.
+		 */
+		public void markModified()
+		{
+			final Properties manifest = readManifest( directory );
+			manifest.setProperty( "generation", UUID.randomUUID().toString() );
+			writeManifest( directory, manifest );
+		}
+
+		@Override
+		public String toString()
+		{
+			return key + ( reused ? " (reused)" : reason == null ? " (new)" : " (stale: " + reason + ")" );
+		}
+	}
+
+	/**
+	 * Open the directory of the stage with the given {@code key}, validating
+	 * and, if necessary, clearing previously stored cells. Upstream stages
+	 * that are in this store must be opened first.
+	 */
+	public synchronized Stage open( final StageKey key ) throws IOException
+	{
+		final Path directory = directory( key );
+		final Properties manifest = Files.exists( directory.resolve( MANIFEST ) ) ? readManifest( directory ) : null;
+		final String reason = manifest == null ? null : validate( key, manifest );
+		if ( manifest != null && reason == null )
+			return new Stage( key, directory, true, null );
+
+		Files.createDirectories( directory );
+		clearCells( directory );
+		final Properties fresh = new Properties();
+		fresh.setProperty( "descriptor", key.descriptor() );
+		fresh.setProperty( "generation", UUID.randomUUID().toString() );
+		for ( int i = 0; i < key.upstream().size(); ++i )
+			fresh.setProperty( "upstream." + i + ".generation", currentGeneration( key.upstream().get( i ) ) );
+		writeManifest( directory, fresh );
+		return new Stage( key, directory, false, reason );
+	}
+
+	private Path directory( final StageKey key )
+	{
+		return root.resolve( key.toString() );
+	}
+
+	private String validate( final StageKey key, final Properties manifest )
+	{
+		if ( !key.descriptor().equals( manifest.getProperty( "descriptor" ) ) )
+			return "descriptor mismatch";
+		for ( int i = 0; i < key.upstream().size(); ++i )
+		{
+			final StageKey upstream = key.upstream().get( i );
+			if ( !currentGeneration( upstream ).equals( manifest.getProperty( "upstream." + i + ".generation" ) ) )
+				return "upstream " + upstream + " changed";
+		}
+		return null;
+	}
+
+	private String currentGeneration( final StageKey key )
+	{
+		final Path directory = directory( key );
+		if ( !Files.exists( directory.resolve( MANIFEST ) ) )
+			return "transient";
+		return readManifest( directory ).getProperty( "generation", "" );
+	}
+
+	private static void clearCells( final Path directory ) throws IOException
+	{
+		try ( final DirectoryStream< Path > files = Files.newDirectoryStream( directory ) )
+		{
+			for ( final Path file : files )
+				if ( Files.isRegularFile( file ) )
+					Files.delete( file );
+		}
+	}
+
+	private static Properties readManifest( final Path directory )
+	{
+		final Properties manifest = new Properties();
+		try ( final Reader reader = Files.newBufferedReader( directory.resolve( MANIFEST ), StandardCharsets.UTF_8 ) )
+		{
+			manifest.load( reader );
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+		return manifest;
+	}
+
+	private static void writeManifest( final Path directory, final Properties manifest )
+	{
+		final Path tmp = directory.resolve( MANIFEST + ".tmp" );
+		try
+		{
+			try ( final Writer writer = Files.newBufferedWriter( tmp, StandardCharsets.UTF_8 ) )
+			{
+				manifest.store( writer, null );
+			}
+			Files.move( tmp, directory.resolve( MANIFEST ), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE );
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+	}
+}
@@ -0,0 +1,179 @@
+package net.imglib2.cache.lowlevel.examplepersistent;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * Stable identity of a cached pipeline stage: a name, the loader parameters,
+ * the {@link CellGrid}, the pixel type and the identities of all upstream
+ * stages.
+ * <p>
+ * Two stages with equal {@link #descriptor() descriptors} compute the same
+ * cells, so a {@link PersistentStore} can hand the cells computed for one of
+ * them to the other. The {@link #digest() digest} is used to name the
+ * directory in which the cells are stored.
+ */
+public final class StageKey
+{
+	private final String name;
+
+	private final String descriptor;
+
+	private final String digest;
+
+	private final List< StageKey > upstream;
+
+	private StageKey( final String name, final String descriptor, final List< StageKey > upstream )
+	{
+		this.name = name;
+		this.descriptor = descriptor;
+		this.digest = sha256( descriptor );
+		this.upstream = Collections.unmodifiableList( upstream );
+	}
+
+	public String name()
+	{
+		return name;
+	}
+
+	/**
+	 * Canonical multi-line description of everything that determines the
+	 * cells of this stage.
+	 */
+	public String descriptor()
+	{
+		return descriptor;
+	}
+
+	/**
+	 * Hex SHA-256 of the {@link #descriptor()}.
+	 */
+	public String digest()
+	{
+		return digest;
+	}
+
+	public List< StageKey > upstream()
+	{
+		return upstream;
+	}
+
+	@Override
+	public boolean equals( final Object obj )
+	{
+		return obj instanceof StageKey && ( ( StageKey ) obj ).descriptor.equals( descriptor );
+	}
+
+	@Override
+	public int hashCode()
+	{
+		return descriptor.hashCode();
+	}
+
+	@Override
+	public String toString()
+	{
+		return name + "-" + digest.substring( 0, 16 );
+	}
+
+	public static Builder builder( final String name )
+	{
+		return new Builder( name );
+	}
+
+	public static class Builder
+	{
+		private final String name;
+
+		private final Map< String, String > params = new TreeMap<>();
+
+		private final List< StageKey > upstream = new ArrayList<>();
+
+		private String grid;
+
+		private String type;
+
+		Builder( final String name )
+		{
+			if ( !name.matches( "[A-Za-z0-9_.-]+" ) )
+				throw new IllegalArgumentException( "stage name must be usable as a file name: " + name );
+			this.name = name;
+		}
+
+		public Builder param( final String key, final Object value )
+		{
+			params.put( key, String.valueOf( value ) );
+			return this;
+		}
+
+		public Builder param( final String key, final double... values )
+		{
+			final StringBuilder sb = new StringBuilder();
+			for ( int i = 0; i < values.length; ++i )
+				sb.append( i == 0 ? "" : "," ).append( values[ i ] );
+			params.put( key, sb.toString() );
+			return this;
+		}
+
+		public Builder grid( final CellGrid grid )
+		{
+			final StringBuilder sb = new StringBuilder();
+			for ( int d = 0; d < grid.numDimensions(); ++d )
+				sb.append( d == 0 ? "" : "," ).append( grid.imgDimension( d ) );
+			sb.append( " / " );
+			for ( int d = 0; d < grid.numDimensions(); ++d )
+				sb.append( d == 0 ? "" : "," ).append( grid.cellDimension( d ) );
+			this.grid = sb.toString();
+			return this;
+		}
+
+		public Builder type( final Object type )
+		{
+			this.type = type.getClass().getName();
+			return this;
+		}
+
+		public Builder upstream( final StageKey key )
+		{
+			upstream.add( key );
+			return this;
+		}
+
+		public StageKey build()
+		{
+			if ( grid == null || type == null )
+				throw new IllegalStateException( "grid and type must be set" );
+			final StringBuilder sb = new StringBuilder();
+			sb.append( "stage=" ).append( name ).append( '\n' );
+			sb.append( "type=" ).append( type ).append( '\n' );
+			sb.append( "grid=" ).append( grid ).append( '\n' );
+			params.forEach( ( k, v ) -> sb.append( "param." ).append( k ).append( '=' ).append( v ).append( '\n' ) );
+			for ( int i = 0; i < upstream.size(); ++i )
+				sb.append( "upstream." ).append( i ).append( '=' ).append( upstream.get( i ).digest() ).append( '\n' );
+			return new StageKey( name, sb.toString(), new ArrayList<>( upstream ) );
+		}
+	}
+
+	private static String sha256( final String s )
+	{
+		try
+		{
+			final byte[] hash = MessageDigest.getInstance( "SHA-256" ).digest( s.getBytes( StandardCharsets.UTF_8 ) );
+			final StringBuilder sb = new StringBuilder();
+			for ( final byte b : hash )
+				sb.append( String.format( "%02x", b ) );
+			return sb.toString();
+		}
+		catch ( final NoSuchAlgorithmException e )
+		{
+			throw new IllegalStateException( e );
+		}
+	}
+}
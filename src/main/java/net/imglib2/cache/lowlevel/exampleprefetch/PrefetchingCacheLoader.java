@@ -0,0 +1,93 @@
+package net.imglib2.cache.lowlevel.exampleprefetch;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.FutureTask;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * Decorates the {@link CacheLoader} of a derived stage to load the upstream
+ * cells it depends on in parallel, before computing the cell.
+ * <p>
+ * For every upstream cell in the declared footprint, a task is put to the
+ * front of the {@link BlockingFetchQueues}, so idle fetcher threads pick them
+ * up. The calling thread then runs every task that has not been started yet
+ * itself and waits for the others, so this never waits for a fetcher thread
+ * that is not coming (all fetchers may be busy calling this very method).
+ * Upstream stages that are themselves wrapped like this prefetch their own
+ * dependencies in turn, so a cold request through a deep pipeline takes about
+ * as long as its slowest branch instead of the sum of all stages.
+ *
+ * @param <V>
+ *            value type
+ */
+public class PrefetchingCacheLoader< V > implements CacheLoader< Long, V >
+{
+	private final CellGrid grid;
+
+	private final CacheLoader< Long, V > loader;
+
+	private final List< UpstreamDependency > dependencies;
+
+	private final BlockingFetchQueues< Callable< ? > > queue;
+
+	private final int priority;
+
+	/**
+	 * @param grid
+	 *            grid of the derived stage
+	 * @param loader
+	 *            computes a cell of the derived stage
+	 * @param queue
+	 *            queue of the fetcher threads
+	 * @param priority
+	 *            priority at which upstream cells are enqueued
+	 * @param dependencies
+	 *            what the derived stage reads
+	 */
+	public PrefetchingCacheLoader(
+			final CellGrid grid,
+			final CacheLoader< Long, V > loader,
+			final BlockingFetchQueues< Callable< ? > > queue,
+			final int priority,
+			final UpstreamDependency... dependencies )
+	{
+		this.grid = grid;
+		this.loader = loader;
+		this.queue = queue;
+		this.priority = priority;
+		this.dependencies = Arrays.asList( dependencies );
+	}
+
+	@Override
+	public V get( final Long key ) throws Exception
+	{
+		final int n = grid.numDimensions();
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		grid.getCellDimensions( key, cellMin, cellDims );
+
+		final List< FutureTask< Object > > tasks = new ArrayList<>();
+		for ( final UpstreamDependency dependency : dependencies )
+			dependency.forEachUpstreamCell( cellMin, cellDims, index -> tasks.add( new FutureTask<>( () -> dependency.getGet().get( index ) ) ) );
+
+		for ( int i = 1; i < tasks.size(); ++i )
+		{
+			final FutureTask< Object > task = tasks.get( i );
+			queue.put( () -> {
+				task.run();
+				return null;
+			}, priority, true );
+		}
+		for ( final FutureTask< Object > task : tasks )
+			task.run();
+		for ( final FutureTask< Object > task : tasks )
+			task.get();
+
+		return loader.get( key );
+	}
+}
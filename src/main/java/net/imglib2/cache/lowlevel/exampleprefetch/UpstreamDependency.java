@@ -0,0 +1,77 @@
+package net.imglib2.cache.lowlevel.exampleprefetch;
+
+import java.util.Arrays;
+import java.util.function.LongConsumer;
+import net.imglib2.algorithm.gauss3.Gauss3;
+import net.imglib2.cache.grid.CellRanges;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+
+/**
+ * Declares that computing a cell of a derived stage needs the cells of an
+ * upstream cached image that overlap the cell expanded by {@code halo}.
+ */
+public class UpstreamDependency
+{
+	private final CellGrid grid;
+
+	private final LazyCellImg.Get< ? > get;
+
+	private final int[] halo;
+
+	/**
+	 * @param grid
+	 *            grid of the upstream image
+	 * @param get
+	 *            loads an upstream cell by index, e.g., {@code cache::get}
+	 * @param halo
+	 *            border (per dimension) around a derived cell that is read
+	 *            from upstream
+	 */
+	public UpstreamDependency( final CellGrid grid, final LazyCellImg.Get< ? > get, final int[] halo )
+	{
+		this.grid = grid;
+		this.get = get;
+		this.halo = halo.clone();
+	}
+
+	/**
+	 * Dependency of a Gaussian with the given {@code sigma}.
+	 */
+	public static UpstreamDependency gauss( final CellGrid grid, final LazyCellImg.Get< ? > get, final double sigma )
+	{
+		final double[] s = new double[ grid.numDimensions() ];
+		Arrays.fill( s, sigma );
+		return new UpstreamDependency( grid, get, Gauss3.halfkernelsizes( s ) );
+	}
+
+	/**
+	 * Dependency of a stage that reads exactly the same cell.
+	 */
+	public static UpstreamDependency aligned( final CellGrid grid, final LazyCellImg.Get< ? > get )
+	{
+		return new UpstreamDependency( grid, get, new int[ grid.numDimensions() ] );
+	}
+
+	public LazyCellImg.Get< ? > getGet()
+	{
+		return get;
+	}
+
+	/**
+	 * Call {@code action} with the index of every upstream cell overlapping
+	 * the box {@code min, dims} expanded by the halo.
+	 */
+	public void forEachUpstreamCell( final long[] min, final int[] dims, final LongConsumer action )
+	{
+		final int n = grid.numDimensions();
+		final long[] lo = new long[ n ];
+		final long[] hi = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			lo[ d ] = min[ d ] - halo[ d ];
+			hi[ d ] = min[ d ] + dims[ d ] - 1 + halo[ d ];
+		}
+		CellRanges.forEachCell( grid, lo, hi, action );
+	}
+}
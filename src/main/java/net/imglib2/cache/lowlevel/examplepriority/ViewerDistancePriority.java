@@ -0,0 +1,120 @@
+package net.imglib2.cache.lowlevel.examplepriority;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.viewer.TransformListener;
+import bdv.viewer.ViewerPanel;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.realtransform.AffineTransform3D;
+
+/**
+ * Assigns queue priorities to volatile cell requests by how close the cell is
+ * to what the user is looking at: the screen-space distance of the cell's
+ * bounding box from the center of the current slice, i.e., from the screen
+ * center at depth 0. Cells covering the view center get priority 0, cells
+ * outside the screen (or far from the slice) get the lowest priority of the
+ * queue.
+ * <p>
+ * The view is updated whenever the {@link ViewerPanel} renders a frame. At
+ * that point, all requests still waiting in the queue are moved to the
+ * prefetch level by {@link BlockingFetchQueues#clearToPrefetch()}, so that the
+ * next frame re-enqueues the cells it still needs with their new priorities.
+ * This is what BDV does for the queues it manages itself.
+ */
+public class ViewerDistancePriority implements TransformListener< AffineTransform3D >
+{
+	private static class View
+	{
+		final AffineTransform3D transform;
+
+		final double cx;
+
+		final double cy;
+
+		final double radius;
+
+		View( final AffineTransform3D transform, final int width, final int height )
+		{
+			this.transform = transform;
+			cx = 0.5 * width;
+			cy = 0.5 * height;
+			radius = Math.max( 1, Math.sqrt( cx * cx + cy * cy ) );
+		}
+	}
+
+	private final ViewerPanel viewer;
+
+	private final BlockingFetchQueues< ? > queue;
+
+	private final int numPriorities;
+
+	private volatile View view;
+
+	public ViewerDistancePriority( final ViewerPanel viewer, final BlockingFetchQueues< ? > queue )
+	{
+		this.viewer = viewer;
+		this.queue = queue;
+		this.numPriorities = queue.getNumPriorities();
+		viewer.renderTransformListeners().add( this );
+	}
+
+	@Override
+	public void transformChanged( final AffineTransform3D transform )
+	{
+		view = new View( transform.copy(), viewer.getDisplay().getWidth(), viewer.getDisplay().getHeight() );
+		queue.clearToPrefetch();
+	}
+
+	/**
+	 * Get the queue priority of cell {@code index} of {@code grid} for the
+	 * current view, or {@code -1} if nothing has been rendered yet.
+	 */
+	public int priority( final CellGrid grid, final long index )
+	{
+		final View v = view;
+		if ( v == null )
+			return -1;
+
+		final int n = grid.numDimensions();
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		grid.getCellDimensions( index, cellMin, cellDims );
+
+		// distance of the transformed bounding box from (cx, cy, 0)
+		final double[] p = { v.cx, v.cy, 0 };
+		double sqDistance = 0;
+		for ( int r = 0; r < 3; ++r )
+		{
+			double center = v.transform.get( r, 3 );
+			double extent = 0;
+			for ( int c = 0; c < Math.min( n, 3 ); ++c )
+			{
+				final double a = v.transform.get( r, c );
+				final double half = 0.5 * cellDims[ c ];
+				center += a * ( cellMin[ c ] + half );
+				extent += Math.abs( a ) * half;
+			}
+			final double g = Math.max( 0, Math.abs( center - p[ r ] ) - extent );
+			sqDistance += g * g;
+		}
+
+		final double distance = Math.sqrt( sqDistance ) / v.radius;
+		return ( int ) Math.min( numPriorities - 1, numPriorities * distance );
+	}
+
+	/**
+	 * Wrap {@code get} such that cells are requested with the
+	 * {@link #priority(CellGrid, long) priority} of the current view instead
+	 * of the fixed priority of the {@link CacheHints} of the image.
+	 */
+	public < T > VolatileCachedCellImg.Get< T > prioritize( final CellGrid grid, final VolatileCachedCellImg.Get< T > get )
+	{
+		return ( index, hints ) -> {
+			final int priority = priority( grid, index );
+			return priority < 0
+					? get.get( index, hints )
+					: get.get( index, new CacheHints( hints.getLoadingStrategy(), priority, hints.isEnqueuToFront() ) );
+		};
+	}
+}
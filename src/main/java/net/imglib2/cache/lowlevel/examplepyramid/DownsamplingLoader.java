@@ -0,0 +1,111 @@
+package net.imglib2.cache.lowlevel.examplepyramid;
+
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGather;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.util.Intervals;
+
+/**
+ * Computes a cell of a pyramid level by averaging {@code 2^n} blocks of the
+ * (unsigned short) level below. The {@code 2x} box of finer pixels is copied
+ * into a flat {@code short[]} with {@link HaloGather}, which border-extends
+ * it where the finer level has odd size.
+ */
+public class DownsamplingLoader implements CacheLoader< Long, Cell< VolatileShortArray > >
+{
+	private final CellGrid grid;
+
+	private final HaloGather finer;
+
+	/**
+	 * @param grid
+	 *            grid of the level to compute
+	 * @param finer
+	 *            the level below
+	 */
+	public DownsamplingLoader( final CellGrid grid, final HaloGather finer )
+	{
+		this.grid = grid;
+		this.finer = finer;
+	}
+
+	/**
+	 * Grid of the level above the one with the given {@code grid}: half the
+	 * size (rounded up), same cell size.
+	 */
+	public static CellGrid createGrid( final CellGrid finerGrid )
+	{
+		final int n = finerGrid.numDimensions();
+		final long[] dimensions = new long[ n ];
+		final int[] cellDimensions = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			dimensions[ d ] = ( finerGrid.imgDimension( d ) + 1 ) / 2;
+			cellDimensions[ d ] = finerGrid.cellDimension( d );
+		}
+		return new CellGrid( dimensions, cellDimensions );
+	}
+
+	@Override
+	public Cell< VolatileShortArray > get( final Long key ) throws Exception
+	{
+		final long index = key;
+
+		final int n = grid.numDimensions();
+		final long[] cellMin = new long[ n ];
+		final int[] cellDims = new int[ n ];
+		grid.getCellDimensions( index, cellMin, cellDims );
+
+		final long[] inMin = new long[ n ];
+		final int[] inDims = new int[ n ];
+		for ( int d = 0; d < n; ++d )
+		{
+			inMin[ d ] = 2 * cellMin[ d ];
+			inDims[ d ] = 2 * cellDims[ d ];
+		}
+		final short[] input = new short[ ( int ) Intervals.numElements( inDims ) ];
+		finer.gather( inMin, inDims, input );
+
+		// offsets of the 2^n corners of a block, and input steps per output step
+		final int numCorners = 1 << n;
+		final int[] corners = new int[ numCorners ];
+		final int[] inSteps = new int[ n ];
+		int inStride = 1;
+		for ( int d = 0; d < n; ++d )
+		{
+			for ( int c = 0; c < numCorners; ++c )
+				if ( ( c & ( 1 << d ) ) != 0 )
+					corners[ c ] += inStride;
+			inSteps[ d ] = 2 * inStride;
+			inStride *= inDims[ d ];
+		}
+
+		final int blocksize = ( int ) Intervals.numElements( cellDims );
+		final VolatileShortArray array = new VolatileShortArray( blocksize, true );
+		final short[] output = array.getCurrentStorageArray();
+
+		final int[] pos = new int[ n ];
+		int in = 0;
+		for ( int o = 0; o < blocksize; ++o )
+		{
+			int sum = 0;
+			for ( int c = 0; c < numCorners; ++c )
+				sum += input[ in + corners[ c ] ] & 0xffff;
+			output[ o ] = ( short ) ( ( sum + numCorners / 2 ) >> n );
+
+			// advance to the next output pixel
+			for ( int d = 0; d < n; ++d )
+			{
+				in += inSteps[ d ];
+				if ( ++pos[ d ] < cellDims[ d ] )
+					break;
+				in -= pos[ d ] * inSteps[ d ];
+				pos[ d ] = 0;
+			}
+		}
+
+		return new Cell<>( cellDims, cellMin, array );
+	}
+}
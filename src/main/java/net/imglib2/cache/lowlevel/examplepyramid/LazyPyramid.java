@@ -0,0 +1,162 @@
+package net.imglib2.cache.lowlevel.examplepyramid;
+
+import bdv.img.cache.CreateInvalidVolatileCell;
+import bdv.img.cache.VolatileCachedCellImg;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGather;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.cache.ref.WeakRefVolatileCache;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.CreateInvalid;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.cache.volatiles.VolatileCache;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileShortArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.integer.UnsignedShortType;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+
+import static net.imglib2.img.basictypeaccess.AccessFlags.VOLATILE;
+import static net.imglib2.type.PrimitiveType.SHORT;
+
+/**
+ * A mipmap pyramid over a cached (unsigned short) image. Level {@code l+1} is
+ * a cached image whose cells are computed by {@link DownsamplingLoader} from
+ * level {@code l}, so a coarse cell only causes the finer cells below it to be
+ * computed, and only when it is first requested.
+ * <p>
+ * The levels share one {@link BlockingFetchQueues} that must have (at least)
+ * {@link #numLevels()} priority levels. Volatile requests for level {@code l}
+ * are enqueued with priority {@link #priority(int) numLevels - 1 - l}, i.e.,
+ * coarse data is loaded first.
+ */
+public class LazyPyramid
+{
+	private final int numLevels;
+
+	private final List< LazyCellImg< UnsignedShortType, ? > > levels = new ArrayList<>();
+
+	private final List< RandomAccessibleInterval< VolatileUnsignedShortType > > volatileLevels = new ArrayList<>();
+
+	/**
+	 * @param level0
+	 *            the full resolution image
+	 * @param volatileLevel0
+	 *            volatile view of {@code level0}
+	 * @param numLevels
+	 *            number of levels, including level 0
+	 * @param queue
+	 *            fetch queue with at least {@code numLevels} priority levels
+	 */
+	public LazyPyramid(
+			final LazyCellImg< UnsignedShortType, ? > level0,
+			final RandomAccessibleInterval< VolatileUnsignedShortType > volatileLevel0,
+			final int numLevels,
+			final BlockingFetchQueues< Callable< ? > > queue )
+	{
+		this.numLevels = numLevels;
+		levels.add( level0 );
+		volatileLevels.add( volatileLevel0 );
+		for ( int l = 1; l < numLevels; ++l )
+		{
+			final LazyCellImg< UnsignedShortType, ? > finer = levels.get( l - 1 );
+			final CellGrid grid = DownsamplingLoader.createGrid( finer.getCellGrid() );
+			createLevel( "Level" + l + "-", grid, new DownsamplingLoader( grid, new HaloGather( finer ) ), priority( l ), queue );
+		}
+	}
+
+	public int numLevels()
+	{
+		return numLevels;
+	}
+
+	public LazyCellImg< UnsignedShortType, ? > getLevel( final int level )
+	{
+		return levels.get( level );
+	}
+
+	public RandomAccessibleInterval< VolatileUnsignedShortType > getVolatileLevel( final int level )
+	{
+		return volatileLevels.get( level );
+	}
+
+	/**
+	 * Queue priority of the given level (0 is the highest).
+	 */
+	public int priority( final int level )
+	{
+		return numLevels - 1 - level;
+	}
+
+	/**
+	 * Downsampling factor of the given level relative to level 0, per
+	 * dimension.
+	 */
+	public double[] scale( final int level )
+	{
+		final int n = levels.get( 0 ).numDimensions();
+		final double[] scale = new double[ n ];
+		for ( int d = 0; d < n; ++d )
+			scale[ d ] = 1 << level;
+		return scale;
+	}
+
+	/**
+	 * A multiresolution BDV source showing the volatile levels.
+	 */
+	public PyramidSource createSource( final String name )
+	{
+		return new PyramidSource( this, name );
+	}
+
+	private void createLevel(
+			final String name,
+			final CellGrid grid,
+			final DownsamplingLoader loader,
+			final int priority,
+			final BlockingFetchQueues< Callable< ? > > queue )
+	{
+		final UnsignedShortType type = new UnsignedShortType();
+		final VolatileUnsignedShortType vtype = new VolatileUnsignedShortType();
+
+		final Path blockcache;
+		try
+		{
+			blockcache = DiskCellCache.createTempDirectory( name, true );
+		}
+		catch ( final IOException e )
+		{
+			throw new UncheckedIOException( e );
+		}
+		final DiskCellCache< VolatileShortArray > diskcache = new DiskCellCache<>(
+				blockcache,
+				grid,
+				loader,
+				AccessIo.get( SHORT, AccessFlags.setOf( VOLATILE ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< VolatileShortArray >, VolatileShortArray > iosync = new IoSync<>( diskcache );
+		final Cache< Long, Cell< VolatileShortArray > > cache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< VolatileShortArray >, VolatileShortArray >( 1000 )
+				.withRemover( iosync )
+				.withLoader( iosync );
+		levels.add( new LazyCellImg<>( grid, type, cache.unchecked()::get ) );
+
+		final CreateInvalid< Long, Cell< VolatileShortArray > > createInvalid = CreateInvalidVolatileCell.get( grid, type, false );
+		final VolatileCache< Long, Cell< VolatileShortArray > > volatileCache = new WeakRefVolatileCache<>( cache, queue, createInvalid );
+
+		final CacheHints hints = new CacheHints( LoadingStrategy.VOLATILE, priority, false );
+		volatileLevels.add( new VolatileCachedCellImg<>( grid, vtype, hints, volatileCache.unchecked()::get ) );
+	}
+}
@@ -0,0 +1,77 @@
+package net.imglib2.cache.lowlevel.examplepyramid;
+
+import bdv.util.RandomAccessibleIntervalMipmapSource;
+import bdv.viewer.render.DefaultMipmapOrdering;
+import bdv.viewer.render.MipmapOrdering;
+import java.util.ArrayList;
+import java.util.List;
+import mpicbg.spim.data.sequence.FinalVoxelDimensions;
+import net.imglib2.RandomAccessibleInterval;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.realtransform.AffineTransform3D;
+import net.imglib2.type.volatiles.VolatileUnsignedShortType;
+
+/**
+ * Multiresolution BDV source over the volatile levels of a
+ * {@link LazyPyramid}.
+ * <p>
+ * BDV decides which levels to render and sets their {@link CacheHints}
+ * through {@link MipmapOrdering}. This takes the {@link DefaultMipmapOrdering}
+ * choice of levels and render order, but replaces the queue priority by
+ * {@link LazyPyramid#priority(int)}, so the coarse levels (which are cheap
+ * and cover the screen quickly) are fetched before the finer ones.
+ */
+public class PyramidSource extends RandomAccessibleIntervalMipmapSource< VolatileUnsignedShortType > implements MipmapOrdering
+{
+	private final LazyPyramid pyramid;
+
+	private final MipmapOrdering defaultOrdering;
+
+	PyramidSource( final LazyPyramid pyramid, final String name )
+	{
+		super( levels( pyramid ), new VolatileUnsignedShortType(), scales( pyramid ), new FinalVoxelDimensions( "px", 1, 1, 1 ), name );
+		this.pyramid = pyramid;
+		this.defaultOrdering = new DefaultMipmapOrdering( this );
+	}
+
+	@Override
+	public MipmapHints getMipmapHints( final AffineTransform3D screenTransform, final int timepoint, final int previousTimepoint )
+	{
+		final MipmapHints hints = defaultOrdering.getMipmapHints( screenTransform, timepoint, previousTimepoint );
+		final List< Level > levels = new ArrayList<>();
+		for ( final Level level : hints.getLevels() )
+		{
+			final int priority = pyramid.priority( level.getMipmapLevel() );
+			levels.add( new Level(
+					level.getMipmapLevel(),
+					level.getRenderOrder(),
+					withPriority( level.getPrefetchCacheHints(), priority ),
+					withPriority( level.getRenderCacheHints(), priority ) ) );
+		}
+		return new MipmapHints( levels, hints.renewHintsAfterPaintingOnce() );
+	}
+
+	private static CacheHints withPriority( final CacheHints hints, final int priority )
+	{
+		return hints == null
+				? null
+				: new CacheHints( hints.getLoadingStrategy(), priority, hints.isEnqueuToFront() );
+	}
+
+	@SuppressWarnings( "unchecked" )
+	private static RandomAccessibleInterval< VolatileUnsignedShortType >[] levels( final LazyPyramid pyramid )
+	{
+		final RandomAccessibleInterval< VolatileUnsignedShortType >[] levels = new RandomAccessibleInterval[ pyramid.numLevels() ];
+		for ( int l = 0; l < levels.length; ++l )
+			levels[ l ] = pyramid.getVolatileLevel( l );
+		return levels;
+	}
+
+	private static double[][] scales( final LazyPyramid pyramid )
+	{
+		final double[][] scales = new double[ pyramid.numLevels() ][];
+		for ( int l = 0; l < scales.length; ++l )
+			scales[ l ] = pyramid.scale( l );
+		return scales;
+	}
+}
@@ -0,0 +1,100 @@
+package net.imglib2.cache.lowlevel.examplevirtual;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import net.imglib2.cache.CacheLoader;
+
+/**
+ * Decorators for {@link CacheLoader}s run by {@link VirtualFetcherThreads}.
+ */
+public class BlockingLoaders
+{
+	private static final long MAX_WAIT_MILLIS = 1000;
+
+	private static final ThreadLocal< Boolean > onPlatformPool = ThreadLocal.withInitial( () -> false );
+
+	/**
+	 * Decorate {@code loader} such that at most {@code maxConcurrent} calls run
+	 * at a time. Further calls block, which is cheap on a virtual thread unless
+	 * it holds a monitor, e.g., when called by a cache (see
+	 * {@link VirtualFetcherThreads}).
+	 */
+	public static < K, V > CacheLoader< K, V > limit( final CacheLoader< K, V > loader, final int maxConcurrent )
+	{
+		final Semaphore permits = new Semaphore( maxConcurrent );
+		return key -> {
+			permits.acquire();
+			try
+			{
+				return loader.get( key );
+			}
+			finally
+			{
+				permits.release();
+			}
+		};
+	}
+
+	/**
+	 * Decorate {@code loader} such that it runs on {@code pool}, a bounded pool
+	 * of platform threads, while the calling (virtual) thread waits. Loads
+	 * nested in a load that already runs on the pool run directly.
+	 * <p>
+	 * If the load has not started on the pool within a second, it runs on the
+	 * calling thread instead: all threads of the pool might be waiting for the
+	 * very cell it is about to load (through the cache).
+	 */
+	public static < K, V > CacheLoader< K, V > onPlatformPool( final CacheLoader< K, V > loader, final Executor pool )
+	{
+		return key -> {
+			if ( onPlatformPool.get() )
+				return loader.get( key );
+
+			final AtomicBoolean claimed = new AtomicBoolean();
+			final CompletableFuture< V > result = new CompletableFuture<>();
+			pool.execute( () -> {
+				if ( !claimed.compareAndSet( false, true ) )
+					return;
+				onPlatformPool.set( true );
+				try
+				{
+					result.complete( loader.get( key ) );
+				}
+				catch ( final Throwable t )
+				{
+					result.completeExceptionally( t );
+				}
+				finally
+				{
+					onPlatformPool.set( false );
+				}
+			} );
+
+			try
+			{
+				try
+				{
+					return result.get( MAX_WAIT_MILLIS, TimeUnit.MILLISECONDS );
+				}
+				catch ( final TimeoutException e )
+				{
+					if ( claimed.compareAndSet( false, true ) )
+						return loader.get( key );
+				}
+				return result.get();
+			}
+			catch ( final ExecutionException e )
+			{
+				final Throwable cause = e.getCause();
+				if ( cause instanceof Exception )
+					throw ( Exception ) cause;
+				throw e;
+			}
+		};
+	}
+}
@@ -0,0 +1,165 @@
+package net.imglib2.cache.lowlevel.examplevirtual;
+
+import bdv.img.cache.CreateInvalidVolatileCell;
+import bdv.img.cache.VolatileCachedCellImg;
+import bdv.util.BdvFunctions;
+import bdv.util.BdvOptions;
+import bdv.util.BdvSource;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.LongPredicate;
+import net.imglib2.FinalInterval;
+import net.imglib2.Interval;
+import net.imglib2.cache.Cache;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.IoSync;
+import net.imglib2.cache.examplehttp.ExampleHTTP;
+import net.imglib2.cache.examplehttp.GradientMagnitudeLoader;
+import net.imglib2.cache.examplehttp.HTTPLoader;
+import net.imglib2.cache.img.AccessIo;
+import net.imglib2.cache.img.DirtyDiskCellCache;
+import net.imglib2.cache.img.DiskCellCache;
+import net.imglib2.cache.img.LoadedCellCacheLoader;
+import net.imglib2.cache.lowlevel.examplehalo.HaloGather;
+import net.imglib2.cache.lowlevel.exampleprefetch.UpstreamDependency;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.ref.GuardedStrongRefLoaderRemoverCache;
+import net.imglib2.cache.ref.WeakRefVolatileCache;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.cache.volatiles.VolatileCache;
+import net.imglib2.img.basictypeaccess.AccessFlags;
+import net.imglib2.img.basictypeaccess.volatiles.array.DirtyVolatileByteArray;
+import net.imglib2.img.basictypeaccess.volatiles.array.VolatileFloatArray;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+import net.imglib2.img.cell.LazyCellImg;
+import net.imglib2.type.numeric.integer.UnsignedByteType;
+import net.imglib2.type.numeric.real.FloatType;
+import net.imglib2.type.volatiles.VolatileFloatType;
+import net.imglib2.type.volatiles.VolatileUnsignedByteType;
+import net.imglib2.util.Intervals;
+
+import static bdv.viewer.DisplayMode.SINGLE;
+import static net.imglib2.img.basictypeaccess.AccessFlags.DIRTY;
+import static net.imglib2.img.basictypeaccess.AccessFlags.VOLATILE;
+import static net.imglib2.type.PrimitiveType.BYTE;
+import static net.imglib2.type.PrimitiveType.FLOAT;
+
+/**
+ * {@code ExampleHTTP} on the low-level cache stack, with
+ * {@link VirtualFetcherThreads}. Up to 256 HTTP requests are in flight at a
+ * time, each parking a virtual thread instead of blocking a platform fetcher
+ * thread. The HTTP responses are downloaded by a {@link RawPrefetcher} before
+ * the cells are requested from the caches, so the downloads do not block
+ * while a cache holds a monitor. An HTTP cell is loaded once its response is
+ * there, a gradient cell once the responses of all HTTP cells it reads are
+ * there. The gradients are computed on a pool with one platform thread per
+ * core.
+ */
+public class ExampleVirtual
+{
+	public static void main( final String[] args ) throws IOException
+	{
+		final long[] minPoint = { 1728, 1536, 1344 };
+		final long[] offset = Arrays.stream( minPoint ).map( p -> p * 2 ).toArray();
+		final int[] cellDimensions = new int[] { 64, 64, 64 };
+		final long[] dimensions = new long[] { 300, 300, 300 };
+		final CellGrid grid = new CellGrid( dimensions, cellDimensions );
+
+		// without virtual threads, every request in flight is a platform thread
+		final int maxInFlight = VirtualFetcherThreads.isSupported() ? 1000 : 32;
+		final int maxNumLevels = 1;
+		final BlockingFetchQueues< Callable< ? > > queue = new BlockingFetchQueues<>( maxNumLevels, maxInFlight );
+		new VirtualFetcherThreads( queue, maxInFlight );
+
+		final int numProc = Runtime.getRuntime().availableProcessors();
+		final ExecutorService platformPool = Executors.newFixedThreadPool( numProc, r -> {
+			final Thread t = new Thread( r, "Gradient" );
+			t.setDaemon( true );
+			return t;
+		} );
+
+		/*
+		 * HTTP
+		 */
+		final HTTPLoader< DirtyVolatileByteArray > http = ExampleHTTP.createHttpFunctor( offset );
+		final RawPrefetcher< byte[] > responses = new RawPrefetcher<>(
+				BlockingLoaders.limit( index -> http.fetch( cellInterval( grid, index ) ), 256 ),
+				VirtualFetcherThreads.newExecutor( "HTTP-" ),
+				1000 );
+		final CacheLoader< Long, Cell< DirtyVolatileByteArray > > httpLoader = index -> {
+			final Interval interval = cellInterval( grid, index );
+			return new Cell<>( Intervals.dimensionsAsIntArray( interval ), Intervals.minAsLongArray( interval ), http.toAccess( interval, responses.take( index ) ) );
+		};
+		final UnsignedByteType type = new UnsignedByteType();
+		final Path httpBlockcache = DiskCellCache.createTempDirectory( "HTTP-", true );
+		final DiskCellCache< DirtyVolatileByteArray > httpDiskcache = new DirtyDiskCellCache<>(
+				httpBlockcache,
+				grid,
+				httpLoader,
+				AccessIo.get( BYTE, AccessFlags.setOf( DIRTY, VOLATILE ) ),
+				type.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< DirtyVolatileByteArray >, DirtyVolatileByteArray > httpIosync = new IoSync<>( httpDiskcache );
+		final Cache< Long, Cell< DirtyVolatileByteArray > > httpCache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< DirtyVolatileByteArray >, DirtyVolatileByteArray >( 1000 )
+				.withRemover( httpIosync )
+				.withLoader( httpIosync );
+		final LazyCellImg< UnsignedByteType, DirtyVolatileByteArray > httpImg = new LazyCellImg<>( grid, type, httpCache.unchecked()::get );
+
+		final VolatileCache< Long, Cell< DirtyVolatileByteArray > > httpVolatileCache = new WeakRefVolatileCache<>(
+				httpCache, queue, CreateInvalidVolatileCell.get( grid, type, true ) );
+		final LongPredicate isHttpLoaded = index -> httpCache.getIfPresent( index ) != null;
+		final VolatileCachedCellImg< VolatileUnsignedByteType, ? > vhttpImg = new VolatileCachedCellImg<>(
+				grid, new VolatileUnsignedByteType(), new CacheHints( LoadingStrategy.VOLATILE, 0, false ),
+				responses.whenReady( httpVolatileCache.unchecked()::get, grid, UpstreamDependency.aligned( grid, httpCache.unchecked()::get ), isHttpLoaded ) );
+
+		/*
+		 * Gradient magnitude
+		 */
+		final FloatType gradientType = new FloatType();
+		final CacheLoader< Long, Cell< VolatileFloatArray > > gradientLoader = LoadedCellCacheLoader.get(
+				grid, new GradientMagnitudeLoader( new HaloGather( httpImg ), BYTE ), gradientType, AccessFlags.setOf( VOLATILE ) );
+		// the HTTP cells read by a gradient cell
+		final UpstreamDependency halo = new UpstreamDependency( grid, httpCache.unchecked()::get, new int[] { 1, 1, 1 } );
+		final Path gradientBlockcache = DiskCellCache.createTempDirectory( "Gradient-", true );
+		final DiskCellCache< VolatileFloatArray > gradientDiskcache = new DiskCellCache<>(
+				gradientBlockcache,
+				grid,
+				BlockingLoaders.onPlatformPool( gradientLoader, platformPool ),
+				AccessIo.get( FLOAT, AccessFlags.setOf( VOLATILE ) ),
+				gradientType.getEntitiesPerPixel() );
+		final IoSync< Long, Cell< VolatileFloatArray >, VolatileFloatArray > gradientIosync = new IoSync<>( gradientDiskcache );
+		final Cache< Long, Cell< VolatileFloatArray > > gradientCache = new GuardedStrongRefLoaderRemoverCache< Long, Cell< VolatileFloatArray >, VolatileFloatArray >( 1000 )
+				.withRemover( gradientIosync )
+				.withLoader( gradientIosync );
+
+		final VolatileCache< Long, Cell< VolatileFloatArray > > gradientVolatileCache = new WeakRefVolatileCache<>(
+				gradientCache, queue, CreateInvalidVolatileCell.get( grid, gradientType, false ) );
+		final VolatileCachedCellImg< VolatileFloatType, ? > vgradientImg = new VolatileCachedCellImg<>(
+				grid, new VolatileFloatType(), new CacheHints( LoadingStrategy.VOLATILE, 0, false ),
+				responses.whenReady( gradientVolatileCache.unchecked()::get, grid, halo, isHttpLoaded ) );
+
+		final BdvSource httpSource = BdvFunctions.show( vhttpImg, "dvid" );
+		final BdvSource gradientSource = BdvFunctions.show( vgradientImg, "gradient", BdvOptions.options().addTo( httpSource ) );
+
+		httpSource.getBdvHandle().getViewerPanel().setDisplayMode( SINGLE );
+		httpSource.setDisplayRange( 0.0, 255.0 );
+		gradientSource.setDisplayRange( 0.0, 30.0 );
+	}
+
+	private static Interval cellInterval( final CellGrid grid, final long index )
+	{
+		final int n = grid.numDimensions();
+		final long[] min = new long[ n ];
+		final int[] dims = new int[ n ];
+		grid.getCellDimensions( index, min, dims );
+		final long[] max = new long[ n ];
+		for ( int d = 0; d < n; ++d )
+			max[ d ] = min[ d ] + dims[ d ] - 1;
+		return new FinalInterval( min, max );
+	}
+}
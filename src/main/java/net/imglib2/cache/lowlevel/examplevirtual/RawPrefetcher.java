@@ -0,0 +1,158 @@
+package net.imglib2.cache.lowlevel.examplevirtual;
+
+import bdv.img.cache.VolatileCachedCellImg;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.function.LongPredicate;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.lowlevel.exampleprefetch.UpstreamDependency;
+import net.imglib2.cache.volatiles.CacheHints;
+import net.imglib2.cache.volatiles.LoadingStrategy;
+import net.imglib2.img.basictypeaccess.volatiles.VolatileAccess;
+import net.imglib2.img.cell.Cell;
+import net.imglib2.img.cell.CellGrid;
+
+/**
+ * Fetches the raw data of cells (e.g., HTTP responses) on virtual threads
+ * before the cells are requested from the cache, such that the cache loader
+ * only has to take the result.
+ * <p>
+ * Cache loaders run while the cache holds monitors (see
+ * {@link VirtualFetcherThreads}). On Java 21 to 23, a virtual thread that
+ * blocks while holding a monitor pins its carrier thread. Fetching here
+ * instead happens without any lock held, so the number of requests in flight
+ * is not limited by the number of carrier threads.
+ *
+ * @param <R>
+ *            raw data type
+ */
+public class RawPrefetcher< R >
+{
+	private static final CacheHints DONTLOAD = new CacheHints( LoadingStrategy.DONTLOAD, 0, false );
+
+	private final CacheLoader< Long, R > fetch;
+
+	private final Executor executor;
+
+	private final Map< Long, CompletableFuture< R > > pending;
+
+	/**
+	 * @param fetch
+	 *            blocking fetch of the raw data of a cell, by cell index
+	 * @param executor
+	 *            runs the fetches, e.g., with a virtual thread per task
+	 * @param maxPending
+	 *            how many fetched results to keep until they are taken. The
+	 *            oldest are dropped (and fetched again when taken).
+	 */
+	public RawPrefetcher( final CacheLoader< Long, R > fetch, final Executor executor, final int maxPending )
+	{
+		this.fetch = fetch;
+		this.executor = executor;
+		pending = new LinkedHashMap< Long, CompletableFuture< R > >()
+		{
+			@Override
+			protected boolean removeEldestEntry( final Map.Entry< Long, CompletableFuture< R > > eldest )
+			{
+				return size() > maxPending;
+			}
+		};
+	}
+
+	/**
+	 * Start fetching the raw data of cell {@code index} unless already
+	 * started, and return whether it is available.
+	 */
+	public boolean prefetch( final long index )
+	{
+		final CompletableFuture< R > result;
+		synchronized ( pending )
+		{
+			final CompletableFuture< R > f = pending.get( index );
+			if ( f != null )
+				return f.isDone();
+			result = new CompletableFuture<>();
+			pending.put( index, result );
+		}
+		executor.execute( () -> {
+			try
+			{
+				result.complete( fetch.get( index ) );
+			}
+			catch ( final Throwable t )
+			{
+				result.completeExceptionally( t );
+			}
+		} );
+		return false;
+	}
+
+	/**
+	 * Take the raw data of cell {@code index}. If it was not prefetched (or
+	 * dropped again), it is fetched on the calling thread.
+	 */
+	public R take( final long index ) throws Exception
+	{
+		final CompletableFuture< R > result;
+		synchronized ( pending )
+		{
+			result = pending.remove( index );
+		}
+		if ( result == null )
+			return fetch.get( index );
+		try
+		{
+			return result.get();
+		}
+		catch ( final ExecutionException e )
+		{
+			final Throwable cause = e.getCause();
+			if ( cause instanceof Exception )
+				throw ( Exception ) cause;
+			throw e;
+		}
+	}
+
+	/**
+	 * Decorate {@code get} such that a cell that is not loaded yet is only
+	 * requested with the given {@link CacheHints} once the raw data of all
+	 * cells it depends on is available. Until then, it is requested with
+	 * {@link LoadingStrategy#DONTLOAD}, which returns an invalid cell without
+	 * enqueuing a load, and the missing raw data is prefetched.
+	 *
+	 * @param grid
+	 *            grid of the image accessed through {@code get}
+	 * @param upstream
+	 *            the cells of the raw source a cell depends on. For the raw
+	 *            source itself, use {@link UpstreamDependency#aligned}.
+	 * @param isLoaded
+	 *            whether the cell of the raw source with the given index is
+	 *            already in the cache, such that its raw data is not needed
+	 */
+	public < A extends VolatileAccess > VolatileCachedCellImg.Get< Cell< A > > whenReady(
+			final VolatileCachedCellImg.Get< Cell< A > > get,
+			final CellGrid grid,
+			final UpstreamDependency upstream,
+			final LongPredicate isLoaded )
+	{
+		final int n = grid.numDimensions();
+		return ( index, hints ) -> {
+			final Cell< A > cell = get.get( index, DONTLOAD );
+			if ( cell.getData().isValid() )
+				return cell;
+
+			final long[] min = new long[ n ];
+			final int[] dims = new int[ n ];
+			grid.getCellDimensions( index, min, dims );
+			final boolean[] ready = { true };
+			upstream.forEachUpstreamCell( min, dims, i -> {
+				if ( !isLoaded.test( i ) && !prefetch( i ) )
+					ready[ 0 ] = false;
+			} );
+			return ready[ 0 ] ? get.get( index, hints ) : cell;
+		};
+	}
+}
@@ -0,0 +1,154 @@
+package net.imglib2.cache.lowlevel.examplevirtual;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import net.imglib2.cache.queue.BlockingFetchQueues;
+import net.imglib2.cache.queue.FetcherThreads;
+
+/**
+ * Replacement for {@link FetcherThreads} that runs every request on its own
+ * virtual thread. A single dispatcher thread takes requests from the
+ * {@link BlockingFetchQueues} in priority order, and at most
+ * {@code maxInFlight} of them run at a time. A loader that blocks on I/O then
+ * only parks its virtual thread, so thousands of loads can be in flight
+ * without thousands of OS threads.
+ * <p>
+ * Virtual threads are created via reflection, so that this also runs on Java
+ * versions without them. There, a pool of platform threads is used instead,
+ * and {@code maxInFlight} should be chosen accordingly (see
+ * {@link #isSupported()}).
+ * <p>
+ * Loaders should limit their own concurrency (see
+ * {@link BlockingLoaders#limit}), and CPU-heavy loaders should be moved to a
+ * bounded pool of platform threads (see {@link BlockingLoaders#onPlatformPool}),
+ * where they do not occupy the few carrier threads of the virtual threads.
+ * <p>
+ * Note that the low-level caches call their loaders while holding monitors
+ * ({@code WeakRefVolatileCache}, {@code GuardedStrongRefLoaderRemoverCache}
+ * and {@code IoSync} synchronize on the entry being loaded). Up to Java 23, a
+ * virtual thread that blocks inside {@code synchronized} pins its carrier
+ * thread, so no more loads than there are carrier threads (by default one per
+ * core) can block at a time, however large {@code maxInFlight} is. Blocking
+ * I/O should therefore happen before the cell is requested from the cache,
+ * see {@link RawPrefetcher}. From Java 24 on, virtual threads unmount while
+ * blocked in {@code synchronized} as well.
+ */
+public class VirtualFetcherThreads
+{
+	/**
+	 * Whether a virtual thread executor could be created. Determined once by
+	 * creating one, because on Java 19 and 20 the factory method exists but
+	 * throws unless preview features are enabled.
+	 */
+	private static final boolean supported = probe();
+
+	private final ExecutorService executor;
+
+	private final Semaphore inFlight;
+
+	public VirtualFetcherThreads( final BlockingFetchQueues< Callable< ? > > queue, final int maxInFlight )
+	{
+		executor = newExecutor( "Fetcher-" );
+		inFlight = new Semaphore( maxInFlight );
+
+		final Thread dispatcher = new Thread( () -> dispatch( queue ), "FetchDispatcher" );
+		dispatcher.setDaemon( true );
+		dispatcher.start();
+	}
+
+	/**
+	 * Whether requests will run on virtual threads in this JVM.
+	 */
+	public static boolean isSupported()
+	{
+		return supported;
+	}
+
+	/**
+	 * Create an executor that runs every task on its own virtual thread, or,
+	 * if this JVM has no virtual threads, on a cached pool of daemon threads
+	 * whose names start with {@code namePrefix}.
+	 */
+	public static ExecutorService newExecutor( final String namePrefix )
+	{
+		final ExecutorService virtual = supported ? newVirtualThreadPerTaskExecutor() : null;
+		if ( virtual != null )
+			return virtual;
+		final AtomicInteger i = new AtomicInteger();
+		return Executors.newCachedThreadPool( r -> {
+			final Thread t = new Thread( r, namePrefix + i.getAndIncrement() );
+			t.setDaemon( true );
+			return t;
+		} );
+	}
+
+	private void dispatch( final BlockingFetchQueues< Callable< ? > > queue )
+	{
+		try
+		{
+			while ( true )
+			{
+				inFlight.acquire();
+				final Callable< ? > request = queue.take();
+				executor.execute( () -> {
+					try
+					{
+						request.call();
+					}
+					catch ( final InterruptedException | CancellationException e )
+					{
+						// the load was abandoned on purpose, nothing to report
+					}
+					catch ( final Exception e )
+					{
+						/*
+						 * The cell stays invalid and is requested again by the
+						 * next frame. Report like an exception escaping a
+						 * fetcher thread would.
+						 */
+						final Thread t = Thread.currentThread();
+						t.getUncaughtExceptionHandler().uncaughtException( t, e );
+					}
+					finally
+					{
+						inFlight.release();
+					}
+				} );
+			}
+		}
+		catch ( final InterruptedException e )
+		{
+			executor.shutdown();
+		}
+	}
+
+	private static boolean probe()
+	{
+		final ExecutorService executor = newVirtualThreadPerTaskExecutor();
+		if ( executor == null )
+			return false;
+		executor.shutdown();
+		return true;
+	}
+
+	/**
+	 * Create a virtual thread executor, or return {@code null} if this JVM
+	 * does not have virtual threads or has them only as a preview feature
+	 * that is not enabled.
+	 */
+	private static ExecutorService newVirtualThreadPerTaskExecutor()
+	{
+		try
+		{
+			return ( ExecutorService ) Executors.class.getMethod( "newVirtualThreadPerTaskExecutor" ).invoke( null );
+		}
+		catch ( final ReflectiveOperationException | RuntimeException e )
+		{
+			return null;
+		}
+	}
+}
@@ -0,0 +1,487 @@
+package net.imglib2.cache.lowlevel.examplewritebehind;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Predicate;
+import net.imglib2.cache.CacheLoader;
+import net.imglib2.cache.CacheRemover;
+
+/**
+ * A replacement for {@code IoSync} (for {@code Long} keys) that writes evicted
+ * entries asynchronously through a bounded queue.
+ * <p>
+ * {@link #onRemoval(Long, Object)} only enqueues the entry and returns, unless
+ * the queue is full, in which case it blocks until writers have made room
+ * (back-pressure). A configurable number of writer threads drain the queue.
+ * Each writer takes a run of consecutive keys (up to {@code maxBatchSize}) and
+ * writes them in ascending order. A key that is evicted again while still
+ * queued replaces the queued data, so it is written only once.
+ * <p>
+ * Merging a run into one sequential write is not implemented: the backing
+ * {@link CacheRemover} only writes single entries, and {@code DiskCellCache}
+ * stores every cell in its own file. Batches only order the writes.
+ * <p>
+ * Loading a key that is queued or being written reconstructs the value from
+ * the pending data instead of reading the (possibly incomplete) store.
+ * <p>
+ * If writing an entry fails, it is queued again (unless it has been evicted
+ * again in the meantime) and retried after {@link #RETRY_DELAY_MILLIS}, so a
+ * dirty cell is never dropped. Failures are counted, see
+ * {@link #getNumFailures()}. While writes keep failing, {@link #flush()} does
+ * not return.
+ *
+ * @param <V>
+ *            value type
+ * @param <D>
+ *            value data type
+ */
+public class WriteBehindIoSync< V, D > implements CacheLoader< Long, V >, CacheRemover< Long, V, D >
+{
+	/**
+	 * How long a writer waits after a failed write before taking the next
+	 * batch.
+	 */
+	public static final long RETRY_DELAY_MILLIS = 100;
+
+	private final CacheLoader< Long, V > loader;
+
+	private final CacheRemover< Long, V, D > saver;
+
+	private final int capacity;
+
+	private final int maxBatchSize;
+
+	private final ReentrantLock lock = new ReentrantLock();
+
+	private final Condition notEmpty = lock.newCondition();
+
+	private final Condition notFull = lock.newCondition();
+
+	private final Condition written = lock.newCondition();
+
+	private final TreeMap< Long, Pending > pending = new TreeMap<>();
+
+	private final Map< Long, Pending > inFlight = new HashMap<>();
+
+	/**
+	 * Where the next writer starts looking for a batch, so that keys above a
+	 * continuously refilled low range are not starved.
+	 */
+	private long nextKey = Long.MIN_VALUE;
+
+	private final AtomicLong numWrites = new AtomicLong();
+
+	private final AtomicLong numBatches = new AtomicLong();
+
+	private final AtomicLong totalWriteNanos = new AtomicLong();
+
+	private final AtomicLong maxWriteNanos = new AtomicLong();
+
+	private final AtomicLong totalBlockedNanos = new AtomicLong();
+
+	private final AtomicLong numFailures = new AtomicLong();
+
+	private final List< Thread > writers = new ArrayList<>();
+
+	private class Pending
+	{
+		final D data;
+
+		final CompletableFuture< Void > done;
+
+		Pending( final D data, final CompletableFuture< Void > done )
+		{
+			this.data = data;
+			this.done = done;
+		}
+	}
+
+	/**
+	 * @param io
+	 *            the backing store, e.g. a {@code DiskCellCache}
+	 * @param numThreads
+	 *            number of writer threads
+	 * @param capacity
+	 *            maximum number of entries queued or being written before
+	 *            {@link #onRemoval(Long, Object)} blocks
+	 * @param maxBatchSize
+	 *            maximum number of consecutive keys a writer takes at once
+	 */
+	public < T extends CacheLoader< Long, V > & CacheRemover< Long, V, D > > WriteBehindIoSync(
+			final T io,
+			final int numThreads,
+			final int capacity,
+			final int maxBatchSize )
+	{
+		this.loader = io;
+		this.saver = io;
+		this.capacity = capacity;
+		this.maxBatchSize = maxBatchSize;
+		for ( int i = 0; i < numThreads; ++i )
+		{
+			final Thread writer = new Thread( this::writeLoop, "WriteBehind-" + i );
+			writer.setDaemon( true );
+			writer.start();
+			writers.add( writer );
+		}
+	}
+
+	public < T extends CacheLoader< Long, V > & CacheRemover< Long, V, D > > WriteBehindIoSync( final T io )
+	{
+		this( io, 2, 64, 16 );
+	}
+
+	@Override
+	public V get( final Long key ) throws Exception
+	{
+		lock.lock();
+		try
+		{
+			Pending p = pending.get( key );
+			if ( p == null )
+				p = inFlight.get( key );
+			if ( p != null )
+				return saver.reconstruct( key, p.data );
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return loader.get( key );
+	}
+
+	@Override
+	public void onRemoval( final Long key, final D valueData )
+	{
+		enqueue( key, valueData );
+	}
+
+	@Override
+	public CompletableFuture< Void > persist( final Long key, final D valueData )
+	{
+		return enqueue( key, valueData );
+	}
+
+	@Override
+	public D extract( final V value )
+	{
+		return saver.extract( value );
+	}
+
+	@Override
+	public V reconstruct( final Long key, final D valueData )
+	{
+		return saver.reconstruct( key, valueData );
+	}
+
+	@Override
+	public void invalidate( final Long key )
+	{
+		lock.lock();
+		try
+		{
+			// a failed write puts the key back into pending, so wait first
+			while ( inFlight.containsKey( key ) )
+				written.awaitUninterruptibly();
+			final Pending p = pending.remove( key );
+			if ( p != null )
+			{
+				p.done.complete( null );
+				notFull.signalAll();
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		saver.invalidate( key );
+	}
+
+	@Override
+	public void invalidateIf( final long parallelismThreshold, final Predicate< Long > condition )
+	{
+		lock.lock();
+		try
+		{
+			while ( inFlight.keySet().stream().anyMatch( condition ) )
+				written.awaitUninterruptibly();
+			final Iterator< Map.Entry< Long, Pending > > it = pending.entrySet().iterator();
+			while ( it.hasNext() )
+			{
+				final Map.Entry< Long, Pending > entry = it.next();
+				if ( condition.test( entry.getKey() ) )
+				{
+					entry.getValue().done.complete( null );
+					it.remove();
+				}
+			}
+			notFull.signalAll();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		saver.invalidateIf( parallelismThreshold, condition );
+	}
+
+	@Override
+	public void invalidateAll( final long parallelismThreshold )
+	{
+		invalidateIf( parallelismThreshold, key -> true );
+		saver.invalidateAll( parallelismThreshold );
+	}
+
+	/**
+	 * Block until everything queued so far has been written.
+	 */
+	public void flush() throws InterruptedException
+	{
+		lock.lock();
+		try
+		{
+			while ( !pending.isEmpty() || !inFlight.isEmpty() )
+				written.await();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Number of entries queued or being written.
+	 */
+	public int getQueueDepth()
+	{
+		lock.lock();
+		try
+		{
+			return pending.size() + inFlight.size();
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	public int getCapacity()
+	{
+		return capacity;
+	}
+
+	public long getNumWrites()
+	{
+		return numWrites.get();
+	}
+
+	public long getNumBatches()
+	{
+		return numBatches.get();
+	}
+
+	public double getMeanWriteLatencyMillis()
+	{
+		final long n = numWrites.get();
+		return n == 0 ? 0 : totalWriteNanos.get() / 1e6 / n;
+	}
+
+	public double getMaxWriteLatencyMillis()
+	{
+		return maxWriteNanos.get() / 1e6;
+	}
+
+	/**
+	 * Number of failed writes. Each failed entry has been queued again.
+	 */
+	public long getNumFailures()
+	{
+		return numFailures.get();
+	}
+
+	/**
+	 * Total time evicting threads spent blocked on a full queue.
+	 */
+	public double getBlockedMillis()
+	{
+		return totalBlockedNanos.get() / 1e6;
+	}
+
+	@Override
+	public String toString()
+	{
+		return String.format( "queue %d/%d, %d writes in %d batches, %d failed, latency mean %.2f ms max %.2f ms, blocked %.0f ms",
+				getQueueDepth(), capacity, getNumWrites(), getNumBatches(), getNumFailures(),
+				getMeanWriteLatencyMillis(), getMaxWriteLatencyMillis(), getBlockedMillis() );
+	}
+
+	private CompletableFuture< Void > enqueue( final Long key, final D valueData )
+	{
+		lock.lock();
+		try
+		{
+			final Pending existing = pending.get( key );
+			if ( existing != null )
+			{
+				final Pending p = new Pending( valueData, existing.done );
+				pending.put( key, p );
+				return p.done;
+			}
+
+			if ( pending.size() + inFlight.size() >= capacity )
+			{
+				final long t0 = System.nanoTime();
+				while ( pending.size() + inFlight.size() >= capacity )
+					notFull.awaitUninterruptibly();
+				totalBlockedNanos.addAndGet( System.nanoTime() - t0 );
+			}
+
+			final Pending p = new Pending( valueData, new CompletableFuture<>() );
+			pending.put( key, p );
+			notEmpty.signal();
+			return p.done;
+		}
+		finally
+		{
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Take a run of consecutive keys that are not currently being written.
+	 * Must be called with {@link #lock} held.
+	 */
+	private List< Long > takeBatch()
+	{
+		final List< Long > batch = new ArrayList<>();
+		Long first = pending.ceilingKey( nextKey );
+		while ( first != null && inFlight.containsKey( first ) )
+			first = pending.higherKey( first );
+		if ( first == null )
+		{
+			first = pending.isEmpty() ? null : pending.firstKey();
+			while ( first != null && inFlight.containsKey( first ) )
+				first = pending.higherKey( first );
+		}
+		if ( first == null )
+			return batch;
+
+		for ( long key = first; batch.size() < maxBatchSize; ++key )
+		{
+			final Pending p = pending.get( key );
+			if ( p == null || inFlight.containsKey( key ) )
+				break;
+			pending.remove( key );
+			inFlight.put( key, p );
+			batch.add( key );
+		}
+		nextKey = batch.get( batch.size() - 1 ) + 1;
+		return batch;
+	}
+
+	private void writeLoop()
+	{
+		while ( true )
+		{
+			final List< Long > batch;
+			final List< Pending > data = new ArrayList<>();
+			lock.lock();
+			try
+			{
+				List< Long > b = takeBatch();
+				while ( b.isEmpty() )
+				{
+					notEmpty.await( 100, TimeUnit.MILLISECONDS );
+					b = takeBatch();
+				}
+				batch = b;
+				for ( final Long key : batch )
+					data.add( inFlight.get( key ) );
+			}
+			catch ( final InterruptedException e )
+			{
+				return;
+			}
+			finally
+			{
+				lock.unlock();
+			}
+
+			numBatches.incrementAndGet();
+			boolean failed = false;
+			for ( int i = 0; i < batch.size(); ++i )
+			{
+				final Long key = batch.get( i );
+				final Pending p = data.get( i );
+				final long t0 = System.nanoTime();
+				Throwable failure = null;
+				try
+				{
+					saver.onRemoval( key, p.data );
+					final long t = System.nanoTime() - t0;
+					numWrites.incrementAndGet();
+					totalWriteNanos.addAndGet( t );
+					maxWriteNanos.accumulateAndGet( t, Math::max );
+				}
+				catch ( final Throwable e )
+				{
+					failure = e;
+					failed = true;
+					numFailures.incrementAndGet();
+				}
+
+				lock.lock();
+				try
+				{
+					inFlight.remove( key );
+					if ( failure == null )
+						p.done.complete( null );
+					else
+						requeue( key, p );
+					notFull.signalAll();
+					written.signalAll();
+					if ( !pending.isEmpty() )
+						notEmpty.signal();
+				}
+				finally
+				{
+					lock.unlock();
+				}
+			}
+
+			if ( failed )
+			{
+				try
+				{
+					Thread.sleep( RETRY_DELAY_MILLIS );
+				}
+				catch ( final InterruptedException e )
+				{
+					return;
+				}
+			}
+		}
+	}
+
+	/**
+	 * Queue {@code p} again after writing it failed. If {@code key} has been
+	 * evicted again in the meantime, the newer data will be written instead,
+	 * and {@code p} completes with it. Must be called with {@link #lock} held.
+	 */
+	private void requeue( final Long key, final Pending p )
+	{
+		final Pending newer = pending.get( key );
+		if ( newer == null )
+			pending.put( key, p );
+		else
+			newer.done.thenRun( () -> p.done.complete( null ) );
+	}
+}